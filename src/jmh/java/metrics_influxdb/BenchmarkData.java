@@ -0,0 +1,73 @@
+package metrics_influxdb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import metrics_influxdb.measurements.Measure;
+import metrics_influxdb.measurements.TagSet;
+
+/**
+ * Metric names, tags and measures shaped like those of a production service, shared by the benchmarks.
+ */
+public final class BenchmarkData {
+	/** a name in the key/value form expected by KeyValueMetricMeasurementTransformer */
+	public static final String KEY_VALUE_NAME = "service.checkout.region.eu-west-1.host.web-042.http.requests.latency";
+	/** a name in the form expected by CategoriesMetricMeasurementTransformer with {@link #CATEGORIES} */
+	public static final String CATEGORIES_NAME = "checkout.eu-west-1.web-042.com.example.shop.PaymentService.authorize";
+	public static final String[] CATEGORIES = {"service", "region", "host"};
+	/** a string without any character to escape */
+	public static final String CLEAN = "com.example.shop.PaymentService.authorize";
+	/** a string with spaces, commas and equal signs to escape */
+	public static final String DIRTY = "GET /api/v1/orders,status=open page size 50";
+
+	private BenchmarkData() {
+	}
+
+	public static Map<String, String> tags() {
+		Map<String, String> tags = new HashMap<>();
+		tags.put("host", "web-042.eu-west-1.example.com");
+		tags.put("region", "eu-west-1");
+		tags.put("service", "checkout");
+		tags.put("env", "production");
+		tags.put("version", "2.14.3");
+		return tags;
+	}
+
+	/**
+	 * @return a measure with the fields of a timer, as reported by MeasurementReporter
+	 */
+	public static Measure timerMeasure(int series) {
+		Measure m = new Measure("com.example.shop.PaymentService.authorize." + series);
+		m.timestamp(1_500_000_000_000L + series)
+				.addTag(TagSet.of(tags()))
+				.addValue("count", 1024)
+				.addValue("min", 0.412)
+				.addValue("max", 812.5)
+				.addValue("mean", 12.71)
+				.addValue("std-dev", 30.2)
+				.addValue("50-percentile", 8.3)
+				.addValue("75-percentile", 11.9)
+				.addValue("95-percentile", 42.0)
+				.addValue("99-percentile", 151.7)
+				.addValue("999-percentile", 640.2)
+				.addValue("one-minute", 17.3)
+				.addValue("five-minute", 16.9)
+				.addValue("fifteen-minute", 16.2)
+				.addValue("mean-minute", 15.8)
+				.addValue("run-count", 1_234_567L);
+		return m;
+	}
+
+	/**
+	 * @return measures of distinct series, as in a report
+	 */
+	public static List<Measure> timerMeasures(int count) {
+		List<Measure> measures = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			measures.add(timerMeasure(i));
+		}
+		return measures;
+	}
+}
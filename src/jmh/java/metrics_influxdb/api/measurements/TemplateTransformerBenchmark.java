@@ -0,0 +1,111 @@
+package metrics_influxdb.api.measurements;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Transformation of metric names by {@link TemplateMetricMeasurementTransformer} compared to a chain of regular
+ * expressions expressing the same rules, tried in turn, for growing numbers of rules.
+ * <br>
+ * Rule {@code i} maps {@code app-i.<host>.<region>.<measurement...>} to the measurement and its host and region
+ * tags; the names transformed hit the first, the middle and the last rules.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TemplateTransformerBenchmark {
+	@Param({"10", "100", "1000"})
+	private int rules;
+
+	private MetricMeasurementTransformer template;
+	private MetricMeasurementTransformer regex;
+	private String[] names;
+	private int next;
+
+	@Setup
+	public void setup() {
+		String[] templates = new String[rules];
+		List<Pattern> patterns = new ArrayList<>();
+		for (int i = 0; i < rules; i++) {
+			templates[i] = "app-" + i + ".*.* .host.region.measurement*";
+			patterns.add(Pattern.compile("^app-" + i + "\\.([^.]+)\\.([^.]+)\\.(.+)$"));
+		}
+		template = new TemplateMetricMeasurementTransformer(templates);
+		regex = new RegexChainTransformer(patterns);
+		names = new String[] {
+				"app-0.web-042.eu-west-1.http.requests.latency",
+				"app-" + rules / 2 + ".web-042.eu-west-1.http.requests.latency",
+				"app-" + (rules - 1) + ".web-042.eu-west-1.http.requests.latency"};
+	}
+
+	private String nextName() {
+		next = (next + 1) % names.length;
+		return names[next];
+	}
+
+	@Benchmark
+	public MetricMeasurement templateTrie() {
+		return template.transform(nextName());
+	}
+
+	@Benchmark
+	public MetricMeasurement regexChain() {
+		return regex.transform(nextName());
+	}
+
+	/**
+	 * The custom transformer the templates replace: the first matching regular expression gives the host, region and
+	 * measurement name groups.
+	 */
+	private static class RegexChainTransformer implements MetricMeasurementTransformer {
+		private final List<Pattern> patterns;
+
+		RegexChainTransformer(List<Pattern> patterns) {
+			this.patterns = patterns;
+		}
+
+		@Override
+		public MetricMeasurement transform(String metricName) {
+			for (Pattern pattern : patterns) {
+				Matcher matcher = pattern.matcher(metricName);
+				if (matcher.matches()) {
+					Map<String, String> tags = new HashMap<>();
+					tags.put("host", matcher.group(1));
+					tags.put("region", matcher.group(2));
+					return new MetricMeasurement(matcher.group(3), tags);
+				}
+			}
+			return new MetricMeasurement(metricName, new HashMap<String, String>());
+		}
+
+		@Override
+		public Map<String, String> tags(String metricName) {
+			return transform(metricName).getTags();
+		}
+
+		@Override
+		public String measurementName(String metricName) {
+			return transform(metricName).getName();
+		}
+	}
+}
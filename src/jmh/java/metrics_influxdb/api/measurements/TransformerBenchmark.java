@@ -0,0 +1,61 @@
+package metrics_influxdb.api.measurements;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import metrics_influxdb.BenchmarkData;
+
+/**
+ * Computation of the measurement name and tags of a metric, as done by the reporter for every metric of every report.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TransformerBenchmark {
+	private final MetricMeasurementTransformer keyValue = new KeyValueMetricMeasurementTransformer();
+	private final MetricMeasurementTransformer categories = new CategoriesMetricMeasurementTransformer(BenchmarkData.CATEGORIES);
+	private final MetricMeasurementTransformer cachedKeyValue = new CachingMetricMeasurementTransformer(keyValue);
+
+	@Benchmark
+	public Map<String, String> keyValueTags() {
+		return keyValue.tags(BenchmarkData.KEY_VALUE_NAME);
+	}
+
+	@Benchmark
+	public String keyValueName() {
+		return keyValue.measurementName(BenchmarkData.KEY_VALUE_NAME);
+	}
+
+	@Benchmark
+	public Map<String, String> categoriesTags() {
+		return categories.tags(BenchmarkData.CATEGORIES_NAME);
+	}
+
+	@Benchmark
+	public String categoriesName() {
+		return categories.measurementName(BenchmarkData.CATEGORIES_NAME);
+	}
+
+	@Benchmark
+	public MetricMeasurement keyValueTransform() {
+		return keyValue.transform(BenchmarkData.KEY_VALUE_NAME);
+	}
+
+	@Benchmark
+	public MetricMeasurement cachedKeyValueTransform() {
+		return cachedKeyValue.transform(BenchmarkData.KEY_VALUE_NAME);
+	}
+}
@@ -0,0 +1,115 @@
+package metrics_influxdb.measurements;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import metrics_influxdb.BenchmarkData;
+import metrics_influxdb.api.measurements.KeyValueMetricMeasurementTransformer;
+
+/**
+ * Conversion of a single timer, histogram or gauge to a measure by the reporter, from reading its values to handing
+ * the measure over to a sender doing nothing.
+ */
+@SuppressWarnings("rawtypes")
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MeasurementReporterBenchmark {
+	private static final SortedMap<String, Gauge> NO_GAUGES = Collections.emptySortedMap();
+	private static final SortedMap<String, Counter> NO_COUNTERS = Collections.emptySortedMap();
+	private static final SortedMap<String, Histogram> NO_HISTOGRAMS = Collections.emptySortedMap();
+	private static final SortedMap<String, Meter> NO_METERS = Collections.emptySortedMap();
+	private static final SortedMap<String, Timer> NO_TIMERS = Collections.emptySortedMap();
+
+	private MeasurementReporter reporter;
+	private SortedMap<String, Gauge> gauges;
+	private SortedMap<String, Histogram> histograms;
+	private SortedMap<String, Timer> timers;
+
+	@Setup
+	public void setup(final Blackhole blackhole) {
+		MetricRegistry registry = new MetricRegistry();
+		Sender sender = new Sender() {
+			@Override
+			public void flush() {
+			}
+
+			@Override
+			public void send(Measure m) {
+				blackhole.consume(m);
+			}
+
+			@Override
+			public void send(Collection<Measure> measures) {
+				blackhole.consume(measures);
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+		reporter = new MeasurementReporter(sender, registry, MetricFilter.ALL, TimeUnit.SECONDS, TimeUnit.MILLISECONDS,
+				Clock.defaultClock(), BenchmarkData.tags(), new KeyValueMetricMeasurementTransformer());
+
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		Timer timer = registry.timer(BenchmarkData.KEY_VALUE_NAME);
+		Histogram histogram = registry.histogram(BenchmarkData.KEY_VALUE_NAME + ".size");
+		for (int i = 0; i < 1028; i++) {
+			timer.update(random.nextLong(100_000, 500_000_000), TimeUnit.NANOSECONDS);
+			histogram.update(random.nextInt(100_000));
+		}
+		timers = new TreeMap<>(Collections.singletonMap(BenchmarkData.KEY_VALUE_NAME, timer));
+		histograms = new TreeMap<>(Collections.singletonMap(BenchmarkData.KEY_VALUE_NAME + ".size", histogram));
+		Gauge<Double> gauge = () -> 0.75;
+		gauges = new TreeMap<>(Collections.<String, Gauge>singletonMap(BenchmarkData.KEY_VALUE_NAME + ".ratio", gauge));
+	}
+
+	@TearDown
+	public void tearDown() {
+		reporter.close();
+	}
+
+	@Benchmark
+	public void timer() {
+		reporter.report(NO_GAUGES, NO_COUNTERS, NO_HISTOGRAMS, NO_METERS, timers);
+	}
+
+	@Benchmark
+	public void histogram() {
+		reporter.report(NO_GAUGES, NO_COUNTERS, histograms, NO_METERS, NO_TIMERS);
+	}
+
+	@Benchmark
+	public void gauge() {
+		reporter.report(gauges, NO_COUNTERS, NO_HISTOGRAMS, NO_METERS, NO_TIMERS);
+	}
+}
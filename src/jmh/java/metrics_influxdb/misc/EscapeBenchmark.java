@@ -0,0 +1,54 @@
+package metrics_influxdb.misc;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import metrics_influxdb.BenchmarkData;
+import metrics_influxdb.serialization.line.LineBuffer;
+
+/**
+ * Escaping of names, keys and values, for strings with and without characters to escape.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class EscapeBenchmark {
+	private static final char[] ESCAPE_CHARS = {' ', ',', '='};
+
+	@Param({"clean", "dirty"})
+	String shape;
+
+	private String value;
+	private LineBuffer buffer;
+
+	@Setup
+	public void setup() {
+		value = "clean".equals(shape) ? BenchmarkData.CLEAN : BenchmarkData.DIRTY;
+		buffer = new LineBuffer(256);
+	}
+
+	@Benchmark
+	public String escapeToString() {
+		return Miscellaneous.escape(value, ESCAPE_CHARS);
+	}
+
+	@Benchmark
+	public LineBuffer escapeToLineBuffer() {
+		buffer.reset();
+		return buffer.appendEscaped(value, ESCAPE_CHARS);
+	}
+}
@@ -0,0 +1,82 @@
+package metrics_influxdb.misc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import metrics_influxdb.BenchmarkData;
+import metrics_influxdb.measurements.Measure;
+
+/**
+ * Measures added by 3 producer threads while a consumer thread drains them, for {@link BoundedFIFO} and
+ * {@link RingBuffer}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueueBenchmark {
+	private static final int CAPACITY = 5000;
+	private static final Measure MEASURE = BenchmarkData.timerMeasure(0);
+
+	@State(Scope.Group)
+	public static class Queues {
+		BoundedFIFO<Measure> fifo;
+		RingBuffer<Measure> ring;
+
+		@Setup
+		public void setup() {
+			fifo = new BoundedFIFO<>(CAPACITY);
+			ring = new RingBuffer<>(CAPACITY);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Drained {
+		final List<Measure> batch = new ArrayList<>(CAPACITY);
+	}
+
+	@Benchmark
+	@Group("boundedFifo")
+	@GroupThreads(3)
+	public boolean boundedFifoAdd(Queues queues) {
+		return queues.fifo.add(MEASURE);
+	}
+
+	@Benchmark
+	@Group("boundedFifo")
+	@GroupThreads(1)
+	public int boundedFifoDrain(Queues queues, Drained drained) {
+		drained.batch.clear();
+		return queues.fifo.drainTo(drained.batch, CAPACITY);
+	}
+
+	@Benchmark
+	@Group("ringBuffer")
+	@GroupThreads(3)
+	public int ringBufferAdd(Queues queues) {
+		return queues.ring.add(MEASURE);
+	}
+
+	@Benchmark
+	@Group("ringBuffer")
+	@GroupThreads(1)
+	public int ringBufferDrain(Queues queues, Drained drained) {
+		drained.batch.clear();
+		return queues.ring.drainTo(drained.batch, CAPACITY);
+	}
+}
@@ -0,0 +1,387 @@
+package metrics_influxdb.scalability;
+
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.ScheduledReporter;
+import com.sun.net.httpserver.HttpServer;
+
+import metrics_influxdb.HttpInfluxdbProtocol;
+import metrics_influxdb.UdpInfluxdbProtocol;
+import metrics_influxdb.api.measurements.KeyValueMetricMeasurementTransformer;
+import metrics_influxdb.api.measurements.MetricMeasurementTransformer;
+import metrics_influxdb.measurements.HttpInlinerSender;
+import metrics_influxdb.measurements.Measure;
+import metrics_influxdb.measurements.MeasurementReporter;
+import metrics_influxdb.measurements.QueueableSender;
+import metrics_influxdb.measurements.Sender;
+import metrics_influxdb.measurements.UdpInlinerSender;
+import metrics_influxdb.serialization.line.Inliner;
+import metrics_influxdb.serialization.line.LineBuffer;
+import metrics_influxdb.v08.InfluxdbHttp;
+import metrics_influxdb.v08.ReporterV08;
+
+/**
+ * Measures how the reporters scale with the size of the registry.
+ * <br>
+ * For each registry size and each reporter, a {@link SyntheticRegistry} is built, then reported a few times to warm
+ * up and a few more times to measure. Reports run on the calling thread, towards a local sink which only counts what
+ * it receives, and each measured tick records its latency, its CPU time and the bytes allocated by the reporting
+ * thread. One record is written per size and reporter, as JSON lines or CSV, with the tick latency percentiles and
+ * the throughput in lines (metrics) per second.
+ * <br>
+ * Options, all optional:
+ * <pre>
+ * --sizes 1000,10000,50000,200000   total numbers of metrics
+ * --mix 20,40,15,15,10              percentages of gauges, counters, meters, histograms and timers
+ * --tag-cardinality 100             number of distinct values of each tag segment of the names
+ * --name-shape dotted|key-value     shape of the names, key-value using KeyValueMetricMeasurementTransformer
+ * --reservoir-size 128              size of the histogram and timer reservoirs
+ * --reporters measurement-inline,measurement-indexed,measurement-http,measurement-udp,v08-http
+ *                                 measurement-indexed reporting inline from the registry listener index
+ * --warmup 3 --ticks 10             numbers of warm up and measured ticks
+ * --format json|csv --output file   output, standard output by default
+ * </pre>
+ */
+public class ScalabilityHarness {
+	private static final String[] COLUMNS = {"version", "java", "reporter", "metrics", "nameShape", "tagCardinality", "ticks",
+			"tickP50Millis", "tickP90Millis", "tickP99Millis", "tickMaxMillis", "cpuMillisPerTick", "allocatedBytesPerTick",
+			"sinkBytesPerTick", "linesPerSecond"};
+
+	private final Map<String, String> options = new HashMap<>();
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+	public static void main(String[] args) throws Exception {
+		new ScalabilityHarness(args).run();
+	}
+
+	ScalabilityHarness(String[] args) {
+		options.put("sizes", "1000,10000,50000,200000");
+		options.put("mix", "20,40,15,15,10");
+		options.put("tag-cardinality", "100");
+		options.put("name-shape", "dotted");
+		options.put("reservoir-size", "128");
+		options.put("reporters", "measurement-inline,measurement-http,measurement-udp,v08-http");
+		options.put("warmup", "3");
+		options.put("ticks", "10");
+		options.put("format", "json");
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (!args[i].startsWith("--") || !options.containsKey(args[i].substring(2)) && !"--output".equals(args[i])) {
+				throw new IllegalArgumentException("unknown option " + args[i]);
+			}
+			options.put(args[i].substring(2), args[i + 1]);
+		}
+	}
+
+	void run() throws Exception {
+		int[] percentages = ints(options.get("mix"));
+		SyntheticRegistry.NameShape shape = "key-value".equals(options.get("name-shape")) ? SyntheticRegistry.NameShape.KEY_VALUE : SyntheticRegistry.NameShape.DOTTED;
+		int tagCardinality = Integer.parseInt(options.get("tag-cardinality"));
+		int warmup = Integer.parseInt(options.get("warmup"));
+		int ticks = Integer.parseInt(options.get("ticks"));
+		boolean csv = "csv".equals(options.get("format"));
+		String output = options.get("output");
+
+		try (PrintWriter out = output == null
+				? new PrintWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), true)
+				: new PrintWriter(new OutputStreamWriter(new FileOutputStream(output), StandardCharsets.UTF_8), true);
+				Sink sink = new Sink()) {
+			if (csv) {
+				out.println(String.join(",", COLUMNS));
+			}
+			for (int size : ints(options.get("sizes"))) {
+				int[] mix = new int[percentages.length];
+				int total = 0;
+				for (int p : percentages) {
+					total += p;
+				}
+				for (int i = 0; i < mix.length; i++) {
+					mix[i] = (int) ((long) size * percentages[i] / total);
+				}
+				SyntheticRegistry synthetic = new SyntheticRegistry(mix, tagCardinality, shape, Integer.parseInt(options.get("reservoir-size")));
+				for (String reporterName : options.get("reporters").split(",")) {
+					Map<String, Object> record = measure(reporterName.trim(), synthetic, shape, sink, warmup, ticks);
+					record.put("nameShape", options.get("name-shape"));
+					record.put("tagCardinality", tagCardinality);
+					write(out, record, csv);
+				}
+			}
+		}
+	}
+
+	private Map<String, Object> measure(String reporterName, SyntheticRegistry synthetic, SyntheticRegistry.NameShape shape, Sink sink, int warmup, int ticks) throws Exception {
+		MetricMeasurementTransformer transformer = shape == SyntheticRegistry.NameShape.KEY_VALUE ? new KeyValueMetricMeasurementTransformer() : MetricMeasurementTransformer.NOOP;
+		CountingSender counting = null;
+		ScheduledReporter reporter;
+		Sender sender = null;
+		MetricRegistry registry = synthetic.getRegistry();
+		switch (reporterName) {
+		case "measurement-inline":
+		case "measurement-indexed":
+			counting = new CountingSender();
+			sender = counting;
+			break;
+		case "measurement-http":
+			sender = new HttpInlinerSender(new HttpInfluxdbProtocol("http", sink.getHost(), sink.getHttpPort(), null, null, "metrics", 10, 30));
+			break;
+		case "measurement-udp":
+			sender = new UdpInlinerSender(new UdpInfluxdbProtocol(sink.getHost(), sink.getUdpPort()));
+			break;
+		case "v08-http":
+			break;
+		default:
+			throw new IllegalArgumentException("unknown reporter " + reporterName);
+		}
+		if (sender == null) {
+			reporter = new ReporterV08(registry, new InfluxdbHttp(sink.getHost(), sink.getHttpPort(), "metrics", "root", "root"), Clock.defaultClock(), null,
+					TimeUnit.SECONDS, TimeUnit.MILLISECONDS, MetricFilter.ALL, false);
+		} else {
+			reporter = new MeasurementReporter(sender, registry, MetricFilter.ALL, TimeUnit.SECONDS, TimeUnit.MILLISECONDS, Clock.defaultClock(),
+					Collections.<String, String>emptyMap(), transformer);
+			((MeasurementReporter) reporter).setIndexed("measurement-indexed".equals(reporterName));
+		}
+
+		long threadId = Thread.currentThread().getId();
+		long[] durations = new long[ticks];
+		long cpu = 0;
+		long allocated = 0;
+		long sinkBytes = 0;
+		try {
+			for (int i = 0; i < warmup + ticks; i++) {
+				synthetic.update();
+				long bytesBefore = counting == null ? sink.getBytes() : counting.bytes;
+				long cpuBefore = threads.getCurrentThreadCpuTime();
+				long allocatedBefore = allocatedBytes(threadId);
+				long start = System.nanoTime();
+				reporter.report();
+				long duration = System.nanoTime() - start;
+				if (i >= warmup) {
+					durations[i - warmup] = duration;
+					cpu += threads.getCurrentThreadCpuTime() - cpuBefore;
+					allocated += allocatedBytes(threadId) - allocatedBefore;
+					if (counting == null) {
+						// datagrams may still be in flight
+						sink.awaitQuiet();
+					}
+					sinkBytes += (counting == null ? sink.getBytes() : counting.bytes) - bytesBefore;
+				}
+			}
+		} finally {
+			reporter.close();
+			if (sender != null) {
+				sender.close();
+			}
+		}
+
+		long[] sorted = durations.clone();
+		Arrays.sort(sorted);
+		long totalNanos = 0;
+		for (long d : durations) {
+			totalNanos += d;
+		}
+		int metrics = synthetic.size();
+		Map<String, Object> record = new LinkedHashMap<>();
+		record.put("version", version());
+		record.put("java", System.getProperty("java.version"));
+		record.put("reporter", reporterName);
+		record.put("metrics", metrics);
+		record.put("ticks", ticks);
+		record.put("tickP50Millis", millis(percentile(sorted, 0.50)));
+		record.put("tickP90Millis", millis(percentile(sorted, 0.90)));
+		record.put("tickP99Millis", millis(percentile(sorted, 0.99)));
+		record.put("tickMaxMillis", millis(sorted[sorted.length - 1]));
+		record.put("cpuMillisPerTick", millis(cpu / ticks));
+		record.put("allocatedBytesPerTick", allocated < 0 ? -1 : allocated / ticks);
+		record.put("sinkBytesPerTick", sinkBytes / ticks);
+		record.put("linesPerSecond", Math.round(metrics * (double) ticks / (totalNanos / 1e9)));
+		return record;
+	}
+
+	private long allocatedBytes(long threadId) {
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threadId);
+		}
+		return -1;
+	}
+
+	private static long percentile(long[] sorted, double quantile) {
+		int index = (int) Math.ceil(quantile * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+	}
+
+	private static double millis(long nanos) {
+		return Math.round(nanos / 1e3) / 1e3;
+	}
+
+	private static String version() {
+		String version = System.getProperty("harness.version");
+		if (version == null) {
+			version = MeasurementReporter.class.getPackage().getImplementationVersion();
+		}
+		return version == null ? "unknown" : version;
+	}
+
+	private static int[] ints(String csv) {
+		String[] parts = csv.split(",");
+		int[] values = new int[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			values[i] = Integer.parseInt(parts[i].trim());
+		}
+		return values;
+	}
+
+	private static void write(PrintWriter out, Map<String, Object> record, boolean csv) {
+		StringBuilder sb = new StringBuilder();
+		if (csv) {
+			for (String column : COLUMNS) {
+				if (sb.length() > 0) {
+					sb.append(',');
+				}
+				sb.append(record.get(column));
+			}
+		} else {
+			sb.append('{');
+			for (Map.Entry<String, Object> e : record.entrySet()) {
+				if (sb.length() > 1) {
+					sb.append(',');
+				}
+				sb.append('"').append(e.getKey()).append("\":");
+				if (e.getValue() instanceof Number) {
+					sb.append(String.format(Locale.ROOT, "%s", e.getValue()));
+				} else {
+					sb.append('"').append(e.getValue()).append('"');
+				}
+			}
+			sb.append('}');
+		}
+		out.println(sb);
+	}
+
+	/**
+	 * Serializes the measures without sending them, counting their bytes.
+	 */
+	static class CountingSender extends QueueableSender {
+		private final Inliner inliner = new Inliner(TimeUnit.MILLISECONDS);
+		private final LineBuffer buffer = new LineBuffer();
+		long bytes;
+
+		CountingSender() {
+			super(5000);
+		}
+
+		@Override
+		protected boolean doSend(Collection<Measure> measures) {
+			buffer.reset();
+			inliner.inline(measures, buffer);
+			bytes += buffer.length();
+			return true;
+		}
+	}
+
+	/**
+	 * A local HTTP and UDP server counting the bytes it receives; it answers {@code 204} on {@code /write} and
+	 * {@code 200} on any other path, as InfluxDB 0.8 does.
+	 */
+	static class Sink implements Closeable {
+		private final HttpServer http;
+		private final ExecutorService executor = Executors.newFixedThreadPool(4);
+		private final DatagramSocket udp;
+		private final AtomicLong bytes = new AtomicLong();
+
+		Sink() throws IOException {
+			InetAddress loopback = InetAddress.getLoopbackAddress();
+			http = HttpServer.create(new InetSocketAddress(loopback, 0), 0);
+			http.createContext("/", exchange -> {
+				try (InputStream in = exchange.getRequestBody()) {
+					byte[] buffer = new byte[8192];
+					int read;
+					while ((read = in.read(buffer)) >= 0) {
+						bytes.addAndGet(read);
+					}
+					exchange.sendResponseHeaders(exchange.getRequestURI().getPath().equals("/write") ? 204 : 200, -1);
+				} finally {
+					exchange.close();
+				}
+			});
+			http.setExecutor(executor);
+			http.start();
+			udp = new DatagramSocket(0, loopback);
+			udp.setReceiveBufferSize(1 << 24);
+			Thread receiver = new Thread(() -> {
+				DatagramPacket packet = new DatagramPacket(new byte[65536], 65536);
+				while (!udp.isClosed()) {
+					try {
+						udp.receive(packet);
+						bytes.addAndGet(packet.getLength());
+					} catch (SocketException e) {
+						return;
+					} catch (IOException e) {
+						// keep on receiving
+					}
+				}
+			}, "scalability-udp-sink");
+			receiver.setDaemon(true);
+			receiver.start();
+		}
+
+		String getHost() {
+			return http.getAddress().getAddress().getHostAddress();
+		}
+
+		int getHttpPort() {
+			return http.getAddress().getPort();
+		}
+
+		int getUdpPort() {
+			return udp.getLocalPort();
+		}
+
+		long getBytes() {
+			return bytes.get();
+		}
+
+		/**
+		 * Waits until no more bytes are received for a short while.
+		 */
+		void awaitQuiet() throws InterruptedException {
+			long last;
+			do {
+				last = bytes.get();
+				Thread.sleep(20);
+			} while (bytes.get() != last);
+		}
+
+		@Override
+		public void close() {
+			http.stop(0);
+			executor.shutdownNow();
+			udp.close();
+		}
+	}
+}
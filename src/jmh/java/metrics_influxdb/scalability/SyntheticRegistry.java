@@ -0,0 +1,108 @@
+package metrics_influxdb.scalability;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SlidingWindowReservoir;
+import com.codahale.metrics.Timer;
+
+/**
+ * A {@link MetricRegistry} filled with generated metrics, whose values are updated between two report ticks.
+ * <br>
+ * Metric names are built from a few segments, whose values are drawn among {@code tagCardinality} values, followed
+ * by a unique metric name, either dotted ({@code shop.checkout.web-3.eu-1.requests-42}) or in the key/value shape
+ * expected by KeyValueMetricMeasurementTransformer ({@code service.checkout.host.web-3.region.eu-1.requests-42}).
+ * Histograms and timers use a small sliding window reservoir, so that hundreds of thousands of them fit in memory.
+ */
+public class SyntheticRegistry {
+	public enum NameShape {
+		DOTTED, KEY_VALUE
+	}
+
+	private static final String[] SERVICES = {"checkout", "catalog", "payment", "search", "account", "shipping"};
+	private static final String[] KINDS = {"requests", "latency", "errors", "bytes", "queue", "pool"};
+
+	private final MetricRegistry registry = new MetricRegistry();
+	private final List<Counter> counters = new ArrayList<>();
+	private final List<Meter> meters = new ArrayList<>();
+	private final List<Histogram> histograms = new ArrayList<>();
+	private final List<Timer> timers = new ArrayList<>();
+	private final Random random = new Random(0);
+	private final int tagCardinality;
+	private final NameShape shape;
+	private int sequence;
+
+	/**
+	 * @param mix the number of gauges, counters, meters, histograms and timers, in this order
+	 */
+	public SyntheticRegistry(int[] mix, int tagCardinality, NameShape shape, final int reservoirSize) {
+		this.tagCardinality = tagCardinality;
+		this.shape = shape;
+		for (int i = 0; i < mix[0]; i++) {
+			final long base = i;
+			registry.register(nextName(), (Gauge<Long>) () -> base + System.nanoTime() % 1000);
+		}
+		for (int i = 0; i < mix[1]; i++) {
+			counters.add(registry.counter(nextName()));
+		}
+		for (int i = 0; i < mix[2]; i++) {
+			meters.add(registry.meter(nextName()));
+		}
+		for (int i = 0; i < mix[3]; i++) {
+			histograms.add(registry.histogram(nextName(), () -> new Histogram(new SlidingWindowReservoir(reservoirSize))));
+		}
+		for (int i = 0; i < mix[4]; i++) {
+			timers.add(registry.timer(nextName(), () -> new Timer(new SlidingWindowReservoir(reservoirSize))));
+		}
+		update();
+	}
+
+	private String nextName() {
+		int n = sequence++;
+		String service = SERVICES[n % SERVICES.length];
+		String host = "web-" + random.nextInt(tagCardinality);
+		String region = "region-" + random.nextInt(tagCardinality);
+		String metric = KINDS[(n / SERVICES.length) % KINDS.length] + "-" + n;
+		if (shape == NameShape.KEY_VALUE) {
+			return MetricRegistry.name("service", service, "host", host, "region", region, metric);
+		}
+		return MetricRegistry.name("shop", service, host, region, metric);
+	}
+
+	public MetricRegistry getRegistry() {
+		return registry;
+	}
+
+	public int size() {
+		return registry.getMetrics().size();
+	}
+
+	/**
+	 * Updates every counting metric with a few values, as an application would between two ticks.
+	 */
+	public void update() {
+		for (Counter c : counters) {
+			c.inc(random.nextInt(10));
+		}
+		for (Meter m : meters) {
+			m.mark(random.nextInt(10));
+		}
+		for (Histogram h : histograms) {
+			for (int i = 0; i < 4; i++) {
+				h.update(random.nextInt(100_000));
+			}
+		}
+		for (Timer t : timers) {
+			for (int i = 0; i < 4; i++) {
+				t.update(100_000 + random.nextInt(500_000_000), TimeUnit.NANOSECONDS);
+			}
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package metrics_influxdb.serialization.line;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import metrics_influxdb.BenchmarkData;
+import metrics_influxdb.measurements.Measure;
+
+/**
+ * Serialization of timer measures to the line protocol, with and without the series key cache.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class InlinerBenchmark {
+	@Param({"10000", "0"})
+	int seriesKeyCacheSize;
+
+	private Inliner inliner;
+	private Measure single;
+	private List<Measure> batch;
+	private LineBuffer buffer;
+	private OutputStream discard;
+
+	@Setup
+	public void setup() {
+		inliner = new Inliner(TimeUnit.MILLISECONDS, seriesKeyCacheSize);
+		single = BenchmarkData.timerMeasure(0);
+		batch = BenchmarkData.timerMeasures(500);
+		buffer = new LineBuffer();
+		discard = new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		};
+	}
+
+	@Benchmark
+	public LineBuffer single() {
+		buffer.reset();
+		inliner.inline(single, buffer);
+		return buffer;
+	}
+
+	@Benchmark
+	public LineBuffer batch() {
+		buffer.reset();
+		inliner.inline(batch, buffer);
+		return buffer;
+	}
+
+	@Benchmark
+	public long batchStreamed() throws IOException {
+		return inliner.inline(batch, discard);
+	}
+}
@@ -12,6 +12,8 @@
 //	this software. If not, see <http://creativecommons.org/publicdomain/zero/1.0/>.
 package metrics_influxdb;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
@@ -23,14 +25,27 @@ import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.ScheduledReporter;
 
+import metrics_influxdb.api.measurements.CachingMetricMeasurementTransformer;
 import metrics_influxdb.api.measurements.MetricMeasurementTransformer;
+import metrics_influxdb.measurements.AsyncSender;
+import metrics_influxdb.measurements.ChangeDetector;
+import metrics_influxdb.measurements.ConcurrentSender;
+import metrics_influxdb.measurements.FieldProfile;
+import metrics_influxdb.measurements.FieldProfiles;
+import metrics_influxdb.measurements.FieldProfiles.MetricType;
 import metrics_influxdb.measurements.HttpInlinerSender;
 import metrics_influxdb.measurements.MeasurementReporter;
+import metrics_influxdb.measurements.ReportProfiler;
 import metrics_influxdb.measurements.Sender;
+import metrics_influxdb.measurements.SenderMetrics;
 import metrics_influxdb.measurements.UdpInlinerSender;
+import metrics_influxdb.misc.AdaptiveBatchSize;
+import metrics_influxdb.misc.CircuitBreaker;
 import metrics_influxdb.misc.HttpDatabaseCreator;
+import metrics_influxdb.misc.MappedSpool;
 import metrics_influxdb.misc.Miscellaneous;
 import metrics_influxdb.misc.VisibilityIncreasedForTests;
+import metrics_influxdb.serialization.line.Inliner;
 import metrics_influxdb.v08.Influxdb;
 import metrics_influxdb.v08.InfluxdbHttp;
 import metrics_influxdb.v08.InfluxdbUdp;
@@ -74,7 +89,30 @@ public class InfluxdbReporter  {
 		private TimeUnit durationUnit;
 		private MetricFilter filter;
 		private boolean skipIdleMetrics;
+		private long idleHeartbeat = TimeUnit.MINUTES.toMillis(ChangeDetector.DEFAULT_HEARTBEAT_MINUTES);
+		private boolean metricIndex;
+		private FieldProfiles fieldProfiles;
 		private ScheduledExecutorService executor;
+		private boolean chunkedHttpStreaming;
+		private int seriesKeyCacheSize = Inliner.DEFAULT_SERIES_KEY_CACHE_SIZE;
+		private int transformerCacheSize = CachingMetricMeasurementTransformer.DEFAULT_CAPACITY;
+		private boolean gzip;
+		private int gzipLevel;
+		private int gzipThreshold;
+		private int udpPacketSize = UdpInlinerSender.DEFAULT_MAX_PACKET_SIZE;
+		private boolean asyncSender;
+		private int maxPendingMeasures = AsyncSender.DEFAULT_MAX_PENDING_MEASURES;
+		private File spoolDirectory;
+		private long spoolMaxSize;
+		private int circuitBreakerThreshold = CircuitBreaker.DEFAULT_FAILURE_THRESHOLD;
+		private long circuitBreakerInitialDelay = TimeUnit.SECONDS.toMillis(CircuitBreaker.DEFAULT_INITIAL_DELAY_SECONDS);
+		private long circuitBreakerMaxDelay = TimeUnit.SECONDS.toMillis(CircuitBreaker.DEFAULT_MAX_DELAY_SECONDS);
+		private int batchMaxMeasures = HttpInlinerSender.DEFAULT_MAX_MEASURES_IN_BATCH;
+		private int batchMaxBytes = AdaptiveBatchSize.DEFAULT_MAX_BYTES;
+		private long batchTargetLatency = AdaptiveBatchSize.DEFAULT_TARGET_LATENCY_MILLIS;
+		private MetricRegistry senderMetricsRegistry;
+		private String senderMetricsPrefix;
+		private ReportProfiler profiler;
 
 		@VisibilityIncreasedForTests InfluxdbCompatibilityVersions influxdbVersion;
 		@VisibilityIncreasedForTests InfluxdbProtocol protocol;
@@ -168,6 +206,9 @@ public class InfluxdbReporter  {
 
 		/**
 		 * Only report metrics that have changed.
+		 * <br>
+		 * With the line protocol, unchanged gauges are skipped too, and an unchanged metric is still reported once per
+		 * {@link #withIdleHeartbeat(long, TimeUnit) heartbeat}.
 		 *
 		 * @param skipIdleMetrics
 		 * @return {@code this}
@@ -177,6 +218,267 @@ public class InfluxdbReporter  {
 			return this;
 		}
 
+		/**
+		 * Sets how often idle metrics are reported anyway when {@link #skipIdleMetrics(boolean) skipped}, so that
+		 * dashboards do not show gaps; 5 minutes by default. Not supported by influxdb version 08.
+		 *
+		 * @param heartbeat the duration, 0 to never report idle metrics
+		 * @param unit the unit of the duration
+		 * @return {@code this}
+		 */
+		public Builder withIdleHeartbeat(long heartbeat, TimeUnit unit) {
+			if (heartbeat < 0) {
+				throw new IllegalArgumentException("given heartbeat cannot be negative");
+			}
+			this.idleHeartbeat = unit.toMillis(heartbeat);
+			return this;
+		}
+
+		/**
+		 * Reports the metrics from an index kept up to date by listening to the registry, rather than reading every
+		 * metric of the registry into sorted maps on each tick: the filter and the transformer are evaluated once per
+		 * metric, when it is registered. Metrics are then not reported in the order of their names, and the transformer
+		 * must always give the same measurement name and tags for a metric. Not supported by influxdb version 08.
+		 *
+		 * @param metricIndex true to report from the index
+		 * @return {@code this}
+		 */
+		public Builder withMetricIndex(boolean metricIndex) {
+			this.metricIndex = metricIndex;
+			return this;
+		}
+
+		/**
+		 * Selects the fields emitted for the metrics of the given type, and their names, instead of all of them.
+		 * Not supported by influxdb version 08.
+		 *
+		 * @param type the type of the metrics
+		 * @param profile the fields to emit
+		 * @return {@code this}
+		 */
+		public Builder withFieldProfile(MetricType type, FieldProfile profile) {
+			fieldProfiles().set(type, profile);
+			return this;
+		}
+
+		/**
+		 * Selects the fields emitted for the metrics of the given type whose name matches the given regular expression,
+		 * the first matching pattern winning. Not supported by influxdb version 08.
+		 *
+		 * @param type the type of the metrics
+		 * @param metricNamePattern the regular expression the whole metric name must match
+		 * @param profile the fields to emit
+		 * @return {@code this}
+		 */
+		public Builder withFieldProfile(MetricType type, String metricNamePattern, FieldProfile profile) {
+			fieldProfiles().set(type, metricNamePattern, profile);
+			return this;
+		}
+
+		private FieldProfiles fieldProfiles() {
+			if (fieldProfiles == null) {
+				fieldProfiles = new FieldProfiles();
+			}
+			return fieldProfiles;
+		}
+
+		/**
+		 * Streams the HTTP request bodies using chunked transfer encoding instead of
+		 * serializing each batch of measures in memory before posting it.
+		 *
+		 * @param chunkedHttpStreaming true to stream request bodies
+		 * @return {@code this}
+		 */
+		public Builder withChunkedHttpStreaming(boolean chunkedHttpStreaming) {
+			this.chunkedHttpStreaming = chunkedHttpStreaming;
+			return this;
+		}
+
+		/**
+		 * Sets the maximum number of serialized series keys (measurement name and tags)
+		 * kept between reports. It should be greater than the number of reported metrics.
+		 *
+		 * @param seriesKeyCacheSize the cache size, 0 disables the cache
+		 * @return {@code this}
+		 */
+		public Builder withSeriesKeyCacheSize(int seriesKeyCacheSize) {
+			if (seriesKeyCacheSize < 0) {
+				throw new IllegalArgumentException("given series key cache size cannot be negative");
+			}
+			this.seriesKeyCacheSize = seriesKeyCacheSize;
+			return this;
+		}
+
+		/**
+		 * Sets the maximum number of metric names whose measurement name and tags, as given by the
+		 * {@link #transformer(MetricMeasurementTransformer) transformer}, are kept between reports.
+		 * It should be greater than the number of reported metrics.
+		 *
+		 * @param transformerCacheSize the cache size, 0 disables the cache
+		 * @return {@code this}
+		 */
+		public Builder withTransformerCacheSize(int transformerCacheSize) {
+			if (transformerCacheSize < 0) {
+				throw new IllegalArgumentException("given transformer cache size cannot be negative");
+			}
+			this.transformerCacheSize = transformerCacheSize;
+			return this;
+		}
+
+		/**
+		 * Compresses HTTP request bodies using gzip.
+		 *
+		 * @param level the compression level, from {@link java.util.zip.Deflater#BEST_SPEED} to
+		 *   {@link java.util.zip.Deflater#BEST_COMPRESSION}, or {@link java.util.zip.Deflater#DEFAULT_COMPRESSION}
+		 * @param threshold the size in bytes below which request bodies are sent uncompressed
+		 * @return {@code this}
+		 */
+		public Builder withGzipCompression(int level, int threshold) {
+			this.gzip = true;
+			this.gzipLevel = level;
+			this.gzipThreshold = threshold;
+			return this;
+		}
+
+		/**
+		 * Sets the maximum payload of the UDP datagrams, measures being packed up to this size.
+		 *
+		 * @param udpPacketSize the size in bytes, 0 to send each measure in its own datagram
+		 * @return {@code this}
+		 */
+		public Builder withUdpPacketSize(int udpPacketSize) {
+			if (udpPacketSize < 0) {
+				throw new IllegalArgumentException("given packet size cannot be negative");
+			}
+			this.udpPacketSize = udpPacketSize;
+			return this;
+		}
+
+		/**
+		 * Transmits measures from a dedicated I/O thread, so that a slow or unreachable
+		 * InfluxDB does not block the reporting thread.
+		 *
+		 * @param asyncSender true to transmit asynchronously
+		 * @return {@code this}
+		 * @see AsyncSender
+		 */
+		public Builder withAsyncSender(boolean asyncSender) {
+			this.asyncSender = asyncSender;
+			return this;
+		}
+
+		/**
+		 * Transmits measures from a dedicated I/O thread, holding at most the given number
+		 * of measures waiting for it.
+		 *
+		 * @param maxPendingMeasures the maximum number of measures waiting to be transmitted
+		 * @return {@code this}
+		 * @see AsyncSender
+		 */
+		public Builder withAsyncSender(int maxPendingMeasures) {
+			if (maxPendingMeasures <= 0) {
+				throw new IllegalArgumentException("given maximum number of pending measures must be positive");
+			}
+			this.asyncSender = true;
+			this.maxPendingMeasures = maxPendingMeasures;
+			return this;
+		}
+
+		/**
+		 * Spools the measures sent over HTTP to memory-mapped files, so that they are not lost while InfluxDB is
+		 * unreachable; they are replayed in order once it is back.
+		 *
+		 * @param directory the directory of the spool files, which can hold the spool of a previous run
+		 * @param maxSize the maximum size in bytes of the spool files, the oldest measures being dropped beyond
+		 * @return {@code this}
+		 * @see MappedSpool
+		 */
+		public Builder withSpool(File directory, long maxSize) {
+			Objects.requireNonNull(directory, "given spool directory cannot be null");
+			this.spoolDirectory = directory;
+			this.spoolMaxSize = maxSize;
+			return this;
+		}
+
+		/**
+		 * Stops calling InfluxDB over HTTP after consecutive failures, for a randomized delay growing exponentially
+		 * up to the given maximum. By default the breaker opens after 3 failures, for 1 second up to 2 minutes.
+		 *
+		 * @param failureThreshold the number of consecutive failures opening the breaker, 0 to never stop calling
+		 * @param initialDelay the first delay without calls
+		 * @param maxDelay the maximum delay without calls
+		 * @param unit the unit of the delays
+		 * @return {@code this}
+		 * @see CircuitBreaker
+		 */
+		public Builder withCircuitBreaker(int failureThreshold, long initialDelay, long maxDelay, TimeUnit unit) {
+			if (failureThreshold < 0) {
+				throw new IllegalArgumentException("given failure threshold cannot be negative");
+			}
+			this.circuitBreakerThreshold = failureThreshold;
+			this.circuitBreakerInitialDelay = unit.toMillis(initialDelay);
+			this.circuitBreakerMaxDelay = unit.toMillis(maxDelay);
+			return this;
+		}
+
+		/**
+		 * Limits the size of the HTTP requests. The size in bytes adapts to the response times, up to the given
+		 * maximum, and a request refused as too large by InfluxDB is split and sent again.
+		 *
+		 * @param maxMeasures the maximum number of measures in a request, 5000 by default
+		 * @param maxBytes the maximum size of a request body before compression, 1MB by default
+		 * @return {@code this}
+		 * @see AdaptiveBatchSize
+		 */
+		public Builder withBatchLimits(int maxMeasures, int maxBytes) {
+			if (maxMeasures <= 0 || maxBytes <= 0) {
+				throw new IllegalArgumentException("given batch limits must be positive");
+			}
+			this.batchMaxMeasures = maxMeasures;
+			this.batchMaxBytes = maxBytes;
+			return this;
+		}
+
+		/**
+		 * Sets the expected duration of the HTTP requests; their size is lowered when they take longer.
+		 *
+		 * @param targetLatency the expected duration, 1 second by default
+		 * @param unit the unit of the duration
+		 * @return {@code this}
+		 */
+		public Builder withBatchTargetLatency(long targetLatency, TimeUnit unit) {
+			this.batchTargetLatency = unit.toMillis(targetLatency);
+			return this;
+		}
+
+		/**
+		 * Registers metrics about the sending of the measures, such as bytes sent, request latency, failures and
+		 * dropped measures, in the given registry. It can be the reported registry itself.
+		 *
+		 * @param registry the registry receiving the sender metrics
+		 * @param prefix the prefix of their names, for example {@code influxdb.sender}
+		 * @return {@code this}
+		 * @see SenderMetrics
+		 */
+		public Builder withSenderMetrics(MetricRegistry registry, String prefix) {
+			Objects.requireNonNull(registry, "given MetricRegistry cannot be null");
+			Miscellaneous.requireNotEmptyParameter(prefix, "prefix");
+			this.senderMetricsRegistry = registry;
+			this.senderMetricsPrefix = prefix;
+			return this;
+		}
+
+		/**
+		 * Profiles the report ticks with the given profiler, which gives the time spent in each phase of the ticks.
+		 *
+		 * @param profiler the profiler, kept by the caller to read the timings
+		 * @return {@code this}
+		 */
+		public Builder withReportProfiler(ReportProfiler profiler) {
+			this.profiler = profiler;
+			return this;
+		}
+
 		/**
 		 * Builds a {@link ScheduledReporter} with the given properties, sending
 		 * metrics using the given InfluxDB.
@@ -195,15 +497,47 @@ public class InfluxdbReporter  {
 						;
 				break;
 			default:
-				Sender s = buildSender();
-				reporter = executor == null
-						? new MeasurementReporter(s, registry, filter, rateUnit, durationUnit, clock, tags, transformer)
-						: new MeasurementReporter(s, registry, filter, rateUnit, durationUnit, clock, tags, transformer, executor)
+				Sender s = asyncSender ? new AsyncSender(buildSender(), maxPendingMeasures) : buildSender();
+				registerSenderMetrics(s);
+				MetricMeasurementTransformer t = (transformerCacheSize == 0 || transformer == MetricMeasurementTransformer.NOOP)
+						? transformer
+						: new CachingMetricMeasurementTransformer(transformer, transformerCacheSize);
+				MeasurementReporter measurementReporter = executor == null
+						? new MeasurementReporter(s, registry, filter, rateUnit, durationUnit, clock, tags, t)
+						: new MeasurementReporter(s, registry, filter, rateUnit, durationUnit, clock, tags, t, executor)
 						;
+				measurementReporter.setProfiler(profiler);
+				if (skipIdleMetrics) {
+					measurementReporter.setChangeDetector(new ChangeDetector(idleHeartbeat, TimeUnit.MILLISECONDS));
+				}
+				measurementReporter.setFieldProfiles(fieldProfiles);
+				measurementReporter.setIndexed(metricIndex);
+				reporter = measurementReporter;
 			}
 			return reporter;
 		}
 
+		/**
+		 * Builds a thread-safe {@link ConcurrentSender} sending measures to InfluxDB with the given properties, for the
+		 * application to push its own measures, such as per-request events, without a {@link MetricRegistry}.
+		 *
+		 * @return a {@link ConcurrentSender} to be closed by the caller
+		 */
+		public ConcurrentSender buildConcurrentSender() {
+			if (influxdbVersion == InfluxdbCompatibilityVersions.V08) {
+				throw new IllegalStateException("measures cannot be sent to influxdb version 08");
+			}
+			ConcurrentSender sender = new ConcurrentSender(buildSender());
+			registerSenderMetrics(sender);
+			return sender;
+		}
+
+		private void registerSenderMetrics(Sender sender) {
+			if (senderMetricsRegistry != null) {
+				sender.registerMetrics(senderMetricsRegistry, senderMetricsPrefix);
+			}
+		}
+
 		/**
 		 * Operates with influxdb version less or equal than 08.
 		 * @return the builder itself
@@ -272,11 +606,30 @@ public class InfluxdbReporter  {
           if (this.autoCreateDB ) {
               HttpDatabaseCreator.run(httpInfluxdbProtocol);
           }
-          return new HttpInlinerSender(httpInfluxdbProtocol);
+          HttpInlinerSender sender = new HttpInlinerSender(httpInfluxdbProtocol, batchMaxMeasures);
+          sender.setAdaptiveBatchSize(new AdaptiveBatchSize(batchMaxBytes, batchTargetLatency, TimeUnit.MILLISECONDS));
+          sender.setChunkedStreaming(chunkedHttpStreaming);
+          sender.getInliner().setSeriesKeyCacheSize(seriesKeyCacheSize);
+          if (gzip) {
+              sender.setGzipCompression(gzipLevel, gzipThreshold);
+          }
+          sender.setCircuitBreaker(circuitBreakerThreshold == 0 ? null : new CircuitBreaker(circuitBreakerThreshold,
+                  circuitBreakerInitialDelay, circuitBreakerMaxDelay, TimeUnit.MILLISECONDS, clock));
+          if (spoolDirectory != null) {
+              try {
+                  sender.setSpool(new MappedSpool(spoolDirectory, spoolMaxSize));
+              } catch (IOException exc) {
+                  throw new RuntimeException(exc.getMessage(), exc);
+              }
+          }
+          return sender;
 				// TODO allow registration of transformers
 				// TODO evaluate need of prefix (vs tags)
 			} else if (protocol instanceof UdpInfluxdbProtocol) {
-				return new UdpInlinerSender((UdpInfluxdbProtocol) protocol);
+				UdpInlinerSender sender = new UdpInlinerSender((UdpInfluxdbProtocol) protocol);
+				sender.getInliner().setSeriesKeyCacheSize(seriesKeyCacheSize);
+				sender.setMaxPacketSize(udpPacketSize);
+				return sender;
 			} else {
 				throw new IllegalStateException("unsupported protocol: " + protocol);
 			}
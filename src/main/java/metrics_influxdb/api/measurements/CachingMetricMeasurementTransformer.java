@@ -0,0 +1,85 @@
+package metrics_influxdb.api.measurements;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import metrics_influxdb.measurements.TagSet;
+
+/**
+ * Decorates a {@link MetricMeasurementTransformer} whose output only depends on the metric name, so that each metric
+ * name is transformed once rather than on every report.
+ * <br>
+ * When the cache is full, new metric names are not admitted anymore. If too many of them get rejected, the set of
+ * metrics has changed or is bigger than the cache: the cache is then cleared so that it can fill again.
+ * <br>
+ * The cached tags are an interned {@link TagSet}, so that merging them with the base tags of a reporter is remembered
+ * rather than computed again on every report.
+ * <br>
+ * This class is thread-safe if the decorated transformer is.
+ */
+public class CachingMetricMeasurementTransformer implements MetricMeasurementTransformer {
+	public static final int DEFAULT_CAPACITY = 10_000;
+
+	private final MetricMeasurementTransformer delegate;
+	private final int capacity;
+	private final Map<String, MetricMeasurement> entries = new ConcurrentHashMap<>();
+	private final AtomicInteger rejected = new AtomicInteger();
+
+	public CachingMetricMeasurementTransformer(MetricMeasurementTransformer delegate) {
+		this(delegate, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param delegate the transformer whose results are cached
+	 * @param capacity the maximum number of metric names held
+	 */
+	public CachingMetricMeasurementTransformer(MetricMeasurementTransformer delegate, int capacity) {
+		if (delegate == null) {
+			throw new IllegalArgumentException("given transformer cannot be null");
+		}
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("given capacity must be positive");
+		}
+		this.delegate = delegate;
+		this.capacity = capacity;
+	}
+
+	@Override
+	public Map<String, String> tags(String metricName) {
+		return transform(metricName).getTags();
+	}
+
+	@Override
+	public String measurementName(String metricName) {
+		return transform(metricName).getName();
+	}
+
+	@Override
+	public MetricMeasurement transform(String metricName) {
+		MetricMeasurement measurement = entries.get(metricName);
+		if (measurement != null) {
+			return measurement;
+		}
+		measurement = delegate.transform(metricName);
+		// the cached tags are shared by all the callers
+		measurement = new MetricMeasurement(measurement.getName(), TagSet.of(measurement.getTags()));
+		if (entries.size() >= capacity) {
+			if (rejected.incrementAndGet() <= capacity / 2) {
+				return measurement;
+			}
+			entries.clear();
+			rejected.set(0);
+		}
+		entries.put(metricName, measurement);
+		return measurement;
+	}
+
+	public MetricMeasurementTransformer getDelegate() {
+		return delegate;
+	}
+
+	public int size() {
+		return entries.size();
+	}
+}
@@ -16,7 +16,7 @@ import java.util.Map;
  * </pre>
  */
 public class CategoriesMetricMeasurementTransformer implements MetricMeasurementTransformer {
-	private final static String SEPARATOR = "\\.";
+	private final static Splitter SEPARATOR = new Splitter("\\.");
 	private final String[] categories;
 
 	public  CategoriesMetricMeasurementTransformer(String ... categories) {
@@ -25,9 +25,22 @@ public class CategoriesMetricMeasurementTransformer implements MetricMeasurement
 
 	@Override
 	public Map<String, String> tags(String metricName) {
-		HashMap<String, String> tags = new HashMap<>();
+		return tags(SEPARATOR.split(metricName));
+	}
 
-		String[] splitted = metricName.split(SEPARATOR);
+	@Override
+	public String measurementName(String metricName) {
+		return measurementName(SEPARATOR.split(metricName));
+	}
+
+	@Override
+	public MetricMeasurement transform(String metricName) {
+		String[] splitted = SEPARATOR.split(metricName);
+		return new MetricMeasurement(measurementName(splitted), tags(splitted));
+	}
+
+	private Map<String, String> tags(String[] splitted) {
+		HashMap<String, String> tags = new HashMap<>();
 
 		int nbSplittedToUse = Math.min(splitted.length-1, categories.length);
 		for (int i = 0; i < nbSplittedToUse; i++) {
@@ -37,10 +50,7 @@ public class CategoriesMetricMeasurementTransformer implements MetricMeasurement
 		return tags;
 	}
 
-	@Override
-	public String measurementName(String metricName) {
-		String[] splitted = metricName.split(SEPARATOR);
-
+	private String measurementName(String[] splitted) {
 		String[] toUseInMeasurement;
 		if (categories.length < splitted.length) {
 			toUseInMeasurement = Arrays.copyOfRange(splitted, categories.length, splitted.length);
@@ -19,7 +19,7 @@ import java.util.Map;
  *  </ul>
  */
 public class KeyValueMetricMeasurementTransformer implements MetricMeasurementTransformer {
-	private final String seperator;
+	private final Splitter seperator;
 
 	public KeyValueMetricMeasurementTransformer() {
 		this(null);
@@ -27,17 +27,31 @@ public class KeyValueMetricMeasurementTransformer implements MetricMeasurementTr
 	
 	public KeyValueMetricMeasurementTransformer(String customSeperatorRegex) {
 		if(customSeperatorRegex != null) {
-		    this.seperator = customSeperatorRegex;
+		    this.seperator = new Splitter(customSeperatorRegex);
 		}
 		else {
-		    this.seperator = "\\.";
+		    this.seperator = new Splitter("\\.");
 		}
 	    }
 
 	@Override
 	public Map<String, String> tags(String metricName) {
+		return tags(seperator.split(metricName));
+	}
+
+	@Override
+	public String measurementName(String metricName) {
+		return measurementName(seperator.split(metricName));
+	}
+
+	@Override
+	public MetricMeasurement transform(String metricName) {
+		String[] splitted = seperator.split(metricName);
+		return new MetricMeasurement(measurementName(splitted), tags(splitted));
+	}
+
+	private Map<String, String> tags(String[] splitted) {
 		Map<String, String> generatedTags = new HashMap<>();
-		String[] splitted = metricName.split(seperator);
 
 		int nbPairs = isEven(splitted.length)?(splitted.length-1)/2:(splitted.length/2)-1;
 
@@ -52,10 +66,7 @@ public class KeyValueMetricMeasurementTransformer implements MetricMeasurementTr
 		return (number % 2)==1;
 	}
 
-	@Override
-	public String measurementName(String metricName) {
-		String[] splitted = metricName.split(seperator);
-
+	private String measurementName(String[] splitted) {
 		if (isEven(splitted.length)) {
 			return splitted[splitted.length - 1];
 		} else {
@@ -0,0 +1,30 @@
+package metrics_influxdb.api.measurements;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The measurement name and tags a {@link MetricMeasurementTransformer} gives to a metric.
+ */
+public final class MetricMeasurement {
+	private final String name;
+	private final Map<String, String> tags;
+
+	public MetricMeasurement(String name, Map<String, String> tags) {
+		this.name = name;
+		this.tags = tags == null ? Collections.<String, String>emptyMap() : tags;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Map<String, String> getTags() {
+		return tags;
+	}
+
+	@Override
+	public String toString() {
+		return name + tags;
+	}
+}
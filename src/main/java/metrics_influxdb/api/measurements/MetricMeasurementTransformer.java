@@ -8,6 +8,14 @@ public interface MetricMeasurementTransformer {
 
 	public String measurementName(String metricName);
 
+	/**
+	 * Gives both the measurement name and the tags of the given metric, which implementations can compute in a
+	 * single pass over the metric name.
+	 */
+	public default MetricMeasurement transform(String metricName) {
+		return new MetricMeasurement(measurementName(metricName), tags(metricName));
+	}
+
 	public static final MetricMeasurementTransformer NOOP = new MetricMeasurementTransformer() {
 		@Override
 		public Map<String, String> tags(String metricName) {
@@ -18,5 +26,10 @@ public interface MetricMeasurementTransformer {
 		public String measurementName(String metricName) {
 			return metricName;
 		}
+
+		@Override
+		public MetricMeasurement transform(String metricName) {
+			return new MetricMeasurement(metricName, Collections.<String, String>emptyMap());
+		}
 	};
 }
@@ -0,0 +1,55 @@
+package metrics_influxdb.api.measurements;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Splits metric names as {@link String#split(String)} does, dropping trailing empty strings, without going through
+ * a regular expression when the separator is a single character.
+ */
+final class Splitter {
+	private static final String REGEX_META_CHARACTERS = ".$|()[{^?*+\\";
+
+	private final char separator;
+	private final Pattern pattern;
+
+	/**
+	 * @param separatorRegex the separator, as given to {@link String#split(String)}
+	 */
+	Splitter(String separatorRegex) {
+		if (separatorRegex.length() == 1 && REGEX_META_CHARACTERS.indexOf(separatorRegex.charAt(0)) < 0) {
+			separator = separatorRegex.charAt(0);
+			pattern = null;
+		} else if (separatorRegex.length() == 2 && separatorRegex.charAt(0) == '\\' && !Character.isLetterOrDigit(separatorRegex.charAt(1))) {
+			separator = separatorRegex.charAt(1);
+			pattern = null;
+		} else {
+			separator = 0;
+			pattern = Pattern.compile(separatorRegex);
+		}
+	}
+
+	String[] split(String s) {
+		if (pattern != null) {
+			return pattern.split(s);
+		}
+		int next = s.indexOf(separator);
+		if (next < 0) {
+			return new String[] {s};
+		}
+		List<String> parts = new ArrayList<>();
+		int from = 0;
+		while (next >= 0) {
+			parts.add(s.substring(from, next));
+			from = next + 1;
+			next = s.indexOf(separator, from);
+		}
+		parts.add(s.substring(from));
+		int size = parts.size();
+		while (size > 0 && parts.get(size - 1).isEmpty()) {
+			size--;
+		}
+		return parts.subList(0, size).toArray(new String[size]);
+	}
+}
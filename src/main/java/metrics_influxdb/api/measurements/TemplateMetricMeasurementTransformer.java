@@ -0,0 +1,328 @@
+package metrics_influxdb.api.measurements;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This transformer extracts the measurement name and tags of a metric using templates, as the graphite input of
+ * InfluxDB does.
+ * <br>
+ * Each template is made of an optional filter, a pattern and optional default tags, separated by spaces:
+ * <pre>[filter] pattern [tag1=value1,tag2=value2]</pre>
+ * <ul>
+ * <li>the filter selects the metric names the template applies to, by their first segments; a {@code *} segment
+ * matches any value. Without filter, the template applies to the metrics no other template matches.</li>
+ * <li>each segment of the pattern tells what the segment of the metric name at the same position is:
+ * {@code measurement}, part of the measurement name, {@code measurement*}, the rest of the measurement name,
+ * an empty segment to skip it, or else the name of the tag it is the value of. The segments appearing more than
+ * once are joined with a dot; the metric name segments beyond the pattern are ignored.</li>
+ * <li>the default tags are added to the tags of the matched metrics.</li>
+ * </ul>
+ * When several filters match a metric, the most specific wins: segment after segment, a value is preferred to a
+ * {@code *}, then a longer filter to a shorter one. The filters are compiled into a trie of segments whose wildcard
+ * branches are merged into the other ones, so that finding the template of a metric is a single walk along the
+ * segments of its name, whatever the number of templates.
+ * <br>
+ * Example using the templates ["prod.* .host.measurement*", "env.service.measurement region=eu"] the metric
+ * `prod.web-1.cpu.load` will be turned into a measurement:
+ * <pre>
+ *    name: cpu.load
+ *    tags: [[host=web-1]]
+ * </pre>
+ * and the metric `staging.checkout.requests` into a measurement:
+ * <pre>
+ *    name: requests
+ *    tags: [[env=staging], [service=checkout], [region=eu]]
+ * </pre>
+ * Metrics matched by no template are left untouched.
+ */
+public class TemplateMetricMeasurementTransformer implements MetricMeasurementTransformer {
+	private final static Splitter SEPARATOR = new Splitter("\\.");
+	private final static String WILDCARD = "*";
+	private final static String MEASUREMENT = "measurement";
+	private final static String MEASUREMENT_ALL = "measurement*";
+
+	private final Map<String, String> defaultTags;
+	private final State root;
+
+	/**
+	 * @param templates the templates, as described by the {@link TemplateMetricMeasurementTransformer class}
+	 */
+	public TemplateMetricMeasurementTransformer(String... templates) {
+		this(Collections.<String, String>emptyMap(), templates);
+	}
+
+	/**
+	 * @param defaultTags the tags added to every metric matched by a template, unless the template overrides them
+	 * @param templates the templates, as described by the {@link TemplateMetricMeasurementTransformer class}
+	 */
+	public TemplateMetricMeasurementTransformer(Map<String, String> defaultTags, String... templates) {
+		this.defaultTags = new HashMap<>(defaultTags);
+		Node filters = new Node();
+		for (String template : templates) {
+			add(filters, template);
+		}
+		this.root = compile(Collections.singletonList(filters), new int[] {0, 1});
+	}
+
+	private void add(Node filters, String template) {
+		String[] parts = template.trim().split("\\s+");
+		String filter = null;
+		String pattern;
+		String tags = null;
+		if (parts.length == 3) {
+			filter = parts[0];
+			pattern = parts[1];
+			tags = parts[2];
+		} else if (parts.length == 2) {
+			if (parts[1].contains("=")) {
+				pattern = parts[0];
+				tags = parts[1];
+			} else {
+				filter = parts[0];
+				pattern = parts[1];
+			}
+		} else if (parts.length == 1 && !parts[0].isEmpty()) {
+			pattern = parts[0];
+		} else {
+			throw new IllegalArgumentException("invalid template '" + template + "'");
+		}
+
+		Node node = filters;
+		if (filter != null) {
+			for (String segment : SEPARATOR.split(filter)) {
+				node = node.child(segment);
+			}
+		}
+		if (node.template != null) {
+			throw new IllegalArgumentException("duplicate filter of template '" + template + "'");
+		}
+		node.template = new Template(template, pattern, parseTags(template, tags), defaultTags);
+	}
+
+	private static Map<String, String> parseTags(String template, String tags) {
+		Map<String, String> parsed = new HashMap<>();
+		if (tags != null) {
+			for (String tag : tags.split(",")) {
+				int eq = tag.indexOf('=');
+				if (eq <= 0 || eq == tag.length() - 1) {
+					throw new IllegalArgumentException("invalid tag '" + tag + "' in template '" + template + "'");
+				}
+				parsed.put(tag.substring(0, eq), tag.substring(eq + 1));
+			}
+		}
+		return parsed;
+	}
+
+	@Override
+	public Map<String, String> tags(String metricName) {
+		return transform(metricName).getTags();
+	}
+
+	@Override
+	public String measurementName(String metricName) {
+		return transform(metricName).getName();
+	}
+
+	@Override
+	public MetricMeasurement transform(String metricName) {
+		String[] segments = SEPARATOR.split(metricName);
+		Template template = match(segments);
+		if (template == null) {
+			return new MetricMeasurement(metricName, Collections.<String, String>emptyMap());
+		}
+		return template.apply(metricName, segments);
+	}
+
+	/**
+	 * @return the template of the most specific filter matching the given segments, or null
+	 */
+	private Template match(String[] segments) {
+		State state = root;
+		// the number of leading nodes of the state more specific than the best template found so far
+		int limit = 1;
+		Template best = null;
+		for (int depth = 0; ; depth++) {
+			int first = state.firstTemplate;
+			if (first >= 0 && first < limit) {
+				best = state.templates[first];
+				limit = first + 1;
+			}
+			if (depth == segments.length) {
+				break;
+			}
+			State next = (state.children == null) ? null : state.children.get(segments[depth]);
+			if (next == null) {
+				next = state.other;
+			}
+			if (next == null || next.limits[limit] == 0) {
+				break;
+			}
+			limit = next.limits[limit];
+			state = next;
+		}
+		return best;
+	}
+
+	/**
+	 * @param nodes the filter nodes reached by the same segments, from the most to the least specific
+	 * @param limits the number of the given nodes following the first nodes of the parent state
+	 */
+	private static State compile(List<Node> nodes, int[] limits) {
+		State state = new State(nodes, limits);
+		Set<String> segments = new HashSet<>();
+		boolean wildcard = false;
+		for (Node node : nodes) {
+			if (node.children != null) {
+				segments.addAll(node.children.keySet());
+			}
+			wildcard |= node.wildcard != null;
+		}
+		if (!segments.isEmpty()) {
+			state.children = new HashMap<>();
+			for (String segment : segments) {
+				state.children.put(segment, next(nodes, segment));
+			}
+		}
+		if (wildcard) {
+			state.other = next(nodes, null);
+		}
+		return state;
+	}
+
+	/**
+	 * @param segment the next segment, null for a segment matched by no filter but wildcards
+	 */
+	private static State next(List<Node> nodes, String segment) {
+		List<Node> next = new ArrayList<>();
+		int[] limits = new int[nodes.size() + 1];
+		for (int i = 0; i < nodes.size(); i++) {
+			limits[i] = next.size();
+			Node node = nodes.get(i);
+			Node child = (segment == null || node.children == null) ? null : node.children.get(segment);
+			// a value is more specific than a wildcard
+			if (child != null) {
+				next.add(child);
+			}
+			if (node.wildcard != null) {
+				next.add(node.wildcard);
+			}
+		}
+		limits[nodes.size()] = next.size();
+		return compile(next, limits);
+	}
+
+	/**
+	 * The filter nodes a metric name can reach after a given sequence of segments.
+	 * <br>
+	 * The nodes are ordered from the most to the least specific; the nodes reached from a more specific parent come
+	 * first, so that the nodes more specific than a given one always are the leading nodes of a state.
+	 */
+	private static class State {
+		final Template[] templates;
+		final int firstTemplate;
+		/** the number of nodes of this state reached from the first i nodes of the parent state, at index i */
+		final int[] limits;
+		Map<String, State> children;
+		State other;
+
+		State(List<Node> nodes, int[] limits) {
+			this.templates = new Template[nodes.size()];
+			int first = -1;
+			for (int i = nodes.size() - 1; i >= 0; i--) {
+				templates[i] = nodes.get(i).template;
+				if (templates[i] != null) {
+					first = i;
+				}
+			}
+			this.firstTemplate = first;
+			this.limits = limits;
+		}
+	}
+
+	/**
+	 * A segment of the filters.
+	 */
+	private static class Node {
+		Map<String, Node> children;
+		Node wildcard;
+		Template template;
+
+		Node child(String segment) {
+			if (WILDCARD.equals(segment)) {
+				if (wildcard == null) {
+					wildcard = new Node();
+				}
+				return wildcard;
+			}
+			if (children == null) {
+				children = new HashMap<>();
+			}
+			Node child = children.get(segment);
+			if (child == null) {
+				child = new Node();
+				children.put(segment, child);
+			}
+			return child;
+		}
+	}
+
+	private static class Template {
+		/** the tag name of each segment, null for a skipped one, MEASUREMENT or MEASUREMENT_ALL */
+		private final String[] segments;
+		private final Map<String, String> tags;
+
+		Template(String template, String pattern, Map<String, String> tags, Map<String, String> defaultTags) {
+			String[] splitted = SEPARATOR.split(pattern);
+			for (int i = 0; i < splitted.length; i++) {
+				if (splitted[i].isEmpty()) {
+					splitted[i] = null;
+				} else if (MEASUREMENT_ALL.equals(splitted[i]) && i != splitted.length - 1) {
+					throw new IllegalArgumentException("'" + MEASUREMENT_ALL + "' must end template '" + template + "'");
+				} else if (splitted[i].indexOf('*') >= 0 && !MEASUREMENT_ALL.equals(splitted[i])) {
+					throw new IllegalArgumentException("invalid segment '" + splitted[i] + "' in template '" + template + "'");
+				}
+			}
+			this.segments = splitted;
+			this.tags = new HashMap<>(defaultTags);
+			this.tags.putAll(tags);
+		}
+
+		MetricMeasurement apply(String metricName, String[] names) {
+			Map<String, String> extracted = new HashMap<>();
+			StringBuilder measurement = null;
+			int n = Math.min(segments.length, names.length);
+			for (int i = 0; i < n; i++) {
+				String segment = segments[i];
+				if (segment == null) {
+					continue;
+				}
+				if (MEASUREMENT_ALL.equals(segment)) {
+					for (int j = i; j < names.length; j++) {
+						measurement = append(measurement, names[j]);
+					}
+				} else if (MEASUREMENT.equals(segment)) {
+					measurement = append(measurement, names[i]);
+				} else {
+					String previous = extracted.get(segment);
+					extracted.put(segment, previous == null ? names[i] : previous + "." + names[i]);
+				}
+			}
+			Map<String, String> tags = new HashMap<>(this.tags);
+			tags.putAll(extracted);
+			return new MetricMeasurement(measurement == null ? metricName : measurement.toString(), tags);
+		}
+
+		private static StringBuilder append(StringBuilder sb, String segment) {
+			if (sb == null) {
+				return new StringBuilder(segment);
+			}
+			return sb.append('.').append(segment);
+		}
+	}
+}
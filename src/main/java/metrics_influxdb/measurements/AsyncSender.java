@@ -0,0 +1,237 @@
+package metrics_influxdb.measurements;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+import metrics_influxdb.misc.JfrEvents;
+
+/**
+ * A {@link Sender} decoupling the caller from the network: measures are collected on the caller thread and
+ * {@link #flush()} only hands them over to a dedicated I/O thread, which sends them through the delegate sender.
+ * <br>
+ * When a flush happens while the previous batch has not been picked by the I/O thread yet, which is a report tick
+ * overrun, the new measures are merged into that pending batch instead of being stacked behind it. The pending batch
+ * is bounded; when the bound is exceeded the oldest measures are dropped.
+ * <br>
+ * {@link #send(Measure)} and {@link #flush()} are expected to be called from a single thread, typically the
+ * reporter one. The delegate sender is only used by the I/O thread.
+ */
+public class AsyncSender implements Sender {
+	private final static Logger LOGGER = LoggerFactory.getLogger(AsyncSender.class);
+	private final static AtomicInteger THREAD_COUNTER = new AtomicInteger();
+	public static final int DEFAULT_MAX_PENDING_MEASURES = 100000;
+	private static final long CLOSE_TIMEOUT_SECONDS = 10;
+
+	private final Sender delegate;
+	private final int maxPendingMeasures;
+	private final Thread ioThread;
+	private final Object lock = new Object();
+	private List<Measure> collecting;
+	// guarded by lock
+	private List<Measure> pending;
+	private CompletableFuture<Void> pendingFuture;
+	private boolean closed;
+	private long overruns;
+	private long dropped;
+
+	public AsyncSender(Sender delegate) {
+		this(delegate, DEFAULT_MAX_PENDING_MEASURES);
+	}
+
+	/**
+	 * @param delegate the sender transmitting the measures, only used from the I/O thread
+	 * @param maxPendingMeasures the maximum number of measures waiting for the I/O thread
+	 */
+	public AsyncSender(Sender delegate, int maxPendingMeasures) {
+		if (maxPendingMeasures <= 0) {
+			throw new IllegalArgumentException("given maximum number of pending measures must be positive");
+		}
+		this.delegate = delegate;
+		this.maxPendingMeasures = maxPendingMeasures;
+		this.collecting = new ArrayList<>();
+		this.ioThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				transmitLoop();
+			}
+		}, "influxdb-sender-" + THREAD_COUNTER.incrementAndGet());
+		this.ioThread.setDaemon(true);
+		this.ioThread.start();
+	}
+
+	@Override
+	public void send(Measure m) {
+		if (m == null) {
+			return;     // NOOP for null measures
+		}
+		collecting.add(m);
+	}
+
+	@Override
+	public void send(Collection<Measure> measures) {
+		if (measures == null) {
+			return;
+		}
+		for (Measure m : measures) {
+			send(m);
+		}
+	}
+
+	/**
+	 * Hands the collected measures over to the I/O thread and returns immediately.
+	 */
+	@Override
+	public void flush() {
+		flushAsync();
+	}
+
+	/**
+	 * Hands the collected measures over to the I/O thread.
+	 * @return a future completed once the I/O thread has transmitted the batch holding these measures, or completed
+	 *   exceptionally if the delegate could not transmit them all, a {@link QueueableSender} keeping the remaining ones
+	 *   to retry them on the next flush
+	 */
+	public CompletableFuture<Void> flushAsync() {
+		List<Measure> batch = collecting;
+		collecting = new ArrayList<>(batch.size());
+
+		synchronized (lock) {
+			if (closed) {
+				CompletableFuture<Void> rejected = new CompletableFuture<>();
+				rejected.completeExceptionally(new IllegalStateException("sender is closed"));
+				return rejected;
+			}
+			if (pending == null) {
+				pending = batch;
+				pendingFuture = new CompletableFuture<>();
+				lock.notifyAll();
+			} else {
+				// the previous batch is still waiting for the I/O thread: merge rather than stack
+				overruns++;
+				LOGGER.debug("previous batch of {} measures not transmitted yet, merging {} measures into it", pending.size(), batch.size());
+				pending.addAll(batch);
+			}
+			int excess = pending.size() - maxPendingMeasures;
+			if (excess > 0) {
+				dropped += excess;
+				pending.subList(0, excess).clear();
+				LOGGER.warn("too many measures waiting to be sent, {} oldest ones dropped", excess);
+				JfrEvents.eviction("async", excess);
+			}
+			return pendingFuture;
+		}
+	}
+
+	private void transmitLoop() {
+		while (true) {
+			List<Measure> batch;
+			CompletableFuture<Void> future;
+			synchronized (lock) {
+				while (pending == null && !closed) {
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						closed = true;
+					}
+				}
+				if (pending == null) {
+					return;
+				}
+				batch = pending;
+				future = pendingFuture;
+				pending = null;
+				pendingFuture = null;
+			}
+
+			try {
+				delegate.send(batch);
+				delegate.flush();
+				int untransmitted = (delegate instanceof QueueableSender) ? ((QueueableSender) delegate).getPendingCount() : 0;
+				if (untransmitted > 0) {
+					future.completeExceptionally(new IOException(untransmitted + " measures not transmitted yet, kept by the delegate sender"));
+				} else {
+					future.complete(null);
+				}
+			} catch (Throwable t) {
+				LOGGER.warn("failed to transmit {} measures", batch.size(), t);
+				future.completeExceptionally(t);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of flushes that happened while the previous batch was still pending
+	 */
+	public long getOverrunCount() {
+		synchronized (lock) {
+			return overruns;
+		}
+	}
+
+	/**
+	 * @return the number of measures dropped because too many were pending
+	 */
+	public long getDroppedCount() {
+		synchronized (lock) {
+			return dropped;
+		}
+	}
+
+	/**
+	 * @return the number of measures handed over and not picked by the I/O thread yet
+	 */
+	public int getPendingCount() {
+		synchronized (lock) {
+			return pending == null ? 0 : pending.size();
+		}
+	}
+
+	/**
+	 * Registers the gauges {@code async.pending}, {@code async.dropped} and {@code async.overruns}, then the metrics of
+	 * the delegate sender.
+	 */
+	@Override
+	public void registerMetrics(MetricRegistry registry, String prefix) {
+		SenderMetrics metrics = new SenderMetrics(registry, prefix);
+		metrics.registerGauge("async.pending", (Gauge<Integer>) this::getPendingCount);
+		metrics.registerGauge("async.dropped", (Gauge<Long>) this::getDroppedCount);
+		metrics.registerGauge("async.overruns", (Gauge<Long>) this::getOverrunCount);
+		delegate.registerMetrics(registry, prefix);
+	}
+
+	/**
+	 * Transmits the pending batch, waiting up to 10 seconds for it, then closes the delegate sender.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!collecting.isEmpty()) {
+			flushAsync();
+		}
+		synchronized (lock) {
+			closed = true;
+			lock.notifyAll();
+		}
+		try {
+			ioThread.join(TimeUnit.SECONDS.toMillis(CLOSE_TIMEOUT_SECONDS));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (ioThread.isAlive()) {
+			LOGGER.warn("pending measures not transmitted within {} seconds", CLOSE_TIMEOUT_SECONDS);
+			ioThread.interrupt();
+		}
+		delegate.close();
+	}
+}
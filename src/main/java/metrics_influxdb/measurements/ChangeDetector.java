@@ -0,0 +1,165 @@
+package metrics_influxdb.measurements;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tells the {@link MeasurementReporter} which metrics changed since they were last sent, so that idle metrics are
+ * skipped.
+ * <br>
+ * The last value sent of each metric, such as the count of a counter or timer, or the value of a gauge, is kept
+ * along with the time it was sent, in an open-addressing table of primitives indexed by a 64 bits fingerprint of the
+ * metric name: looking a metric up neither allocates nor boxes. An unchanged metric is sent again once the heartbeat
+ * has elapsed, so that dashboards do not show gaps. Metrics no longer reported are forgotten.
+ * <br>
+ * This class is not thread-safe; it is used from the reporter thread.
+ */
+public class ChangeDetector {
+	public static final long DEFAULT_HEARTBEAT_MINUTES = 5;
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private final long heartbeatMillis;
+	private long[] keys;
+	private long[] values;
+	private long[] sentAt;
+	private int[] seenAt;
+	private int size;
+	private int tick;
+	private int seen;
+
+	public ChangeDetector() {
+		this(DEFAULT_HEARTBEAT_MINUTES, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * @param heartbeat the duration after which an unchanged metric is sent again, 0 to never send it again
+	 * @param unit the unit of the heartbeat
+	 */
+	public ChangeDetector(long heartbeat, TimeUnit unit) {
+		if (heartbeat < 0) {
+			throw new IllegalArgumentException("given heartbeat cannot be negative");
+		}
+		this.heartbeatMillis = heartbeat == 0 ? Long.MAX_VALUE : unit.toMillis(heartbeat);
+		allocate(INITIAL_CAPACITY);
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new long[capacity];
+		sentAt = new long[capacity];
+		seenAt = new int[capacity];
+	}
+
+	/**
+	 * Tells whether the given metric is to be sent, and if so records the given value as sent.
+	 * @param name the name of the metric
+	 * @param value the value identifying the state of the metric, such as its count
+	 * @param now the current time in milliseconds
+	 * @return true if the metric is new, if its value changed, or if it was last sent a heartbeat ago
+	 */
+	public boolean changed(String name, long value, long now) {
+		long key = fingerprint(name);
+		int mask = keys.length - 1;
+		int i = index(key, mask);
+		while (keys[i] != 0 && keys[i] != key) {
+			i = (i + 1) & mask;
+		}
+		if (seenAt[i] != tick || keys[i] == 0) {
+			seenAt[i] = tick;
+			seen++;
+		}
+		if (keys[i] == 0) {
+			keys[i] = key;
+			values[i] = value;
+			sentAt[i] = now;
+			if (++size * 2 > keys.length) {
+				rehash(keys.length * 2);
+			}
+			return true;
+		}
+		if (values[i] != value || now - sentAt[i] >= heartbeatMillis) {
+			values[i] = value;
+			sentAt[i] = now;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the number of metrics tracked
+	 */
+	public int size() {
+		return size;
+	}
+
+	void startTick() {
+		tick++;
+		seen = 0;
+	}
+
+	/**
+	 * Forgets the metrics not reported during the tick, once they outnumber those reported.
+	 */
+	void endTick() {
+		if (size - seen <= seen) {
+			return;
+		}
+		long[] oldKeys = keys;
+		long[] oldValues = values;
+		long[] oldSentAt = sentAt;
+		int[] oldSeenAt = seenAt;
+		int capacity = INITIAL_CAPACITY;
+		while (seen * 2 >= capacity) {
+			capacity <<= 1;
+		}
+		allocate(capacity);
+		size = 0;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != 0 && oldSeenAt[i] == tick) {
+				insert(oldKeys[i], oldValues[i], oldSentAt[i], tick);
+			}
+		}
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		long[] oldValues = values;
+		long[] oldSentAt = sentAt;
+		int[] oldSeenAt = seenAt;
+		allocate(capacity);
+		size = 0;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != 0) {
+				insert(oldKeys[i], oldValues[i], oldSentAt[i], oldSeenAt[i]);
+			}
+		}
+	}
+
+	private void insert(long key, long value, long sent, int seenTick) {
+		int mask = keys.length - 1;
+		int i = index(key, mask);
+		while (keys[i] != 0) {
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		values[i] = value;
+		sentAt[i] = sent;
+		seenAt[i] = seenTick;
+		size++;
+	}
+
+	private static int index(long key, int mask) {
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+	}
+
+	/**
+	 * @return the 64 bits FNV-1a hash of the given string, never 0
+	 */
+	static long fingerprint(String s) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < s.length(); i++) {
+			hash ^= s.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash == 0 ? 1 : hash;
+	}
+}
@@ -0,0 +1,224 @@
+package metrics_influxdb.measurements;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+import metrics_influxdb.misc.JfrEvents;
+import metrics_influxdb.misc.RingBuffer;
+
+/**
+ * A thread-safe {@link Sender} letting any number of application threads push measures, for example one per
+ * request, without going through a metric registry.
+ * <br>
+ * Measures are recorded in striped {@link RingBuffer}s, a stripe being picked from the calling thread id, so that
+ * {@link #send(Measure)} neither locks, nor performs I/O, nor allocates. A background flusher thread drains the stripes
+ * periodically, or when {@link #flush()} is called, and transmits the measures through the delegate sender. When a
+ * stripe is full its oldest measures are dropped.
+ */
+public class ConcurrentSender implements Sender {
+	private final static Logger LOGGER = LoggerFactory.getLogger(ConcurrentSender.class);
+	private final static AtomicInteger THREAD_COUNTER = new AtomicInteger();
+	public static final int DEFAULT_STRIPE_CAPACITY = 8192;
+	public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000;
+	private static final int MAX_MEASURES_IN_BATCH = 5000;
+	private static final long CLOSE_TIMEOUT_SECONDS = 10;
+
+	private final Sender delegate;
+	private final RingBuffer<Measure>[] stripes;
+	private final int stripeMask;
+	private final long flushIntervalNanos;
+	private final List<Measure> batch;
+	private final Thread flusher;
+	private volatile boolean closed;
+	private volatile long transmitted;
+
+	public ConcurrentSender(Sender delegate) {
+		this(delegate, defaultStripeCount(), DEFAULT_STRIPE_CAPACITY, DEFAULT_FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @param delegate the sender transmitting the measures, only used from the flusher thread
+	 * @param stripeCount the number of buffers among which the calling threads are spread, rounded up to a power of two
+	 * @param stripeCapacity the maximum number of measures held by each buffer
+	 * @param flushInterval the period between two transmissions
+	 * @param unit the unit of the flush interval
+	 */
+	public ConcurrentSender(Sender delegate, int stripeCount, int stripeCapacity, long flushInterval, TimeUnit unit) {
+		if (stripeCount <= 0 || stripeCapacity <= 0) {
+			throw new IllegalArgumentException("given stripe count and capacity must be positive");
+		}
+		if (flushInterval <= 0) {
+			throw new IllegalArgumentException("given flush interval must be positive");
+		}
+		this.delegate = delegate;
+		int count = Integer.highestOneBit(stripeCount);
+		if (count < stripeCount) {
+			count <<= 1;
+		}
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		RingBuffer<Measure>[] buffers = new RingBuffer[count];
+		for (int i = 0; i < count; i++) {
+			buffers[i] = new RingBuffer<>(stripeCapacity);
+		}
+		this.stripes = buffers;
+		this.stripeMask = count - 1;
+		this.flushIntervalNanos = unit.toNanos(flushInterval);
+		this.batch = new ArrayList<>(MAX_MEASURES_IN_BATCH);
+		this.flusher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				flushLoop();
+			}
+		}, "influxdb-flusher-" + THREAD_COUNTER.incrementAndGet());
+		this.flusher.setDaemon(true);
+		this.flusher.start();
+	}
+
+	private static int defaultStripeCount() {
+		return 2 * Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Records the given measure; never blocks.
+	 */
+	@Override
+	public void send(Measure m) {
+		if (m == null) {
+			return;     // NOOP for null measures
+		}
+		int dropped = stripes[(int) Thread.currentThread().getId() & stripeMask].add(m);
+		if (dropped > 0) {
+			JfrEvents.eviction("concurrent", dropped);
+		}
+	}
+
+	@Override
+	public void send(Collection<Measure> measures) {
+		if (measures == null) {
+			return;
+		}
+		RingBuffer<Measure> stripe = stripes[(int) Thread.currentThread().getId() & stripeMask];
+		int dropped = 0;
+		for (Measure m : measures) {
+			if (m != null) {
+				dropped += stripe.add(m);
+			}
+		}
+		if (dropped > 0) {
+			JfrEvents.eviction("concurrent", dropped);
+		}
+	}
+
+	/**
+	 * Wakes the flusher thread up and returns immediately.
+	 */
+	@Override
+	public void flush() {
+		LockSupport.unpark(flusher);
+	}
+
+	private void flushLoop() {
+		while (!closed) {
+			LockSupport.parkNanos(this, flushIntervalNanos);
+			drain();
+		}
+		// measures recorded before close
+		drain();
+	}
+
+	private void drain() {
+		for (RingBuffer<Measure> stripe : stripes) {
+			while (stripe.drainTo(batch, MAX_MEASURES_IN_BATCH - batch.size()) > 0) {
+				if (batch.size() >= MAX_MEASURES_IN_BATCH) {
+					transmit();
+				}
+			}
+		}
+		if (!batch.isEmpty()) {
+			transmit();
+		}
+	}
+
+	private void transmit() {
+		try {
+			delegate.send(batch);
+			delegate.flush();
+			transmitted += batch.size();
+		} catch (Throwable t) {
+			LOGGER.warn("failed to transmit {} measures", batch.size(), t);
+		} finally {
+			batch.clear();
+		}
+	}
+
+	/**
+	 * @return the number of measures recorded and not drained by the flusher thread yet
+	 */
+	public int getPendingCount() {
+		int pending = 0;
+		for (RingBuffer<Measure> stripe : stripes) {
+			pending += stripe.size();
+		}
+		return pending;
+	}
+
+	/**
+	 * @return the number of measures dropped because their stripe was full
+	 */
+	public long getDroppedCount() {
+		long dropped = 0;
+		for (RingBuffer<Measure> stripe : stripes) {
+			dropped += stripe.getDroppedCount();
+		}
+		return dropped;
+	}
+
+	/**
+	 * @return the number of measures handed over to the delegate sender
+	 */
+	public long getTransmittedCount() {
+		return transmitted;
+	}
+
+	/**
+	 * Registers the gauges {@code concurrent.pending} and {@code concurrent.dropped}, then the metrics of the delegate
+	 * sender.
+	 */
+	@Override
+	public void registerMetrics(MetricRegistry registry, String prefix) {
+		SenderMetrics metrics = new SenderMetrics(registry, prefix);
+		metrics.registerGauge("concurrent.pending", (Gauge<Integer>) this::getPendingCount);
+		metrics.registerGauge("concurrent.dropped", (Gauge<Long>) this::getDroppedCount);
+		delegate.registerMetrics(registry, prefix);
+	}
+
+	/**
+	 * Transmits the recorded measures, waiting up to 10 seconds for them, then closes the delegate sender.
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		LockSupport.unpark(flusher);
+		try {
+			flusher.join(TimeUnit.SECONDS.toMillis(CLOSE_TIMEOUT_SECONDS));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (flusher.isAlive()) {
+			LOGGER.warn("recorded measures not transmitted within {} seconds", CLOSE_TIMEOUT_SECONDS);
+			flusher.interrupt();
+		}
+		delegate.close();
+	}
+}
@@ -0,0 +1,231 @@
+package metrics_influxdb.measurements;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * The fields a {@link MeasurementReporter} emits for a histogram, a meter or a timer, and their names.
+ * <br>
+ * Only the selected fields are computed: the snapshot of a histogram or a timer is not even taken when no field needs
+ * it. Fields not applying to the reported metric, such as rates for a histogram, are skipped.
+ * <pre>
+ * new FieldProfile()
+ *     .add(Field.RUN_COUNT, "n")
+ *     .add(Field.MEAN)
+ *     .addPercentile(0.99, "p99")
+ *     .addPercentile(0.9999)
+ * </pre>
+ * Histograms and timers can also be reported as {@link #withBuckets(HistogramBuckets) cumulative bucket counts},
+ * which, unlike percentiles, can be aggregated across hosts.
+ */
+public class FieldProfile {
+	/**
+	 * A field, named as by default.
+	 */
+	public enum Field {
+		/** the number of values in the snapshot of a histogram or timer, the count of a meter */
+		COUNT("count", true),
+		MIN("min", true),
+		MAX("max", true),
+		MEAN("mean", true),
+		STD_DEV("std-dev", true),
+		/** a quantile of the snapshot, added with {@link FieldProfile#addPercentile(double, String)} */
+		PERCENTILE(null, true),
+		ONE_MINUTE("one-minute", false),
+		FIVE_MINUTE("five-minute", false),
+		FIFTEEN_MINUTE("fifteen-minute", false),
+		MEAN_RATE("mean-minute", false),
+		/** the count of a histogram or timer */
+		RUN_COUNT("run-count", false);
+
+		private final String defaultName;
+		private final boolean fromSnapshot;
+
+		Field(String defaultName, boolean fromSnapshot) {
+			this.defaultName = defaultName;
+			this.fromSnapshot = fromSnapshot;
+		}
+
+		public String getDefaultName() {
+			return defaultName;
+		}
+	}
+
+	private Field[] fields = new Field[0];
+	private String[] names = new String[0];
+	private double[] quantiles = new double[0];
+	private boolean needsSnapshot;
+	private HistogramBuckets buckets;
+
+	/**
+	 * @return the fields emitted for timers by default
+	 */
+	public static FieldProfile defaultTimer() {
+		return defaultHistogram()
+				.add(Field.ONE_MINUTE)
+				.add(Field.FIVE_MINUTE)
+				.add(Field.FIFTEEN_MINUTE)
+				.add(Field.MEAN_RATE);
+	}
+
+	/**
+	 * @return the fields emitted for histograms by default
+	 */
+	public static FieldProfile defaultHistogram() {
+		return new FieldProfile()
+				.add(Field.COUNT)
+				.add(Field.MIN)
+				.add(Field.MAX)
+				.add(Field.MEAN)
+				.add(Field.STD_DEV)
+				.addPercentile(0.5)
+				.addPercentile(0.75)
+				.addPercentile(0.95)
+				.addPercentile(0.99)
+				.addPercentile(0.999)
+				.add(Field.RUN_COUNT);
+	}
+
+	/**
+	 * @return the fields emitted for meters by default
+	 */
+	public static FieldProfile defaultMeter() {
+		return new FieldProfile()
+				.add(Field.COUNT)
+				.add(Field.ONE_MINUTE)
+				.add(Field.FIVE_MINUTE)
+				.add(Field.FIFTEEN_MINUTE)
+				.add(Field.MEAN_RATE);
+	}
+
+	/**
+	 * Adds the given field, under its default name.
+	 */
+	public FieldProfile add(Field field) {
+		return add(field, field.getDefaultName());
+	}
+
+	/**
+	 * Adds the given field, under the given name.
+	 */
+	public FieldProfile add(Field field, String name) {
+		if (field == Field.PERCENTILE) {
+			throw new IllegalArgumentException("percentiles are added with their quantile");
+		}
+		return add(field, name, Double.NaN);
+	}
+
+	/**
+	 * Adds the given quantile of the snapshot, named after it: {@code 999-percentile} for 0.999.
+	 */
+	public FieldProfile addPercentile(double quantile) {
+		return addPercentile(quantile, BigDecimal.valueOf(quantile).movePointRight(2).stripTrailingZeros().toPlainString().replace(".", "") + "-percentile");
+	}
+
+	/**
+	 * Adds the given quantile of the snapshot, under the given name.
+	 */
+	public FieldProfile addPercentile(double quantile, String name) {
+		if (!(quantile >= 0 && quantile <= 1)) {
+			throw new IllegalArgumentException("given quantile must be between 0 and 1");
+		}
+		return add(Field.PERCENTILE, name, quantile);
+	}
+
+	private FieldProfile add(Field field, String name, double quantile) {
+		if (name == null || name.isEmpty()) {
+			throw new IllegalArgumentException("given field name cannot be null or empty");
+		}
+		if (Arrays.asList(names).contains(name)) {
+			throw new IllegalArgumentException("field '" + name + "' is already defined");
+		}
+		int n = fields.length;
+		fields = Arrays.copyOf(fields, n + 1);
+		names = Arrays.copyOf(names, n + 1);
+		quantiles = Arrays.copyOf(quantiles, n + 1);
+		fields[n] = field;
+		names[n] = name;
+		quantiles[n] = quantile;
+		needsSnapshot |= field.fromSnapshot;
+		return this;
+	}
+
+	/**
+	 * Adds the cumulative bucket counts of the snapshot of histograms and timers, as fields named after the bounds.
+	 * @param buckets the bounds of the buckets, or null not to count values by buckets
+	 */
+	public FieldProfile withBuckets(HistogramBuckets buckets) {
+		this.buckets = buckets;
+		return this;
+	}
+
+	/**
+	 * @return the buckets counting the values of the snapshot, or null
+	 */
+	public HistogramBuckets getBuckets() {
+		return buckets;
+	}
+
+	/**
+	 * @return the number of fields, not counting the buckets
+	 */
+	public int size() {
+		return fields.length;
+	}
+
+	public Field getField(int i) {
+		return fields[i];
+	}
+
+	public String getName(int i) {
+		return names[i];
+	}
+
+	/**
+	 * @return the quantile of the i-th field if it is a {@link Field#PERCENTILE}, NaN otherwise
+	 */
+	public double getQuantile(int i) {
+		return quantiles[i];
+	}
+
+	/**
+	 * @return true if one of the fields is computed from the snapshot of a histogram or timer
+	 */
+	public boolean needsSnapshot() {
+		return needsSnapshot || buckets != null;
+	}
+
+	/**
+	 * @return true if at least one field is emitted for the given type of metrics
+	 */
+	boolean appliesTo(FieldProfiles.MetricType type) {
+		if (type != FieldProfiles.MetricType.METER && buckets != null) {
+			return true;
+		}
+		for (Field field : fields) {
+			switch (type) {
+			case METER:
+				if (field == Field.COUNT || field == Field.ONE_MINUTE || field == Field.FIVE_MINUTE
+						|| field == Field.FIFTEEN_MINUTE || field == Field.MEAN_RATE) {
+					return true;
+				}
+				break;
+			case HISTOGRAM:
+				if (field.fromSnapshot || field == Field.RUN_COUNT) {
+					return true;
+				}
+				break;
+			default:
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the number of fields emitted for a histogram or timer, buckets included
+	 */
+	int fieldCount() {
+		return buckets == null ? fields.length : fields.length + buckets.size() + 1;
+	}
+}
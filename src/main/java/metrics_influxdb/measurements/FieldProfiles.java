@@ -0,0 +1,118 @@
+package metrics_influxdb.measurements;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * The {@link FieldProfile}s a {@link MeasurementReporter} uses, per type of metric and per metric name.
+ * <br>
+ * A profile registered for a metric name pattern applies to the metrics of its type whose whole name matches the
+ * pattern, the first registered pattern matching winning; the other metrics use the profile of their type.
+ * The profile of each metric name is resolved once and then kept.
+ * <br>
+ * This class is not thread-safe; it is used from the reporter thread once configured.
+ */
+public class FieldProfiles {
+	/**
+	 * The types of metrics whose fields can be selected.
+	 */
+	public enum MetricType {
+		HISTOGRAM, METER, TIMER
+	}
+
+	private static final int MAX_RESOLVED = 10_000;
+
+	private final Map<MetricType, FieldProfile> defaults = new EnumMap<>(MetricType.class);
+	private final List<Rule> rules = new ArrayList<>();
+	private final Map<MetricType, Map<String, FieldProfile>> resolved = new EnumMap<>(MetricType.class);
+
+	public FieldProfiles() {
+		defaults.put(MetricType.HISTOGRAM, FieldProfile.defaultHistogram());
+		defaults.put(MetricType.METER, FieldProfile.defaultMeter());
+		defaults.put(MetricType.TIMER, FieldProfile.defaultTimer());
+		for (MetricType type : MetricType.values()) {
+			resolved.put(type, new HashMap<String, FieldProfile>());
+		}
+	}
+
+	/**
+	 * Sets the profile of the metrics of the given type.
+	 * @throws IllegalArgumentException if none of the fields of the profile applies to the given type
+	 */
+	public FieldProfiles set(MetricType type, FieldProfile profile) {
+		check(type, profile);
+		defaults.put(type, profile);
+		clearResolved();
+		return this;
+	}
+
+	/**
+	 * Sets the profile of the metrics of the given type whose name matches the given regular expression.
+	 * @throws IllegalArgumentException if none of the fields of the profile applies to the given type
+	 */
+	public FieldProfiles set(MetricType type, String metricNamePattern, FieldProfile profile) {
+		check(type, profile);
+		rules.add(new Rule(type, Pattern.compile(metricNamePattern), profile));
+		clearResolved();
+		return this;
+	}
+
+	/**
+	 * @return the profile of the given metric
+	 */
+	public FieldProfile get(MetricType type, String metricName) {
+		if (rules.isEmpty()) {
+			return defaults.get(type);
+		}
+		Map<String, FieldProfile> profiles = resolved.get(type);
+		FieldProfile profile = profiles.get(metricName);
+		if (profile == null) {
+			profile = defaults.get(type);
+			for (Rule rule : rules) {
+				if (rule.type == type && rule.pattern.matcher(metricName).matches()) {
+					profile = rule.profile;
+					break;
+				}
+			}
+			if (profiles.size() >= MAX_RESOLVED) {
+				profiles.clear();
+			}
+			profiles.put(metricName, profile);
+		}
+		return profile;
+	}
+
+	/**
+	 * Rejects the profiles that would give measures without fields, which InfluxDB rejects along with their batch.
+	 */
+	private static void check(MetricType type, FieldProfile profile) {
+		if (profile == null) {
+			throw new IllegalArgumentException("given profile cannot be null");
+		}
+		if (!profile.appliesTo(type)) {
+			throw new IllegalArgumentException("none of the fields of the given profile applies to " + type);
+		}
+	}
+
+	private void clearResolved() {
+		for (Map<String, FieldProfile> profiles : resolved.values()) {
+			profiles.clear();
+		}
+	}
+
+	private static class Rule {
+		final MetricType type;
+		final Pattern pattern;
+		final FieldProfile profile;
+
+		Rule(MetricType type, Pattern pattern, FieldProfile profile) {
+			this.type = type;
+			this.pattern = pattern;
+			this.profile = profile;
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package metrics_influxdb.measurements;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Arrays;
+import java.util.TreeSet;
+
+/**
+ * Upper bounds of cumulative buckets, to report histograms and timers as the number of values of their snapshot less
+ * than or equal to each bound: one {@code le-<bound>} field per bound, plus {@code le-inf}, the number of values.
+ * <br>
+ * Unlike percentiles, such counts can be summed across hosts, from which quantiles are then estimated server side.
+ * The counts are however those of the values held by the reservoir of each metric, {@code le-inf} being the size of
+ * its snapshot, and the weights of decaying reservoirs are ignored: summed counts weight each host by the size of its
+ * reservoir, not by its traffic, so they only give the distribution of the fleet when hosts have similar traffic
+ * and reservoirs, such as sliding time windows sized to hold every value.
+ * <br>
+ * The bounds are in the unit of the reported values: the duration unit of the reporter for timers. The field names and
+ * the bounds converted to the unit of the snapshot values are computed once per unit, so that counting only walks the
+ * sorted values of the snapshot, even when the same buckets are shared by histograms and timers.
+ */
+public class HistogramBuckets {
+	public static final String INFINITY_FIELD = "le-inf";
+	private static final BigDecimal MAX = BigDecimal.valueOf(Long.MAX_VALUE);
+	private static final BigDecimal MIN = BigDecimal.valueOf(Long.MIN_VALUE);
+
+	private final double[] bounds;
+	private final String[] names;
+	// per unit of the counted values, such as those of histograms and of timers sharing these buckets
+	private volatile Thresholds[] thresholds = new Thresholds[0];
+
+	/**
+	 * @param bounds the upper bounds of the buckets, in any order
+	 */
+	public HistogramBuckets(double... bounds) {
+		TreeSet<Double> sorted = new TreeSet<>();
+		for (double bound : bounds) {
+			if (Double.isNaN(bound) || Double.isInfinite(bound)) {
+				throw new IllegalArgumentException("bucket bounds must be finite");
+			}
+			sorted.add(bound);
+		}
+		if (sorted.isEmpty()) {
+			throw new IllegalArgumentException("at least one bucket bound is required");
+		}
+		this.bounds = new double[sorted.size()];
+		this.names = new String[sorted.size()];
+		int i = 0;
+		for (double bound : sorted) {
+			this.bounds[i] = bound;
+			this.names[i] = "le-" + BigDecimal.valueOf(bound).stripTrailingZeros().toPlainString();
+			i++;
+		}
+	}
+
+	/**
+	 * @return buckets whose bounds are, in each power of ten from {@code min} to {@code max}, {@code stepsPerDecade}
+	 * evenly spaced values, such as 1, 4, 7 for 3 steps: {@code logLinear(1, 1000, 9)} gives 1, 2, ..., 9, 10, 20,
+	 * ..., 90, 100, 200, ..., 1000
+	 */
+	public static HistogramBuckets logLinear(double min, double max, int stepsPerDecade) {
+		if (!(min > 0) || !(max >= min) || Double.isInfinite(max)) {
+			throw new IllegalArgumentException("bounds must verify 0 < min <= max");
+		}
+		if (stepsPerDecade <= 0) {
+			throw new IllegalArgumentException("given steps per decade must be positive");
+		}
+		TreeSet<Double> bounds = new TreeSet<>();
+		BigDecimal decade = BigDecimal.ONE.scaleByPowerOfTen((int) Math.floor(Math.log10(min)));
+		BigDecimal step = BigDecimal.valueOf(9.0 / stepsPerDecade);
+		while (decade.doubleValue() <= max) {
+			for (int i = 0; i < stepsPerDecade; i++) {
+				double bound = decade.multiply(BigDecimal.ONE.add(step.multiply(BigDecimal.valueOf(i)))).doubleValue();
+				if (bound >= min && bound <= max) {
+					bounds.add(bound);
+				}
+			}
+			decade = decade.scaleByPowerOfTen(1);
+		}
+		double[] values = new double[bounds.size()];
+		int i = 0;
+		for (double bound : bounds) {
+			values[i++] = bound;
+		}
+		return new HistogramBuckets(values);
+	}
+
+	public int size() {
+		return bounds.length;
+	}
+
+	public double getBound(int i) {
+		return bounds[i];
+	}
+
+	public String getName(int i) {
+		return names[i];
+	}
+
+	/**
+	 * Adds the cumulative bucket counts of the given sorted values to the given measure.
+	 * @param values the values of a snapshot, sorted
+	 * @param unitsPerBound the number of units of the values in a unit of the bounds, 1 for histograms, the number of
+	 * nanoseconds in the duration unit of the reporter for timers
+	 */
+	void addCounts(Measure measure, long[] values, long unitsPerBound) {
+		long[] limits = thresholds(unitsPerBound);
+		int j = 0;
+		for (int i = 0; i < limits.length; i++) {
+			while (j < values.length && values[j] <= limits[i]) {
+				j++;
+			}
+			measure.addValue(names[i], j);
+		}
+		measure.addValue(INFINITY_FIELD, values.length);
+	}
+
+	/**
+	 * @return the largest values, in the unit of the values, counted in each bucket
+	 */
+	private long[] thresholds(long unitsPerBound) {
+		Thresholds[] known = thresholds;
+		for (Thresholds t : known) {
+			if (t.unitsPerBound == unitsPerBound) {
+				return t.limits;
+			}
+		}
+		long[] limits = new long[bounds.length];
+		for (int i = 0; i < bounds.length; i++) {
+			BigDecimal limit = BigDecimal.valueOf(bounds[i]).multiply(BigDecimal.valueOf(unitsPerBound)).setScale(0, RoundingMode.FLOOR);
+			limits[i] = limit.compareTo(MAX) >= 0 ? Long.MAX_VALUE : limit.compareTo(MIN) <= 0 ? Long.MIN_VALUE : limit.longValue();
+		}
+		// a unit computed concurrently by another thread may be lost, it is then computed again
+		Thresholds[] updated = Arrays.copyOf(known, known.length + 1);
+		updated[known.length] = new Thresholds(unitsPerBound, limits);
+		thresholds = updated;
+		return limits;
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(bounds);
+	}
+
+	private static class Thresholds {
+		final long unitsPerBound;
+		final long[] limits;
+
+		Thresholds(long unitsPerBound, long[] limits) {
+			this.unitsPerBound = unitsPerBound;
+			this.limits = limits;
+		}
+	}
+}
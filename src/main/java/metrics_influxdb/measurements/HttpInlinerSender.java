@@ -6,29 +6,76 @@ import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
 import metrics_influxdb.HttpInfluxdbProtocol;
+import metrics_influxdb.misc.AdaptiveBatchSize;
+import metrics_influxdb.misc.CircuitBreaker;
+import metrics_influxdb.misc.JfrEvents;
+import metrics_influxdb.misc.MappedSpool;
 import metrics_influxdb.misc.Miscellaneous;
 import metrics_influxdb.serialization.line.Inliner;
+import metrics_influxdb.serialization.line.LineBuffer;
 
 public class HttpInlinerSender extends QueueableSender {
 	private final static Logger LOGGER = LoggerFactory.getLogger(HttpInlinerSender.class);
-	private static int MAX_MEASURES_IN_SINGLE_POST = 5000;
+	public static final int DEFAULT_MAX_MEASURES_IN_BATCH = 5000;
+	private static final int HTTP_TOO_MANY_REQUESTS = 429;
+	private static final int HTTP_ENTITY_TOO_LARGE = 413;
+	// returned by postSplitting when all the lines have been sent
+	private static final int ALL_SENT = -1;
+
+	private enum PostResult {
+		SENT, FAILED, TOO_LARGE
+	}
+
 	private final URL writeURL;
+	private final String endpoint;
 	private final Inliner inliner;
 	private final long connectTimeout;
 	private final long readTimeout;
+	private final LineBuffer body;
+	private boolean chunkedStreaming;
+	private boolean gzip;
+	private int gzipLevel = Deflater.DEFAULT_COMPRESSION;
+	private int gzipThreshold;
+	private MappedSpool spool;
+	private CircuitBreaker circuitBreaker = new CircuitBreaker();
+	private AdaptiveBatchSize batchSize = new AdaptiveBatchSize();
+	private byte[] copyBuffer;
 
 	public HttpInlinerSender(HttpInfluxdbProtocol protocol) {
-		super(MAX_MEASURES_IN_SINGLE_POST);
+		this(protocol, DEFAULT_MAX_MEASURES_IN_BATCH);
+	}
+
+	/**
+	 * @param protocol the InfluxDB to send the measures to
+	 * @param maxMeasuresInBatch the maximum number of measures sent in a single request
+	 */
+	public HttpInlinerSender(HttpInfluxdbProtocol protocol, int maxMeasuresInBatch) {
+		super(maxMeasuresInBatch);
 		URL toJoin;
 
 		inliner = new Inliner(TimeUnit.MILLISECONDS);
+		body = new LineBuffer();
 		connectTimeout =  protocol.connectTimeout;
 		readTimeout = protocol.readTimeout;
 
@@ -44,15 +91,295 @@ public class HttpInlinerSender extends QueueableSender {
 		}
 
 		writeURL = toJoin;
+		endpoint = protocol.scheme + "://" + protocol.host + ":" + protocol.port;
+	}
+
+	/**
+	 * Selects how the request body is transmitted.
+	 * <br>
+	 * By default the measures are serialized into a reused buffer and posted with a fixed content length.
+	 * In chunked streaming mode the measures are serialized while being written to the connection, using a chunked
+	 * transfer encoding, so that the memory needed does not depend on the size of the batch.
+	 * @param chunkedStreaming true to stream the request body as chunks
+	 */
+	public void setChunkedStreaming(boolean chunkedStreaming) {
+		this.chunkedStreaming = chunkedStreaming;
+	}
+
+	public boolean isChunkedStreaming() {
+		return chunkedStreaming;
+	}
+
+	/**
+	 * Compresses the request bodies using gzip, InfluxDB accepting {@code Content-Encoding: gzip} on writes.
+	 * <br>
+	 * The body is deflated while being streamed to the connection. Bodies smaller than the given threshold are
+	 * sent uncompressed; in chunked streaming mode the size is not known in advance and every body is compressed.
+	 * @param level the compression level, from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION},
+	 *   or {@link Deflater#DEFAULT_COMPRESSION}
+	 * @param threshold the size in bytes from which a body is compressed
+	 */
+	public void setGzipCompression(int level, int threshold) {
+		if ((level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) && level != Deflater.DEFAULT_COMPRESSION) {
+			throw new IllegalArgumentException("invalid compression level: " + level);
+		}
+		if (threshold < 0) {
+			throw new IllegalArgumentException("given threshold cannot be negative");
+		}
+		this.gzip = true;
+		this.gzipLevel = level;
+		this.gzipThreshold = threshold;
+	}
+
+	public boolean isGzipCompression() {
+		return gzip;
+	}
+
+	/**
+	 * Spools the measures to disk before sending them, so that they survive an outage of InfluxDB, and a restart.
+	 * <br>
+	 * Each batch is serialized and appended to the spool, then the spooled batches are posted in order; a batch is
+	 * removed from the spool once InfluxDB has received it. When InfluxDB cannot be reached, the batches stay in the
+	 * spool, whose size is capped, rather than in the bounded queue of measures. Chunked streaming is not used with a
+	 * spool.
+	 * @param spool the spool, closed with this sender, or null to send the measures directly
+	 */
+	public void setSpool(MappedSpool spool) {
+		this.spool = spool;
+	}
+
+	public MappedSpool getSpool() {
+		return spool;
+	}
+
+	/**
+	 * Sets the circuit breaker deciding whether InfluxDB is called.
+	 * <br>
+	 * Once InfluxDB failed several times in a row, sending is skipped altogether, without any connection attempt,
+	 * for an exponentially growing delay; the measures are kept as when InfluxDB cannot be reached. Responses
+	 * {@code 429} and {@code 503} open the breaker for at least the delay given by their {@code Retry-After} header.
+	 * @param circuitBreaker the breaker, or null to call InfluxDB on every send
+	 */
+	public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+		this.circuitBreaker = circuitBreaker;
+	}
+
+	public CircuitBreaker getCircuitBreaker() {
+		return circuitBreaker;
+	}
+
+	/**
+	 * Sets how the size in bytes of the requests is limited.
+	 * <br>
+	 * The measures are split into requests whose size adapts to the observed response times, and a request
+	 * refused by InfluxDB as too large ({@code 413}) is split in two at a line boundary and sent again.
+	 * @param batchSize the size limit, not null
+	 */
+	public void setAdaptiveBatchSize(AdaptiveBatchSize batchSize) {
+		this.batchSize = Objects.requireNonNull(batchSize, "given batch size cannot be null");
+	}
+
+	public AdaptiveBatchSize getAdaptiveBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Also registers the gauges {@code spool.pending-bytes} and {@code spool.dropped} when a spool is set.
+	 */
+	@Override
+	public void registerMetrics(MetricRegistry registry, String prefix) {
+		super.registerMetrics(registry, prefix);
+		final MappedSpool s = spool;
+		if (s != null) {
+			getMetrics().registerGauge("spool.pending-bytes", (Gauge<Long>) s::getPendingSize);
+			getMetrics().registerGauge("spool.dropped", (Gauge<Long>) s::getDroppedCount);
+		}
+	}
+
+	/**
+	 * @return the {@link Inliner} used to serialize the measures
+	 */
+	public Inliner getInliner() {
+		return inliner;
 	}
 
 	@Override
 	protected boolean doSend(Collection<Measure> measures) {
 		if (measures.isEmpty()) {
-			return true;
+			return spool == null || replay();
+		}
+
+		if (chunkedStreaming && spool == null) {
+			PostResult result = post(measures.size() + " Measures", measures, null);
+			if (result != PostResult.TOO_LARGE) {
+				return result == PostResult.SENT;
+			}
+			// split below
+		}
+
+		// serializes the measures into batches of bounded size
+		int limit = batchSize.get();
+		int batched = 0;
+		int done = 0;
+		ReportProfiler profiler = ReportProfiler.active();
+		Object serialization = JfrEvents.beginSerialization();
+		body.reset();
+		for (Measure m : measures) {
+			int mark = body.length();
+			if (mark > 0) {
+				body.append('\n');
+			}
+			if (profiler == null) {
+				inliner.inline(m, body);
+			} else {
+				long start = System.nanoTime();
+				inliner.inline(m, body);
+				profiler.add(ReportProfiler.Phase.SERIALIZE, System.nanoTime() - start);
+			}
+			if (mark > 0 && body.length() > limit) {
+				// the line does not fit, sends what precedes it
+				JfrEvents.commitSerialization(serialization, batched, mark);
+				int sent = emit(batched, ByteBuffer.wrap(body.array(), 0, mark));
+				if (sent < batched) {
+					discard(measures, done + sent);
+					return false;
+				}
+				done += batched;
+				batched = 0;
+				body.removeLeading(mark + 1);
+				serialization = JfrEvents.beginSerialization();
+			}
+			batched++;
+		}
+		JfrEvents.commitSerialization(serialization, batched, body.length());
+		int sent = emit(batched, body.asByteBuffer());
+		if (sent < batched) {
+			discard(measures, done + sent);
+			return false;
+		}
+		return spool == null || replay();
+	}
+
+	/**
+	 * Spools or sends the given serialized measures.
+	 * @return the number of leading measures spooled or sent
+	 */
+	private int emit(int count, ByteBuffer lines) {
+		if (spool != null) {
+			try {
+				spool.append(lines.duplicate());
+				return count;
+			} catch (IOException e) {
+				LOGGER.warn("couldn't spool {} Measures, sending them directly", count, e);
+			}
+		}
+		int sent = postSplitting(count + " Measures", lines);
+		return sent == ALL_SENT ? count : sent;
+	}
+
+	/**
+	 * Removes the given number of measures, already sent, from the batch kept for the next attempt.
+	 */
+	private static void discard(Collection<Measure> measures, int count) {
+		if (measures instanceof List) {
+			// a single shift of the remaining measures
+			((List<Measure>) measures).subList(0, count).clear();
+			return;
 		}
+		Iterator<Measure> it = measures.iterator();
+		for (int i = 0; i < count; i++) {
+			it.next();
+			it.remove();
+		}
+	}
 
+	private boolean replay() {
+		ByteBuffer spooled;
+		while ((spooled = spool.peek()) != null) {
+			if (postSplitting(spooled.remaining() + " bytes of spooled Measures", spooled) != ALL_SENT) {
+				// the measures are safe in the spool, they will be replayed on next flush
+				return true;
+			}
+			spool.commit();
+		}
+		return true;
+	}
+
+	/**
+	 * Posts the given lines, splitting them in two halves, recursively, as long as InfluxDB finds them too large.
+	 * @return {@link #ALL_SENT} if all the lines have been sent, otherwise the number of leading lines sent, or dropped
+	 *   as too large, before a request failed
+	 */
+	private int postSplitting(String what, ByteBuffer content) {
+		int size = content.remaining();
+		long start = System.nanoTime();
+		PostResult result = post(what, null, content);
+		if (result == PostResult.SENT) {
+			batchSize.onSent(size, System.nanoTime() - start);
+			return ALL_SENT;
+		} else if (result == PostResult.FAILED) {
+			return 0;
+		}
+
+		batchSize.onTooLarge(size);
+		int split = lineBoundary(content);
+		if (split < 0) {
+			LOGGER.error("a line of {} bytes is too large for {}://{}:{}, it is dropped", size, writeURL.getProtocol(), writeURL.getHost(), writeURL.getPort());
+			return ALL_SENT;
+		}
+		ByteBuffer first = content.duplicate();
+		((Buffer) first).limit(split);
+		ByteBuffer second = content.duplicate();
+		((Buffer) second).position(split + 1);
+		LOGGER.debug("{} bytes too large, sending them as {} and {} bytes", size, first.remaining(), second.remaining());
+		int sent = postSplitting(first.remaining() + " bytes of Measures", first);
+		if (sent != ALL_SENT) {
+			return sent;
+		}
+		sent = postSplitting(second.remaining() + " bytes of Measures", second);
+		return sent == ALL_SENT ? ALL_SENT : lineCount(first) + sent;
+	}
+
+	private static int lineCount(ByteBuffer content) {
+		int lines = 1;
+		for (int i = content.position(); i < content.limit(); i++) {
+			if (content.get(i) == '\n') {
+				lines++;
+			}
+		}
+		return lines;
+	}
+
+	/**
+	 * @return the position of the new line closest to the middle of the given lines, -1 if there is a single line
+	 */
+	private static int lineBoundary(ByteBuffer content) {
+		int middle = content.position() + content.remaining() / 2;
+		for (int after = middle, before = middle - 1; after < content.limit() || before >= content.position(); after++, before--) {
+			if (after < content.limit() && content.get(after) == '\n') {
+				return after;
+			}
+			if (before >= content.position() && content.get(before) == '\n') {
+				return before;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Posts the given content, or streams the given measures if there is no content.
+	 */
+	private PostResult post(String what, Collection<Measure> measures, ByteBuffer content) {
+		if (circuitBreaker != null && !circuitBreaker.allowRequest()) {
+			LOGGER.debug("{} not sent, {}://{}:{} failed recently", what, writeURL.getProtocol(), writeURL.getHost(), writeURL.getPort());
+			recordFailure("circuit-open");
+			return PostResult.FAILED;
+		}
 		HttpURLConnection con = null;
+		Object event = JfrEvents.beginTransmit();
+		long start = System.nanoTime();
+		long bytes = 0;
+		int responseCode = -1;
 		try {
 			con = (HttpURLConnection) writeURL.openConnection();
 			con.setRequestMethod("POST");
@@ -61,37 +388,72 @@ public class HttpInlinerSender extends QueueableSender {
 
 			// Send post request
 			con.setDoOutput(true);
-			OutputStream wr = con.getOutputStream();
-			String measuresAsString = inliner.inline(measures);
-
-			if (LOGGER.isDebugEnabled()) {
-				LOGGER.debug("Measures being sent:\n{}", measuresAsString);
+			if (content == null) {
+				con.setChunkedStreamingMode(0);
+				try (OutputStream wr = openBody(con, gzip)) {
+					bytes = inliner.inline(measures, wr);
+					LOGGER.debug("{} streamed, {} bytes", what, bytes);
+				}
+			} else {
+				if (LOGGER.isDebugEnabled()) {
+					LOGGER.debug("Measures being sent:\n{}", StandardCharsets.UTF_8.decode(content.duplicate()));
+				}
+				bytes = content.remaining();
+				boolean compress = gzip && bytes >= gzipThreshold;
+				if (compress) {
+					// compressed size is not known before deflating
+					con.setChunkedStreamingMode(0);
+				} else {
+					con.setFixedLengthStreamingMode(content.remaining());
+				}
+				try (OutputStream wr = openBody(con, compress)) {
+					write(content, wr);
+				}
 			}
-			wr.write(measuresAsString.getBytes(Miscellaneous.UTF8));
 
-			wr.flush();
-			wr.close();
+			responseCode = con.getResponseCode();
 
-			int responseCode = con.getResponseCode();
-
-			switch (responseCode) {
-			case HttpURLConnection.HTTP_NO_CONTENT:
-				LOGGER.debug("{} Measures sent to {}://{}:{}", measures.size(), writeURL.getProtocol(), writeURL.getHost(), writeURL.getPort());
-				break;
-			case HttpURLConnection.HTTP_OK:
-				LOGGER.info("{} Measures sent to {}://{}:{} but not saved by infludb, reason:\n{}", measures.size(), writeURL.getProtocol(), writeURL.getHost(), writeURL.getPort(), Miscellaneous.readFrom(con.getInputStream()));
-				break;
-			default:
-				LOGGER.info("failed to send {} Measures to {}://{}:{}, HTTP CODE received: {}\n", measures.size(), writeURL.getProtocol(), writeURL.getHost(), writeURL.getPort(), responseCode,  Miscellaneous.readFrom(con.getInputStream()));
-				break;
+			if (responseCode / 100 == 2) {
+				if (responseCode == HttpURLConnection.HTTP_OK) {
+					LOGGER.info("{} sent to {}://{}:{} but not saved by infludb, reason:\n{}", what, writeURL.getProtocol(), writeURL.getHost(), writeURL.getPort(), Miscellaneous.readFrom(con.getInputStream()));
+				} else {
+					LOGGER.debug("{} sent to {}://{}:{}", what, writeURL.getProtocol(), writeURL.getHost(), writeURL.getPort());
+				}
+				onSuccess();
+				SenderMetrics metrics = getMetrics();
+				if (metrics != null) {
+					metrics.onSent(content == null ? measures.size() : countLines(content), bytes, System.nanoTime() - start);
+				}
+				return PostResult.SENT;
 			}
 
-			return true;
+			recordFailure(Integer.toString(responseCode));
+			String reason = con.getErrorStream() == null ? "" : Miscellaneous.readFrom(con.getErrorStream());
+			if (responseCode == HttpURLConnection.HTTP_BAD_REQUEST) {
+				// sending the same lines again would fail the same way
+				LOGGER.error("{} rejected by {}://{}:{} and dropped, reason:\n{}", what, writeURL.getProtocol(), writeURL.getHost(), writeURL.getPort(), reason);
+				onSuccess();
+				return PostResult.SENT;
+			}
+			if (responseCode == HTTP_ENTITY_TOO_LARGE) {
+				onSuccess();
+				return PostResult.TOO_LARGE;
+			}
+			long retryAfter = 0;
+			if (responseCode == HTTP_TOO_MANY_REQUESTS || responseCode == HttpURLConnection.HTTP_UNAVAILABLE) {
+				retryAfter = parseRetryAfter(con.getHeaderField("Retry-After"));
+			}
+			LOGGER.info("failed to send {} to {}://{}:{}, HTTP CODE received: {}\n{}", what, writeURL.getProtocol(), writeURL.getHost(), writeURL.getPort(), responseCode, reason);
+			onFailure(retryAfter);
+			return PostResult.FAILED;
 		} catch (IOException e) {
 			// Here the influxdb is potentially temporary unreachable
 			// we do not clear held measures so that we'll eb able to retry to post them
 			LOGGER.warn("couldn't sent metrics to {}://{}:{}, reason: {}", writeURL.getProtocol(), writeURL.getHost(), writeURL.getPort(), e.getMessage(), e);
+			recordFailure("io");
+			onFailure(0);
 		} finally {
+			JfrEvents.commitTransmit(event, endpoint, responseCode, bytes);
 			// cleanup connection streams
 			if (con != null) {
 				try {
@@ -102,6 +464,97 @@ public class HttpInlinerSender extends QueueableSender {
 			}
 		}
 
-		return false;
+		return PostResult.FAILED;
+	}
+
+	private void recordFailure(String reason) {
+		SenderMetrics metrics = getMetrics();
+		if (metrics != null) {
+			metrics.onFailure(reason);
+		}
+	}
+
+	private static int countLines(ByteBuffer content) {
+		int lines = content.hasRemaining() ? 1 : 0;
+		for (int i = content.position(); i < content.limit(); i++) {
+			if (content.get(i) == '\n') {
+				lines++;
+			}
+		}
+		return lines;
+	}
+
+	private void onSuccess() {
+		if (circuitBreaker != null) {
+			circuitBreaker.onSuccess();
+		}
+	}
+
+	private void onFailure(long retryAfterMillis) {
+		if (circuitBreaker != null) {
+			circuitBreaker.onFailure(retryAfterMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * @return the delay in milliseconds given by a Retry-After header, in seconds or as a date, 0 if none
+	 */
+	static long parseRetryAfter(String retryAfter) {
+		if (retryAfter == null || retryAfter.trim().isEmpty()) {
+			return 0;
+		}
+		String value = retryAfter.trim();
+		try {
+			return TimeUnit.SECONDS.toMillis(Math.max(0, Long.parseLong(value)));
+		} catch (NumberFormatException e) {
+			// not a number of seconds
+		}
+		try {
+			long at = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+			return Math.max(0, at - System.currentTimeMillis());
+		} catch (DateTimeParseException e) {
+			LOGGER.debug("invalid Retry-After header: {}", value);
+			return 0;
+		}
+	}
+
+	private void write(ByteBuffer content, OutputStream out) throws IOException {
+		if (content.hasArray()) {
+			out.write(content.array(), content.arrayOffset() + content.position(), content.remaining());
+			return;
+		}
+		// mapped spool records
+		if (copyBuffer == null) {
+			copyBuffer = new byte[8192];
+		}
+		ByteBuffer source = content.duplicate();
+		while (source.hasRemaining()) {
+			int length = Math.min(copyBuffer.length, source.remaining());
+			source.get(copyBuffer, 0, length);
+			out.write(copyBuffer, 0, length);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		super.close();
+		if (spool != null) {
+			spool.close();
+		}
+	}
+
+	private OutputStream openBody(HttpURLConnection con, boolean compress) throws IOException {
+		if (!compress) {
+			return con.getOutputStream();
+		}
+		con.setRequestProperty("Content-Encoding", "gzip");
+		return new LeveledGZIPOutputStream(con.getOutputStream(), gzipLevel);
+	}
+
+	private static class LeveledGZIPOutputStream extends GZIPOutputStream {
+		LeveledGZIPOutputStream(OutputStream out, int level) throws IOException {
+			super(out, 8192);
+			def.setLevel(level);
+		}
 	}
 }
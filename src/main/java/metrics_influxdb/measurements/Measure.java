@@ -1,19 +1,46 @@
 package metrics_influxdb.measurements;
 
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 import com.codahale.metrics.Clock;
 
 import metrics_influxdb.misc.Miscellaneous;
 
+/**
+ * A measurement: a name, tags, fields and a timestamp.
+ * <br>
+ * Fields are stored as primitive values along with their {@link FieldType}, sorted by key in compact arrays;
+ * their line protocol representation is only computed during serialization.
+ */
 public class Measure {
+	/**
+	 * Type of the value held by a field.
+	 */
+	public enum FieldType {
+		LONG, DOUBLE, BOOLEAN, STRING,
+		/** a value already formatted for the line protocol */
+		RAW
+	}
+
+	private static final FieldType[] FIELD_TYPES = FieldType.values();
+
 	private String name;
-	private Map<String, String> tags;
-	private Map<String, String> values;
+	private TagSet tags;
 	private long timestamp;
 
+	private String[] fieldKeys;
+	private byte[] fieldTypes;
+	private long[] fieldValues;
+	private String[] fieldTexts;
+	private int fieldCount;
+
 	public Measure(String name) {
 		this(name, (Map<String, String>)null, (Map<String, String>)null, Clock.defaultClock().getTime());
 	}
@@ -21,15 +48,11 @@ public class Measure {
 	public Measure(String name, Map<String, String> tags, Map<String, String> values, long timestamp) {
 		super();
 		this.name = name;
-		this.tags = new HashMap<String, String>();
-		this.values = new HashMap<String, String>();
+		this.tags = TagSet.copyOf(tags);
 		this.timestamp = timestamp;
 
-		if (tags != null) {
-			this.tags.putAll(tags);
-		}
 		if (values != null) {
-			this.values.putAll(values);
+			addRawValues(values);
 		}
 	}
 
@@ -38,7 +61,8 @@ public class Measure {
 	}
 
 	public Measure(String name, Map<String, String> tags, long value, long timestamp) {
-		this(name, tags, Collections.singletonMap("value", value+"i"), timestamp);
+		this(name, tags, (Map<String, String>)null, timestamp);
+		put("value", FieldType.LONG, value, null);
 	}
 
 	public Measure(String name, long value, long timestamp) {
@@ -70,7 +94,8 @@ public class Measure {
 	}
 
 	public Measure(String name, Map<String, String> tags, double value, long timestamp) {
-		this(name, tags, Collections.singletonMap("value", ""+value), timestamp);
+		this(name, tags, (Map<String, String>)null, timestamp);
+		put("value", FieldType.DOUBLE, Double.doubleToRawLongBits(value), null);
 	}
 
 	public Measure(String name, double value, long timestamp) {
@@ -102,7 +127,8 @@ public class Measure {
 	}
 
 	public Measure(String name, Map<String, String> tags, String value, long timestamp) {
-		this(name, tags, Collections.singletonMap("value", asStringValue(value)), timestamp);
+		this(name, tags, (Map<String, String>)null, timestamp);
+		put("value", FieldType.STRING, 0, value);
 	}
 
 	public Measure(String name, String value, long timestamp) {
@@ -118,7 +144,8 @@ public class Measure {
 	}
 
 	public Measure(String name, Map<String, String> tags, boolean value, long timestamp) {
-		this(name, tags, Collections.singletonMap("value", ""+value), timestamp);
+		this(name, tags, (Map<String, String>)null, timestamp);
+		put("value", FieldType.BOOLEAN, value ? 1 : 0, null);
 	}
 
 	public Measure(String name, boolean value, long timestamp) {
@@ -137,12 +164,81 @@ public class Measure {
 		return name;
 	}
 
+	/**
+	 * @return the tags, as an immutable {@link TagSet}
+	 */
 	public Map<String, String> getTags() {
 		return tags;
 	}
 
+	/**
+	 * @return a read-only view of the fields, each value being formatted as in the line protocol
+	 */
 	public Map<String, String> getValues() {
-		return values;
+		return new FieldsView();
+	}
+
+	/**
+	 * @return the number of fields
+	 */
+	public int getFieldCount() {
+		return fieldCount;
+	}
+
+	/**
+	 * @param index the index of the field, fields being sorted by key
+	 * @return the key of the field
+	 */
+	public String getFieldKey(int index) {
+		checkFieldIndex(index);
+		return fieldKeys[index];
+	}
+
+	public FieldType getFieldType(int index) {
+		checkFieldIndex(index);
+		return FIELD_TYPES[fieldTypes[index]];
+	}
+
+	public long getLongField(int index) {
+		checkFieldIndex(index);
+		return fieldValues[index];
+	}
+
+	public double getDoubleField(int index) {
+		checkFieldIndex(index);
+		return Double.longBitsToDouble(fieldValues[index]);
+	}
+
+	public boolean getBooleanField(int index) {
+		checkFieldIndex(index);
+		return fieldValues[index] != 0;
+	}
+
+	/**
+	 * @return the unescaped value of a {@link FieldType#STRING} field, or the formatted value of a {@link FieldType#RAW} one
+	 */
+	public String getStringField(int index) {
+		checkFieldIndex(index);
+		return fieldTexts[index];
+	}
+
+	/**
+	 * @return the value of the field formatted as in the line protocol
+	 */
+	public String getFormattedField(int index) {
+		checkFieldIndex(index);
+		switch (FIELD_TYPES[fieldTypes[index]]) {
+		case LONG:
+			return fieldValues[index] + "i";
+		case DOUBLE:
+			return Double.toString(Double.longBitsToDouble(fieldValues[index]));
+		case BOOLEAN:
+			return Boolean.toString(fieldValues[index] != 0);
+		case STRING:
+			return asStringValue(fieldTexts[index]);
+		default:
+			return fieldTexts[index];
+		}
 	}
 
 	public long getTimestamp() {
@@ -153,17 +249,21 @@ public class Measure {
 		this.name = name;
 	}
 
+	/**
+	 * Replaces the tags by the given ones; a given {@link TagSet} is used as is, without copy.
+	 */
 	public void setTags(Map<String, String> tags) {
-		this.tags.clear();
-		if (tags != null) {
-			this.tags.putAll(tags);
-		}
+		this.tags = TagSet.copyOf(tags);
 	}
 
+	/**
+	 * Replaces the fields by the given ones.
+	 * @param values the fields, each value being already formatted as in the line protocol
+	 */
 	public void setValues(Map<String, String> values) {
-		this.values.clear();
+		clearFields();
 		if (values != null) {
-			this.values.putAll(values);
+			addRawValues(values);
 		}
 	}
 
@@ -177,15 +277,19 @@ public class Measure {
 	}
 
 	public Measure addTag(String tagKey, String tagValue) {
-		tags.put(tagKey, tagValue);
+		tags = tags.with(tagKey, tagValue);
 		return this;
 	}
+	/**
+	 * Adds the given tags, replacing the ones with the same key.
+	 * When this measure has no tag yet, a given {@link TagSet} is used as is, without copy.
+	 */
 	public Measure addTag(Map<String, String> tags) {
-		this.tags.putAll(tags);
+		this.tags = this.tags.isEmpty() ? TagSet.copyOf(tags) : this.tags.with(tags);
 		return this;
 	}
 	public Measure addValue(String key, String value) {
-		values.put(key, asStringValue(value));
+		put(key, FieldType.STRING, 0, value);
 		return this;
 	}
 	public Measure addValue(String key, float value) {
@@ -193,7 +297,7 @@ public class Measure {
 	}
 	public Measure addValue(String key, double value) {
 		if (!((Double.isNaN(value)) || Double.isInfinite(value))) {
-			values.put(key, "" + value);
+			put(key, FieldType.DOUBLE, Double.doubleToRawLongBits(value), null);
 		}
 		return this;
 	}
@@ -201,11 +305,134 @@ public class Measure {
 		return addValue(key, Long.valueOf(value));
 	}
 	public Measure addValue(String key, long value) {
-		values.put(key, value+"i");
+		put(key, FieldType.LONG, value, null);
 		return this;
 	}
 	public Measure addValue(String key, boolean value) {
-		values.put(key, ""+value);
+		put(key, FieldType.BOOLEAN, value ? 1 : 0, null);
 		return this;
 	}
+
+	/**
+	 * Sizes the field storage for the given number of fields, avoiding successive growths.
+	 */
+	void ensureFieldCapacity(int capacity) {
+		if (fieldKeys == null) {
+			fieldKeys = new String[capacity];
+			fieldTypes = new byte[capacity];
+			fieldValues = new long[capacity];
+		} else if (capacity > fieldKeys.length) {
+			fieldKeys = Arrays.copyOf(fieldKeys, capacity);
+			fieldTypes = Arrays.copyOf(fieldTypes, capacity);
+			fieldValues = Arrays.copyOf(fieldValues, capacity);
+			if (fieldTexts != null) {
+				fieldTexts = Arrays.copyOf(fieldTexts, capacity);
+			}
+		}
+	}
+
+	private void addRawValues(Map<String, String> values) {
+		ensureFieldCapacity(fieldCount + values.size());
+		for (Map.Entry<String, String> e : values.entrySet()) {
+			put(e.getKey(), FieldType.RAW, 0, e.getValue());
+		}
+	}
+
+	private void put(String key, FieldType type, long value, String text) {
+		int index = indexOfField(key);
+		if (index < 0) {
+			index = -(index + 1);
+			if (fieldKeys == null || fieldCount == fieldKeys.length) {
+				ensureFieldCapacity(fieldKeys == null ? 4 : 2 * fieldKeys.length);
+			}
+			int moved = fieldCount - index;
+			if (moved > 0) {
+				System.arraycopy(fieldKeys, index, fieldKeys, index + 1, moved);
+				System.arraycopy(fieldTypes, index, fieldTypes, index + 1, moved);
+				System.arraycopy(fieldValues, index, fieldValues, index + 1, moved);
+				if (fieldTexts != null) {
+					System.arraycopy(fieldTexts, index, fieldTexts, index + 1, moved);
+				}
+			}
+			fieldCount++;
+		}
+		if (text != null && fieldTexts == null) {
+			fieldTexts = new String[fieldKeys.length];
+		}
+		fieldKeys[index] = key;
+		fieldTypes[index] = (byte) type.ordinal();
+		fieldValues[index] = value;
+		if (fieldTexts != null) {
+			fieldTexts[index] = text;
+		}
+	}
+
+	private int indexOfField(Object key) {
+		return fieldCount == 0 ? -1 : Arrays.binarySearch(fieldKeys, 0, fieldCount, key);
+	}
+
+	private void clearFields() {
+		if (fieldCount > 0) {
+			Arrays.fill(fieldKeys, 0, fieldCount, null);
+			if (fieldTexts != null) {
+				Arrays.fill(fieldTexts, 0, fieldCount, null);
+			}
+		}
+		fieldCount = 0;
+	}
+
+	private void checkFieldIndex(int index) {
+		if (index < 0 || index >= fieldCount) {
+			throw new IndexOutOfBoundsException("field index " + index + ", field count " + fieldCount);
+		}
+	}
+
+	private class FieldsView extends AbstractMap<String, String> {
+		@Override
+		public int size() {
+			return fieldCount;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return key instanceof String && indexOfField(key) >= 0;
+		}
+
+		@Override
+		public String get(Object key) {
+			int index = key instanceof String ? indexOfField(key) : -1;
+			return index < 0 ? null : getFormattedField(index);
+		}
+
+		@Override
+		public Set<Map.Entry<String, String>> entrySet() {
+			return new AbstractSet<Map.Entry<String, String>>() {
+				@Override
+				public int size() {
+					return fieldCount;
+				}
+
+				@Override
+				public Iterator<Map.Entry<String, String>> iterator() {
+					return new Iterator<Map.Entry<String, String>>() {
+						private int next;
+
+						@Override
+						public boolean hasNext() {
+							return next < fieldCount;
+						}
+
+						@Override
+						public Map.Entry<String, String> next() {
+							if (!hasNext()) {
+								throw new NoSuchElementException();
+							}
+							int index = next++;
+							return new SimpleImmutableEntry<>(fieldKeys[index], getFormattedField(index));
+						}
+					};
+				}
+			};
+		}
+	}
 }
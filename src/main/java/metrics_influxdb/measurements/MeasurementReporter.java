@@ -1,6 +1,5 @@
 package metrics_influxdb.measurements;
 
-import java.util.HashMap;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.concurrent.ScheduledExecutorService;
@@ -17,17 +16,31 @@ import com.codahale.metrics.ScheduledReporter;
 import com.codahale.metrics.Snapshot;
 import com.codahale.metrics.Timer;
 
+import metrics_influxdb.api.measurements.MetricMeasurement;
 import metrics_influxdb.api.measurements.MetricMeasurementTransformer;
+import metrics_influxdb.measurements.FieldProfiles.MetricType;
+import metrics_influxdb.measurements.ReportProfiler.Phase;
+import metrics_influxdb.misc.JfrEvents;
 
 public class MeasurementReporter extends ScheduledReporter{
 	private final Sender sender;
 	private final Clock clock;
-	private Map<String, String> baseTags;
+	private final TagSet baseTags;
 	private MetricMeasurementTransformer transformer;
+	private ReportProfiler profiler = ReportProfiler.DISABLED;
+	private ChangeDetector changes;
+	private FieldProfiles fields = new FieldProfiles();
+	private final MetricRegistry registry;
+	private final MetricFilter filter;
+	private final long nanosPerDurationUnit;
+	private MetricIndex index;
 
 	public MeasurementReporter(Sender sender, MetricRegistry registry, MetricFilter filter, TimeUnit rateUnit, TimeUnit durationUnit, Clock clock, Map<String, String> baseTags, MetricMeasurementTransformer transformer, ScheduledExecutorService executor) {
 		super(registry, "measurement-reporter", filter, rateUnit, durationUnit, executor);
-		this.baseTags = baseTags;
+		this.registry = registry;
+		this.filter = filter;
+		this.nanosPerDurationUnit = durationUnit.toNanos(1);
+		this.baseTags = TagSet.of(baseTags);
 		this.sender = sender;
 		this.clock = clock;
 		this.transformer = transformer;
@@ -35,12 +48,27 @@ public class MeasurementReporter extends ScheduledReporter{
 
 	public MeasurementReporter(Sender sender, MetricRegistry registry, MetricFilter filter, TimeUnit rateUnit, TimeUnit durationUnit, Clock clock, Map<String, String> baseTags, MetricMeasurementTransformer transformer) {
 		super(registry, "measurement-reporter", filter, rateUnit, durationUnit);
-		this.baseTags = baseTags;
+		this.registry = registry;
+		this.filter = filter;
+		this.nanosPerDurationUnit = durationUnit.toNanos(1);
+		this.baseTags = TagSet.of(baseTags);
 		this.sender = sender;
 		this.clock = clock;
 		this.transformer = transformer;
 	}
 
+	@Override
+	public void report() {
+		synchronized (this) {
+			if (index == null) {
+				super.report();
+				return;
+			}
+			index.update();
+			reportIndexed();
+		}
+	}
+
 	@SuppressWarnings("rawtypes")
 	@Override
 	public void report(SortedMap<String, Gauge> gauges
@@ -51,121 +79,409 @@ public class MeasurementReporter extends ScheduledReporter{
 
 		final long timestamp = clock.getTime();
 
-		for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
-			sender.send(fromGauge(entry.getKey(), entry.getValue(), timestamp));
+		Object event = startTick();
+		try {
+			for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+				long start = profiler.start();
+				send(entry.getKey(), fromGauge(entry.getKey(), null, null, entry.getValue(), timestamp), start);
+			}
+
+			for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+				long start = profiler.start();
+				send(entry.getKey(), fromCounter(entry.getKey(), null, null, entry.getValue(), timestamp), start);
+			}
+
+			for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+				long start = profiler.start();
+				send(entry.getKey(), fromHistogram(entry.getKey(), null, null, entry.getValue(), timestamp), start);
+			}
+
+			for (Map.Entry<String, Meter> entry : meters.entrySet()) {
+				long start = profiler.start();
+				send(entry.getKey(), fromMeter(entry.getKey(), null, null, entry.getValue(), timestamp), start);
+			}
+
+			for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+				long start = profiler.start();
+				send(entry.getKey(), fromTimer(entry.getKey(), null, null, entry.getValue(), timestamp), start);
+			}
+
+			flush();
+		} finally {
+			endTick(event, gauges.size(), counters.size(), histograms.size(), meters.size(), timers.size());
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	private void reportIndexed() {
+		final long timestamp = clock.getTime();
+
+		Object event = startTick();
+		try {
+			for (int i = 0; i < index.gauges.size(); i++) {
+				MetricIndex.Entry<Gauge> entry = index.gauges.get(i);
+				long start = profiler.start();
+				send(entry.name, fromGauge(entry.name, entry.measurementName, entry.tags, entry.metric, timestamp), start);
+			}
+
+			for (int i = 0; i < index.counters.size(); i++) {
+				MetricIndex.Entry<Counter> entry = index.counters.get(i);
+				long start = profiler.start();
+				send(entry.name, fromCounter(entry.name, entry.measurementName, entry.tags, entry.metric, timestamp), start);
+			}
+
+			for (int i = 0; i < index.histograms.size(); i++) {
+				MetricIndex.Entry<Histogram> entry = index.histograms.get(i);
+				long start = profiler.start();
+				send(entry.name, fromHistogram(entry.name, entry.measurementName, entry.tags, entry.metric, timestamp), start);
+			}
+
+			for (int i = 0; i < index.meters.size(); i++) {
+				MetricIndex.Entry<Meter> entry = index.meters.get(i);
+				long start = profiler.start();
+				send(entry.name, fromMeter(entry.name, entry.measurementName, entry.tags, entry.metric, timestamp), start);
+			}
+
+			for (int i = 0; i < index.timers.size(); i++) {
+				MetricIndex.Entry<Timer> entry = index.timers.get(i);
+				long start = profiler.start();
+				send(entry.name, fromTimer(entry.name, entry.measurementName, entry.tags, entry.metric, timestamp), start);
+			}
+
+			flush();
+		} finally {
+			endTick(event, index.gauges.size(), index.counters.size(), index.histograms.size(), index.meters.size(), index.timers.size());
 		}
+	}
 
-		for (Map.Entry<String, Counter> entry : counters.entrySet()) {
-			sender.send(fromCounter(entry.getKey(), entry.getValue(), timestamp));
+	private Object startTick() {
+		Object event = JfrEvents.beginTick();
+		profiler.startTick();
+		if (changes != null) {
+			changes.startTick();
 		}
+		return event;
+	}
 
-		for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
-			sender.send(fromHistogram(entry.getKey(), entry.getValue(), timestamp));
+	private void flush() {
+		long lap = profiler.start();
+		sender.flush();
+		profiler.lap(Phase.TRANSMIT, lap);
+	}
+
+	private void endTick(Object event, int gauges, int counters, int histograms, int meters, int timers) {
+		if (changes != null) {
+			changes.endTick();
 		}
+		profiler.endTick();
+		JfrEvents.commitTick(event, gauges, counters, histograms, meters, timers);
+	}
+
+	private void send(String metricName, Measure measure, long start) {
+		long lap = profiler.start();
+		sender.send(measure);
+		profiler.lap(Phase.TRANSMIT, lap);
+		profiler.metricDone(metricName, start);
+	}
 
-		for (Map.Entry<String, Meter> entry : meters.entrySet()) {
-			sender.send(fromMeter(entry.getKey(), entry.getValue(), timestamp));
+	/**
+	 * Skips the idle metrics: counters, meters, histograms and timers whose count did not change, and gauges whose
+	 * value did not change, since they were last sent. The snapshot of an idle histogram or timer is not even taken.
+	 * @param changes the detector of the changes, giving the heartbeat, or null to send every metric on every tick
+	 */
+	public void setChangeDetector(ChangeDetector changes) {
+		this.changes = changes;
+	}
+
+	public ChangeDetector getChangeDetector() {
+		return changes;
+	}
+
+	/**
+	 * Reports the metrics from an index kept up to date by listening to the registry, instead of reading the
+	 * registry into sorted maps on every tick. The filter is then evaluated once per metric, when it is added, and
+	 * so is the transformer, whose measurement name and tags are expected not to change over time; metrics are no
+	 * longer reported in the order of their names.
+	 * @param indexed true to report from the index, false to read the registry on every tick
+	 */
+	public synchronized void setIndexed(boolean indexed) {
+		if (indexed && index == null) {
+			index = new MetricIndex(filter, transformer, baseTags);
+			registry.addListener(index);
+		} else if (!indexed && index != null) {
+			registry.removeListener(index);
+			index = null;
 		}
+	}
+
+	public boolean isIndexed() {
+		return index != null;
+	}
 
-		for (Map.Entry<String, Timer> entry : timers.entrySet()) {
-			sender.send(fromTimer(entry.getKey(), entry.getValue(), timestamp));
+	@Override
+	public void stop() {
+		try {
+			super.stop();
+		} finally {
+			setIndexed(false);
 		}
+	}
 
-		sender.flush();
+	private boolean idle(String metricName, long value, long timestamp) {
+		return changes != null && !changes.changed(metricName, value, timestamp);
 	}
 
-	private Measure fromTimer(String metricName, Timer t, long timestamp) {
-		Snapshot snapshot = t.getSnapshot();
+	/**
+	 * Selects the fields emitted for histograms, meters and timers, and their names.
+	 * @param fields the profiles of the fields, or null for the default ones
+	 */
+	public void setFieldProfiles(FieldProfiles fields) {
+		this.fields = fields == null ? new FieldProfiles() : fields;
+	}
 
-		Map<String, String> tags = new HashMap<String, String>(baseTags);
-		tags.putAll(transformer.tags(metricName));
+	public FieldProfiles getFieldProfiles() {
+		return fields;
+	}
 
-		Measure measure = new Measure(transformer.measurementName(metricName))
-				.timestamp(timestamp)
-				.addTag(tags)
-				.addValue("count", snapshot.size())
-				.addValue("min", convertDuration(snapshot.getMin()))
-				.addValue("max", convertDuration(snapshot.getMax()))
-				.addValue("mean", convertDuration(snapshot.getMean()))
-				.addValue("std-dev", convertDuration(snapshot.getStdDev()))
-				.addValue("50-percentile", convertDuration(snapshot.getMedian()))
-				.addValue("75-percentile", convertDuration(snapshot.get75thPercentile()))
-				.addValue("95-percentile", convertDuration(snapshot.get95thPercentile()))
-				.addValue("99-percentile", convertDuration(snapshot.get99thPercentile()))
-				.addValue("999-percentile", convertDuration(snapshot.get999thPercentile()))
-				.addValue("one-minute", convertRate(t.getOneMinuteRate()))
-				.addValue("five-minute", convertRate(t.getFiveMinuteRate()))
-				.addValue("fifteen-minute", convertRate(t.getFifteenMinuteRate()))
-				.addValue("mean-minute", convertRate(t.getMeanRate()))
-				.addValue("run-count", t.getCount());
+	/**
+	 * Profiles the report ticks.
+	 * @param profiler the profiler, or null to stop profiling
+	 */
+	public void setProfiler(ReportProfiler profiler) {
+		this.profiler = profiler == null ? ReportProfiler.DISABLED : profiler;
+	}
+
+	/**
+	 * @return the profiler of the report ticks, null if they are not profiled
+	 */
+	public ReportProfiler getProfiler() {
+		return profiler.isEnabled() ? profiler : null;
+	}
+
+	private Measure fromTimer(String metricName, String name, TagSet tags, Timer t, long timestamp) {
+		if (idle(metricName, t.getCount(), timestamp)) {
+			return null;
+		}
+		FieldProfile profile = fields.get(MetricType.TIMER, metricName);
+		long lap = profiler.start();
+		Snapshot snapshot = profile.needsSnapshot() ? t.getSnapshot() : null;
+		lap = profiler.lap(Phase.SNAPSHOT, lap);
+
+		if (name == null) {
+			MetricMeasurement measurement = transformer.transform(metricName);
+			tags = baseTags.with(measurement.getTags());
+			name = measurement.getName();
+			lap = profiler.lap(Phase.TRANSFORM, lap);
+		}
+
+		Measure measure = new Measure(name);
+		measure.ensureFieldCapacity(profile.fieldCount());
+		measure.timestamp(timestamp)
+				.addTag(tags);
+		for (int i = 0; i < profile.size(); i++) {
+			String field = profile.getName(i);
+			switch (profile.getField(i)) {
+			case COUNT:
+				measure.addValue(field, snapshot.size());
+				break;
+			case MIN:
+				measure.addValue(field, convertDuration(snapshot.getMin()));
+				break;
+			case MAX:
+				measure.addValue(field, convertDuration(snapshot.getMax()));
+				break;
+			case MEAN:
+				measure.addValue(field, convertDuration(snapshot.getMean()));
+				break;
+			case STD_DEV:
+				measure.addValue(field, convertDuration(snapshot.getStdDev()));
+				break;
+			case PERCENTILE:
+				measure.addValue(field, convertDuration(snapshot.getValue(profile.getQuantile(i))));
+				break;
+			case ONE_MINUTE:
+				measure.addValue(field, convertRate(t.getOneMinuteRate()));
+				break;
+			case FIVE_MINUTE:
+				measure.addValue(field, convertRate(t.getFiveMinuteRate()));
+				break;
+			case FIFTEEN_MINUTE:
+				measure.addValue(field, convertRate(t.getFifteenMinuteRate()));
+				break;
+			case MEAN_RATE:
+				measure.addValue(field, convertRate(t.getMeanRate()));
+				break;
+			case RUN_COUNT:
+				measure.addValue(field, t.getCount());
+				break;
+			}
+		}
+		if (profile.getBuckets() != null) {
+			profile.getBuckets().addCounts(measure, snapshot.getValues(), nanosPerDurationUnit);
+		}
+		profiler.lap(Phase.BUILD, lap);
+		if (measure.getFieldCount() == 0) {
+			// a line without fields is rejected by InfluxDB, along with its whole batch
+			return null;
+		}
 
 		return measure;
 	}
 
-	private Measure fromMeter(String metricName, Meter mt, long timestamp) {
-		Map<String, String> tags = new HashMap<String, String>(baseTags);
-		tags.putAll(transformer.tags(metricName));
+	private Measure fromMeter(String metricName, String name, TagSet tags, Meter mt, long timestamp) {
+		if (idle(metricName, mt.getCount(), timestamp)) {
+			return null;
+		}
+		FieldProfile profile = fields.get(MetricType.METER, metricName);
+		long lap = profiler.start();
+		if (name == null) {
+			MetricMeasurement measurement = transformer.transform(metricName);
+			tags = baseTags.with(measurement.getTags());
+			name = measurement.getName();
+			lap = profiler.lap(Phase.TRANSFORM, lap);
+		}
 
-		Measure measure = new Measure(transformer.measurementName(metricName))
-				.timestamp(timestamp)
-				.addTag(tags)
-				.addValue("count", mt.getCount())
-				.addValue("one-minute", convertRate(mt.getOneMinuteRate()))
-				.addValue("five-minute", convertRate(mt.getFiveMinuteRate()))
-				.addValue("fifteen-minute", convertRate(mt.getFifteenMinuteRate()))
-				.addValue("mean-minute", convertRate(mt.getMeanRate()));
+		Measure measure = new Measure(name);
+		measure.ensureFieldCapacity(profile.size());
+		measure.timestamp(timestamp)
+				.addTag(tags);
+		for (int i = 0; i < profile.size(); i++) {
+			String field = profile.getName(i);
+			switch (profile.getField(i)) {
+			case COUNT:
+				measure.addValue(field, mt.getCount());
+				break;
+			case ONE_MINUTE:
+				measure.addValue(field, convertRate(mt.getOneMinuteRate()));
+				break;
+			case FIVE_MINUTE:
+				measure.addValue(field, convertRate(mt.getFiveMinuteRate()));
+				break;
+			case FIFTEEN_MINUTE:
+				measure.addValue(field, convertRate(mt.getFifteenMinuteRate()));
+				break;
+			case MEAN_RATE:
+				measure.addValue(field, convertRate(mt.getMeanRate()));
+				break;
+			default:
+				// not applicable to meters
+			}
+		}
+		profiler.lap(Phase.BUILD, lap);
+		if (measure.getFieldCount() == 0) {
+			// a line without fields is rejected by InfluxDB, along with its whole batch
+			return null;
+		}
 		return measure;
 	}
 
-	private Measure fromHistogram(String metricName, Histogram h, long timestamp) {
-		Snapshot snapshot = h.getSnapshot();
+	private Measure fromHistogram(String metricName, String name, TagSet tags, Histogram h, long timestamp) {
+		if (idle(metricName, h.getCount(), timestamp)) {
+			return null;
+		}
+		FieldProfile profile = fields.get(MetricType.HISTOGRAM, metricName);
+		long lap = profiler.start();
+		Snapshot snapshot = profile.needsSnapshot() ? h.getSnapshot() : null;
+		lap = profiler.lap(Phase.SNAPSHOT, lap);
 
-		Map<String, String> tags = new HashMap<String, String>(baseTags);
-		tags.putAll(transformer.tags(metricName));
+		if (name == null) {
+			MetricMeasurement measurement = transformer.transform(metricName);
+			tags = baseTags.with(measurement.getTags());
+			name = measurement.getName();
+			lap = profiler.lap(Phase.TRANSFORM, lap);
+		}
 
-		Measure measure = new Measure(transformer.measurementName(metricName))
-				.timestamp(timestamp)
-				.addTag(tags)
-				.addValue("count", snapshot.size())
-				.addValue("min", snapshot.getMin())
-				.addValue("max", snapshot.getMax())
-				.addValue("mean", snapshot.getMean())
-				.addValue("std-dev", snapshot.getStdDev())
-				.addValue("50-percentile", snapshot.getMedian())
-				.addValue("75-percentile", snapshot.get75thPercentile())
-				.addValue("95-percentile", snapshot.get95thPercentile())
-				.addValue("99-percentile", snapshot.get99thPercentile())
-				.addValue("999-percentile", snapshot.get999thPercentile())
-				.addValue("run-count", h.getCount());
+		Measure measure = new Measure(name);
+		measure.ensureFieldCapacity(profile.fieldCount());
+		measure.timestamp(timestamp)
+				.addTag(tags);
+		for (int i = 0; i < profile.size(); i++) {
+			String field = profile.getName(i);
+			switch (profile.getField(i)) {
+			case COUNT:
+				measure.addValue(field, snapshot.size());
+				break;
+			case MIN:
+				measure.addValue(field, snapshot.getMin());
+				break;
+			case MAX:
+				measure.addValue(field, snapshot.getMax());
+				break;
+			case MEAN:
+				measure.addValue(field, snapshot.getMean());
+				break;
+			case STD_DEV:
+				measure.addValue(field, snapshot.getStdDev());
+				break;
+			case PERCENTILE:
+				measure.addValue(field, snapshot.getValue(profile.getQuantile(i)));
+				break;
+			case RUN_COUNT:
+				measure.addValue(field, h.getCount());
+				break;
+			default:
+				// rates are not applicable to histograms
+			}
+		}
+		if (profile.getBuckets() != null) {
+			profile.getBuckets().addCounts(measure, snapshot.getValues(), 1);
+		}
+		profiler.lap(Phase.BUILD, lap);
+		if (measure.getFieldCount() == 0) {
+			// a line without fields is rejected by InfluxDB, along with its whole batch
+			return null;
+		}
 		return measure;
 	}
 
-	private Measure fromCounter(String metricName, Counter c, long timestamp) {
-		Map<String, String> tags = new HashMap<String, String>(baseTags);
-		tags.putAll(transformer.tags(metricName));
+	private Measure fromCounter(String metricName, String name, TagSet tags, Counter c, long timestamp) {
+		if (idle(metricName, c.getCount(), timestamp)) {
+			return null;
+		}
+		long lap = profiler.start();
+		if (name == null) {
+			MetricMeasurement measurement = transformer.transform(metricName);
+			tags = baseTags.with(measurement.getTags());
+			name = measurement.getName();
+			lap = profiler.lap(Phase.TRANSFORM, lap);
+		}
 
-		Measure measure = new Measure(transformer.measurementName(metricName))
-				.timestamp(timestamp)
+		Measure measure = new Measure(name);
+		measure.ensureFieldCapacity(1);
+		measure.timestamp(timestamp)
 				.addTag(tags)
 				.addValue("count", c.getCount());
+		profiler.lap(Phase.BUILD, lap);
 
 		return measure;
 	}
 
 	@SuppressWarnings("rawtypes")
-	private Measure fromGauge(String metricName, Gauge g, long timestamp) {
-		Map<String, String> tags = new HashMap<String, String>(baseTags);
-		tags.putAll(transformer.tags(metricName));
-
-		Measure measure = new Measure(transformer.measurementName(metricName))
-				.timestamp(timestamp)
-				.addTag(tags);
+	private Measure fromGauge(String metricName, String name, TagSet tags, Gauge g, long timestamp) {
+		long lap = profiler.start();
 		Object o = g.getValue();
+		lap = profiler.lap(Phase.SNAPSHOT, lap);
 
 		if (o == null) {
 			// skip null values
 			return null;
 		}
+		if (changes != null && idle(metricName, valueKey(o), timestamp)) {
+			return null;
+		}
+
+		if (name == null) {
+			MetricMeasurement measurement = transformer.transform(metricName);
+			tags = baseTags.with(measurement.getTags());
+			name = measurement.getName();
+			lap = profiler.lap(Phase.TRANSFORM, lap);
+		}
+
+		Measure measure = new Measure(name);
+		measure.ensureFieldCapacity(1);
+		measure.timestamp(timestamp)
+				.addTag(tags);
+
 		if (o instanceof Long || o instanceof Integer) {
 			long value = ((Number)o).longValue();
 			measure.addValue("value", value);
@@ -187,7 +503,22 @@ public class MeasurementReporter extends ScheduledReporter{
 			String value = ""+o;
 			measure.addValue("value", value);
 		}
+		profiler.lap(Phase.BUILD, lap);
 
 		return measure;
 	}
+
+	/**
+	 * @return a value identifying the given gauge value, to detect its changes
+	 */
+	private static long valueKey(Object o) {
+		if (o instanceof Long || o instanceof Integer) {
+			return ((Number) o).longValue();
+		} else if (o instanceof Double) {
+			return Double.doubleToLongBits((Double) o);
+		} else if (o instanceof Float) {
+			return Float.floatToIntBits((Float) o);
+		}
+		return ChangeDetector.fingerprint("" + o);
+	}
 }
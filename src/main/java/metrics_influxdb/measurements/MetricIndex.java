@@ -0,0 +1,192 @@
+package metrics_influxdb.measurements;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistryListener;
+import com.codahale.metrics.Timer;
+
+import metrics_influxdb.api.measurements.MetricMeasurement;
+import metrics_influxdb.api.measurements.MetricMeasurementTransformer;
+
+/**
+ * The metrics of a registry to be reported, kept up to date as a {@link MetricRegistryListener} rather than read from
+ * the registry on every tick.
+ * <br>
+ * The filter is evaluated once, when a metric is added, on the registering thread. Additions and removals are queued
+ * and applied by {@link #update()} on the reporter thread, which then computes the measurement name and tags of the
+ * new metrics, once, and iterates flat lists, in no particular order.
+ */
+class MetricIndex implements MetricRegistryListener {
+	/**
+	 * A metric with its measurement name and tags.
+	 */
+	static final class Entry<T extends Metric> {
+		final String name;
+		final T metric;
+		String measurementName;
+		TagSet tags;
+		private int position;
+		private List<Entry<T>> list;
+
+		Entry(String name, T metric) {
+			this.name = name;
+			this.metric = metric;
+		}
+	}
+
+	private static final class Change {
+		final String name;
+		final Metric metric;
+
+		/**
+		 * @param metric the added metric, null for a removal
+		 */
+		Change(String name, Metric metric) {
+			this.name = name;
+			this.metric = metric;
+		}
+	}
+
+	private final MetricFilter filter;
+	private final MetricMeasurementTransformer transformer;
+	private final TagSet baseTags;
+	private final ConcurrentLinkedQueue<Change> changes = new ConcurrentLinkedQueue<>();
+	private final Map<String, Entry<?>> byName = new HashMap<>();
+	@SuppressWarnings("rawtypes")
+	final List<Entry<Gauge>> gauges = new ArrayList<>();
+	final List<Entry<Counter>> counters = new ArrayList<>();
+	final List<Entry<Histogram>> histograms = new ArrayList<>();
+	final List<Entry<Meter>> meters = new ArrayList<>();
+	final List<Entry<Timer>> timers = new ArrayList<>();
+
+	MetricIndex(MetricFilter filter, MetricMeasurementTransformer transformer, TagSet baseTags) {
+		this.filter = filter == null ? MetricFilter.ALL : filter;
+		this.transformer = transformer;
+		this.baseTags = baseTags;
+	}
+
+	/**
+	 * Applies the additions and removals of metrics since the last update.
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	void update() {
+		Change change;
+		while ((change = changes.poll()) != null) {
+			remove(byName.remove(change.name));
+			if (change.metric == null) {
+				continue;
+			}
+			if (change.metric instanceof Gauge) {
+				add(gauges, new Entry<>(change.name, (Gauge) change.metric));
+			} else if (change.metric instanceof Counter) {
+				add(counters, new Entry<>(change.name, (Counter) change.metric));
+			} else if (change.metric instanceof Histogram) {
+				add(histograms, new Entry<>(change.name, (Histogram) change.metric));
+			} else if (change.metric instanceof Meter) {
+				add(meters, new Entry<>(change.name, (Meter) change.metric));
+			} else if (change.metric instanceof Timer) {
+				add(timers, new Entry<>(change.name, (Timer) change.metric));
+			}
+		}
+	}
+
+	private <T extends Metric> void add(List<Entry<T>> list, Entry<T> entry) {
+		MetricMeasurement measurement = transformer.transform(entry.name);
+		entry.measurementName = measurement.getName();
+		entry.tags = baseTags.with(measurement.getTags());
+		entry.list = list;
+		entry.position = list.size();
+		list.add(entry);
+		byName.put(entry.name, entry);
+	}
+
+	private static <T extends Metric> void remove(Entry<T> entry) {
+		if (entry == null) {
+			return;
+		}
+		// moves the last entry in place of the removed one
+		List<Entry<T>> list = entry.list;
+		Entry<T> last = list.remove(list.size() - 1);
+		if (last != entry) {
+			last.position = entry.position;
+			list.set(entry.position, last);
+		}
+	}
+
+	/**
+	 * @return the number of metrics indexed by the last update
+	 */
+	int size() {
+		return byName.size();
+	}
+
+	private void added(String name, Metric metric) {
+		if (filter.matches(name, metric)) {
+			changes.add(new Change(name, metric));
+		}
+	}
+
+	private void removed(String name) {
+		changes.add(new Change(name, null));
+	}
+
+	@Override
+	public void onGaugeAdded(String name, Gauge<?> gauge) {
+		added(name, gauge);
+	}
+
+	@Override
+	public void onGaugeRemoved(String name) {
+		removed(name);
+	}
+
+	@Override
+	public void onCounterAdded(String name, Counter counter) {
+		added(name, counter);
+	}
+
+	@Override
+	public void onCounterRemoved(String name) {
+		removed(name);
+	}
+
+	@Override
+	public void onHistogramAdded(String name, Histogram histogram) {
+		added(name, histogram);
+	}
+
+	@Override
+	public void onHistogramRemoved(String name) {
+		removed(name);
+	}
+
+	@Override
+	public void onMeterAdded(String name, Meter meter) {
+		added(name, meter);
+	}
+
+	@Override
+	public void onMeterRemoved(String name) {
+		removed(name);
+	}
+
+	@Override
+	public void onTimerAdded(String name, Timer timer) {
+		added(name, timer);
+	}
+
+	@Override
+	public void onTimerRemoved(String name) {
+		removed(name);
+	}
+}
@@ -1,24 +1,59 @@
 package metrics_influxdb.measurements;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
-import metrics_influxdb.misc.BoundedFIFO;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
 
+import metrics_influxdb.misc.JfrEvents;
+import metrics_influxdb.misc.RingBuffer;
+
+/**
+ * A {@link Sender} queueing measures in a bounded {@link RingBuffer}, the oldest ones being dropped when it is full,
+ * and sending them by batches.
+ * <br>
+ * Queued measures are drained into a batch given to {@link #doSend(Collection)}. If the batch cannot be sent, it is
+ * kept and sent again before newer measures, which keep on being queued in the ring buffer. The queue size bounds the
+ * measures of both the batch and the ring buffer: the oldest ones, those of the batch first, are dropped beyond it.
+ */
 public class QueueableSender extends AbstractSender {
-	private final Collection<Measure> measures;
+	private final RingBuffer<Measure> measures;
+	private final List<Measure> batch;
 	private int queueSize;
+	// registered once the sending thread of a wrapping sender may already be running
+	private volatile SenderMetrics metrics;
+	// measures of a kept batch dropped to make room for newer ones
+	private volatile long batchDropped;
+	// timestamp of the oldest measure of a batch kept after a failure, 0 if none
+	private volatile long retainedSince;
 
 	protected QueueableSender(int queueSize) {
 		this.queueSize = queueSize;
-		measures = new BoundedFIFO<>(queueSize);
+		measures = new RingBuffer<>(queueSize);
+		batch = new ArrayList<>(queueSize);
 	}
 
 	@Override
 	public void flush() {
-		if (doSend(measures)) {
-			measures.clear();
+		do {
+			measures.drainTo(batch, queueSize - batch.size());
+			if (!sendBatch()) {
+				return;
+			}
+		} while (!measures.isEmpty());
+	}
+
+	private boolean sendBatch() {
+		if (!doSend(batch)) {
+			retainedSince = batch.isEmpty() ? 0 : batch.get(0).getTimestamp();
+			return false;
 		}
+		batch.clear();
+		retainedSince = 0;
+		return true;
 	}
 
 	@Override
@@ -26,27 +61,87 @@ public class QueueableSender extends AbstractSender {
 		if (m == null) {
 			return;     // NOOP for null measures
 		}
-		if (measures.size() == queueSize) {
+		if (measures.size() >= queueSize) {
 			// we have already reached the maximumn number of measure that can be sent in one shot
 			// let's send them before adding a new one
-			if (doSend(measures)) {
-				measures.clear();
-			}
+			measures.drainTo(batch, queueSize - batch.size());
+			sendBatch();
+		}
+		int dropped = measures.add(m);
+		int excess = batch.size() + measures.size() - queueSize;
+		if (excess > 0 && !batch.isEmpty()) {
+			// the batch kept after a failure holds the oldest measures
+			excess = Math.min(excess, batch.size());
+			batch.subList(0, excess).clear();
+			batchDropped += excess;
+			retainedSince = batch.isEmpty() ? 0 : batch.get(0).getTimestamp();
+			dropped += excess;
+		}
+		if (dropped > 0) {
+			JfrEvents.eviction("queue", dropped);
 		}
-		measures.add(m);
 	}
 
 	/**
 	 * Realizes the action to send the measures
-	 * @param measuresToSend the collection of measure to be sent
+	 * @param measuresToSend the collection of measure to be sent; when only some of them could be sent, those can be
+	 *   removed from it before returning false, so that they are not sent again
 	 * @return true if the measures have been sent and can be discarded, false otherwise
 	 */
 	protected boolean doSend(Collection<Measure> measuresToSend) {
 		return true;
 	}
 
+	/**
+	 * @return the number of measures waiting to be sent
+	 */
+	public int getPendingCount() {
+		return batch.size() + measures.size();
+	}
+
+	/**
+	 * @return the number of measures dropped because the queue was full
+	 */
+	public long getDroppedCount() {
+		return measures.getDroppedCount() + batchDropped;
+	}
+
+	/**
+	 * @return the time elapsed, in milliseconds, since the timestamp of the oldest measure waiting to be sent,
+	 *   0 if there is none
+	 */
+	public long getOldestPendingAge() {
+		long oldest = retainedSince;
+		if (oldest == 0) {
+			Measure next = measures.peek();
+			oldest = next == null ? 0 : next.getTimestamp();
+		}
+		return oldest == 0 ? 0 : Math.max(0, System.currentTimeMillis() - oldest);
+	}
+
+	/**
+	 * Registers the metrics of {@link SenderMetrics} and the gauges {@code pending}, {@code dropped} and
+	 * {@code oldest-pending-age}, in milliseconds.
+	 */
+	@Override
+	public void registerMetrics(MetricRegistry registry, String prefix) {
+		SenderMetrics m = new SenderMetrics(registry, prefix);
+		m.registerGauge("pending", (Gauge<Integer>) this::getPendingCount);
+		m.registerGauge("dropped", (Gauge<Long>) this::getDroppedCount);
+		m.registerGauge("oldest-pending-age", (Gauge<Long>) this::getOldestPendingAge);
+		metrics = m;
+	}
+
+	/**
+	 * @return the metrics to record the sent batches into, null if none have been registered
+	 */
+	protected SenderMetrics getMetrics() {
+		return metrics;
+	}
+
 	@Override
 	public void close() throws IOException {
 		measures.clear();
+		batch.clear();
 	}
 }
@@ -0,0 +1,300 @@
+package metrics_influxdb.measurements;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Measures where the time of the {@link MeasurementReporter} ticks goes.
+ * <br>
+ * Each tick is split in {@link Phase phases} whose durations, like the duration of whole ticks, are recorded in
+ * histograms, in nanoseconds. The last tick is kept with the metrics that took the longest to report, and ticks
+ * slower than a threshold are logged with their breakdown.
+ * <br>
+ * The serialization done by the senders is only accounted for when they run on the reporter thread; otherwise it is
+ * part of the transmission phase of their own thread, which the reporter does not see.
+ */
+public class ReportProfiler {
+	private final static Logger LOGGER = LoggerFactory.getLogger(ReportProfiler.class);
+	private final static ThreadLocal<ReportProfiler> ACTIVE = new ThreadLocal<>();
+	public static final int DEFAULT_TOP_N = 10;
+	static final ReportProfiler DISABLED = new ReportProfiler(false);
+
+	public enum Phase {
+		/** reading the values of the metrics, such as taking the snapshot of a timer */
+		SNAPSHOT,
+		/** computing the measurement name and tags of the metrics */
+		TRANSFORM,
+		/** building the measures */
+		BUILD,
+		/** serializing the measures to the line protocol */
+		SERIALIZE,
+		/** handing the measures over to the sender and sending them, serialization excluded */
+		TRANSMIT
+	}
+
+	private final boolean enabled;
+	private final int topN;
+	private final long slowTickThresholdNanos;
+	private final Histogram tickDurations;
+	private final Map<Phase, Histogram> phaseDurations = new EnumMap<>(Phase.class);
+	private final long[] current = new long[Phase.values().length];
+	private final PriorityQueue<MetricDuration> slowest;
+	private long tickStart;
+	private int metricCount;
+	private volatile TickProfile lastTick;
+
+	private ReportProfiler(boolean enabled) {
+		this.enabled = enabled;
+		this.topN = 0;
+		this.slowTickThresholdNanos = Long.MAX_VALUE;
+		this.tickDurations = null;
+		this.slowest = null;
+	}
+
+	public ReportProfiler() {
+		this(DEFAULT_TOP_N, 1, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * @param topN the number of slowest metrics kept for each tick
+	 * @param slowTickThreshold the duration from which a tick is logged with its breakdown
+	 * @param unit the unit of the threshold
+	 */
+	public ReportProfiler(int topN, long slowTickThreshold, TimeUnit unit) {
+		if (topN < 0) {
+			throw new IllegalArgumentException("given number of slowest metrics cannot be negative");
+		}
+		this.enabled = true;
+		this.topN = topN;
+		this.slowTickThresholdNanos = unit.toNanos(slowTickThreshold);
+		this.tickDurations = new Histogram(new ExponentiallyDecayingReservoir());
+		for (Phase phase : Phase.values()) {
+			phaseDurations.put(phase, new Histogram(new ExponentiallyDecayingReservoir()));
+		}
+		this.slowest = new PriorityQueue<>(Math.max(1, topN + 1));
+	}
+
+	/**
+	 * @return the profiler of the tick running on the current thread, null if none
+	 */
+	static ReportProfiler active() {
+		return ACTIVE.get();
+	}
+
+	boolean isEnabled() {
+		return enabled;
+	}
+
+	void startTick() {
+		if (!enabled) {
+			return;
+		}
+		ACTIVE.set(this);
+		for (int i = 0; i < current.length; i++) {
+			current[i] = 0;
+		}
+		slowest.clear();
+		metricCount = 0;
+		tickStart = System.nanoTime();
+	}
+
+	/**
+	 * @return the current time in nanoseconds, 0 when profiling is disabled
+	 */
+	long start() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Adds the time elapsed since the given start to the given phase.
+	 * @return the current time, to be given as start of the next phase
+	 */
+	long lap(Phase phase, long start) {
+		if (!enabled) {
+			return 0;
+		}
+		long now = System.nanoTime();
+		current[phase.ordinal()] += now - start;
+		return now;
+	}
+
+	void add(Phase phase, long nanos) {
+		current[phase.ordinal()] += nanos;
+	}
+
+	/**
+	 * Records the time spent since the given start to report the given metric.
+	 */
+	void metricDone(String name, long start) {
+		if (!enabled) {
+			return;
+		}
+		metricCount++;
+		if (topN == 0) {
+			return;
+		}
+		long duration = System.nanoTime() - start;
+		if (slowest.size() < topN) {
+			slowest.add(new MetricDuration(name, duration));
+		} else if (slowest.peek().duration < duration) {
+			slowest.poll();
+			slowest.add(new MetricDuration(name, duration));
+		}
+	}
+
+	void endTick() {
+		if (!enabled) {
+			return;
+		}
+		ACTIVE.remove();
+		long duration = System.nanoTime() - tickStart;
+		// senders serialize while they are given the measures
+		current[Phase.TRANSMIT.ordinal()] = Math.max(0, current[Phase.TRANSMIT.ordinal()] - current[Phase.SERIALIZE.ordinal()]);
+
+		tickDurations.update(duration);
+		for (Phase phase : Phase.values()) {
+			phaseDurations.get(phase).update(current[phase.ordinal()]);
+		}
+		List<MetricDuration> metrics = new ArrayList<>(slowest);
+		Collections.sort(metrics, Collections.reverseOrder());
+		TickProfile tick = new TickProfile(duration, current.clone(), metricCount, Collections.unmodifiableList(metrics));
+		lastTick = tick;
+
+		if (duration >= slowTickThresholdNanos) {
+			LOGGER.warn("slow report tick: {}", tick);
+		}
+	}
+
+	/**
+	 * @return the durations of the ticks, in nanoseconds
+	 */
+	public Histogram getTickDurations() {
+		return tickDurations;
+	}
+
+	/**
+	 * @return the durations of the given phase in each tick, in nanoseconds
+	 */
+	public Histogram getPhaseDurations(Phase phase) {
+		return phaseDurations.get(phase);
+	}
+
+	/**
+	 * @return the profile of the last tick, null if there was none
+	 */
+	public TickProfile getLastTick() {
+		return lastTick;
+	}
+
+	/**
+	 * Registers the histograms in the given registry, as {@code <prefix>.tick} and {@code <prefix>.<phase>}.
+	 */
+	public void registerMetrics(MetricRegistry registry, String prefix) {
+		registry.register(MetricRegistry.name(prefix, "tick"), tickDurations);
+		for (Phase phase : Phase.values()) {
+			registry.register(MetricRegistry.name(prefix, phase.name().toLowerCase()), phaseDurations.get(phase));
+		}
+	}
+
+	/**
+	 * The breakdown of a tick.
+	 */
+	public static class TickProfile {
+		private final long duration;
+		private final long[] phases;
+		private final int metricCount;
+		private final List<MetricDuration> slowestMetrics;
+
+		TickProfile(long duration, long[] phases, int metricCount, List<MetricDuration> slowestMetrics) {
+			this.duration = duration;
+			this.phases = phases;
+			this.metricCount = metricCount;
+			this.slowestMetrics = slowestMetrics;
+		}
+
+		/**
+		 * @return the duration of the whole tick, in nanoseconds
+		 */
+		public long getDuration() {
+			return duration;
+		}
+
+		/**
+		 * @return the time spent in the given phase, in nanoseconds
+		 */
+		public long getDuration(Phase phase) {
+			return phases[phase.ordinal()];
+		}
+
+		public int getMetricCount() {
+			return metricCount;
+		}
+
+		/**
+		 * @return the metrics that took the longest to report, slowest first
+		 */
+		public List<MetricDuration> getSlowestMetrics() {
+			return slowestMetrics;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append(TimeUnit.NANOSECONDS.toMillis(duration)).append(" ms for ").append(metricCount).append(" metrics");
+			for (Phase phase : Phase.values()) {
+				sb.append(", ").append(phase.name().toLowerCase()).append(' ')
+						.append(TimeUnit.NANOSECONDS.toMillis(phases[phase.ordinal()])).append(" ms");
+			}
+			if (!slowestMetrics.isEmpty()) {
+				sb.append(", slowest metrics: ").append(slowestMetrics);
+			}
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * The time spent to report a metric, from reading its values to handing its measure over to the sender.
+	 */
+	public static class MetricDuration implements Comparable<MetricDuration> {
+		private final String name;
+		private final long duration;
+
+		MetricDuration(String name, long duration) {
+			this.name = name;
+			this.duration = duration;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return the duration in nanoseconds
+		 */
+		public long getDuration() {
+			return duration;
+		}
+
+		@Override
+		public int compareTo(MetricDuration o) {
+			return Long.compare(duration, o.duration);
+		}
+
+		@Override
+		public String toString() {
+			return name + " (" + TimeUnit.NANOSECONDS.toMicros(duration) + " us)";
+		}
+	}
+}
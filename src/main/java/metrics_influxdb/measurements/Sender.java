@@ -3,6 +3,8 @@ package metrics_influxdb.measurements;
 import java.io.Closeable;
 import java.util.Collection;
 
+import com.codahale.metrics.MetricRegistry;
+
 public interface Sender extends Closeable {
 	/**
 	 * Flushes measurements still held and forces them to be sent.
@@ -20,4 +22,13 @@ public interface Sender extends Closeable {
 	 * @param measures the Measures to be sent, if null this method is a NOOP
 	 */
 	public void send(Collection<Measure> measures);
+	/**
+	 * Registers metrics about the sender itself, such as the bytes sent or the measures dropped, in the given registry.
+	 * Senders without such metrics ignore this call.
+	 * @param registry the registry receiving the metrics
+	 * @param prefix the prefix of the metric names
+	 * @see SenderMetrics
+	 */
+	public default void registerMetrics(MetricRegistry registry, String prefix) {
+	}
 }
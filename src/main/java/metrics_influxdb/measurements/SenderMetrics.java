@@ -0,0 +1,64 @@
+package metrics_influxdb.measurements;
+
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * The metrics a {@link Sender} registers about itself, all named after a common prefix:
+ * <ul>
+ * <li>{@code bytes}: the number of bytes sent, before compression</li>
+ * <li>{@code lines}: the number of measures sent</li>
+ * <li>{@code latency}: the duration of the requests</li>
+ * <li>{@code failures.<reason>}: the number of failed requests, by HTTP status code or failure kind</li>
+ * <li>the gauges the sender registers, such as the number of pending or dropped measures</li>
+ * </ul>
+ * Recording a sent batch only increments counters.
+ */
+public class SenderMetrics {
+	private final MetricRegistry registry;
+	private final String prefix;
+	private final Counter bytes;
+	private final Counter lines;
+	private final Timer latency;
+
+	public SenderMetrics(MetricRegistry registry, String prefix) {
+		this.registry = registry;
+		this.prefix = prefix;
+		this.bytes = registry.counter(MetricRegistry.name(prefix, "bytes"));
+		this.lines = registry.counter(MetricRegistry.name(prefix, "lines"));
+		this.latency = registry.timer(MetricRegistry.name(prefix, "latency"));
+	}
+
+	/**
+	 * Records a batch sent without measuring its duration, as done for datagrams.
+	 */
+	public void onSent(int lineCount, long byteCount) {
+		lines.inc(lineCount);
+		bytes.inc(byteCount);
+	}
+
+	public void onSent(int lineCount, long byteCount, long latencyNanos) {
+		onSent(lineCount, byteCount);
+		latency.update(latencyNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @param reason the HTTP status code or the kind of failure, for example {@code io}
+	 */
+	public void onFailure(String reason) {
+		registry.counter(MetricRegistry.name(prefix, "failures", reason)).inc();
+	}
+
+	/**
+	 * Registers the given gauge under the prefix, replacing a gauge of the same name.
+	 */
+	public void registerGauge(String name, Gauge<?> gauge) {
+		String fullName = MetricRegistry.name(prefix, name);
+		registry.remove(fullName);
+		registry.register(fullName, gauge);
+	}
+}
@@ -0,0 +1,322 @@
+package metrics_influxdb.measurements;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An immutable set of tags, sorted by key once at creation, with a precomputed hash.
+ * <br>
+ * A {@link TagSet} is a read-only {@link Map}, it can be given wherever tags are expected. {@link #of(Map)} interns
+ * the created instances so that identical tag sets are shared, for example between all the measures of a series
+ * over successive reports. Interning takes no lock when the tag set is already interned, the instances no longer used
+ * being forgotten once garbage collected.
+ */
+public final class TagSet extends AbstractMap<String, String> {
+	private static final TagSet EMPTY = new TagSet(new String[0], new String[0]);
+	private static final ConcurrentMap<InternKey, InternKey> INTERNED = new ConcurrentHashMap<>();
+	private static final ReferenceQueue<TagSet> COLLECTED = new ReferenceQueue<>();
+
+	private final String[] keys;
+	private final String[] values;
+	private final int hash;
+	private volatile Merge lastMerge;
+
+	private TagSet(String[] keys, String[] values) {
+		this.keys = keys;
+		this.values = values;
+		int h = 0;
+		for (int i = 0; i < keys.length; i++) {
+			// as specified by Map.hashCode()
+			h += keys[i].hashCode() ^ values[i].hashCode();
+		}
+		this.hash = h;
+	}
+
+	public static TagSet empty() {
+		return EMPTY;
+	}
+
+	/**
+	 * @return the interned tag set holding the given tags
+	 */
+	public static TagSet of(Map<String, String> tags) {
+		return copyOf(tags).intern();
+	}
+
+	/**
+	 * @return the interned tag set holding the given tag
+	 */
+	public static TagSet of(String key, String value) {
+		return EMPTY.with(key, value).intern();
+	}
+
+	/**
+	 * @return a tag set holding the given tags, the given instance itself if it already is a {@link TagSet}
+	 */
+	public static TagSet copyOf(Map<String, String> tags) {
+		if (tags instanceof TagSet) {
+			return (TagSet) tags;
+		}
+		if (tags == null || tags.isEmpty()) {
+			return EMPTY;
+		}
+		String[] keys = new String[tags.size()];
+		String[] values = new String[keys.length];
+		int size = 0;
+		for (Map.Entry<String, String> e : tags.entrySet()) {
+			keys[size++] = requireTag(e.getKey(), e.getValue());
+		}
+		Arrays.sort(keys);
+		for (int i = 0; i < keys.length; i++) {
+			values[i] = tags.get(keys[i]);
+		}
+		return new TagSet(keys, values);
+	}
+
+	/**
+	 * @return the shared instance equal to this tag set
+	 */
+	public TagSet intern() {
+		if (keys.length == 0) {
+			return EMPTY;
+		}
+		InternKey entry = INTERNED.get(new InternKey(this, null));
+		TagSet interned = (entry == null) ? null : entry.get();
+		if (interned != null) {
+			return interned;
+		}
+		Reference<? extends TagSet> collected;
+		while ((collected = COLLECTED.poll()) != null) {
+			INTERNED.remove(collected);
+		}
+		InternKey key = new InternKey(this, COLLECTED);
+		while ((entry = INTERNED.putIfAbsent(key, key)) != null) {
+			interned = entry.get();
+			if (interned != null) {
+				return interned;
+			}
+			// collected in the meantime
+			INTERNED.remove(entry, entry);
+		}
+		return this;
+	}
+
+	/**
+	 * @return a tag set holding these tags and the given one, which replaces any tag with the same key
+	 */
+	public TagSet with(String key, String value) {
+		requireTag(key, value);
+		int index = Arrays.binarySearch(keys, key);
+		if (index >= 0) {
+			if (values[index].equals(value)) {
+				return this;
+			}
+			String[] newValues = values.clone();
+			newValues[index] = value;
+			return new TagSet(keys, newValues);
+		}
+		index = -(index + 1);
+		String[] newKeys = new String[keys.length + 1];
+		String[] newValues = new String[keys.length + 1];
+		System.arraycopy(keys, 0, newKeys, 0, index);
+		System.arraycopy(values, 0, newValues, 0, index);
+		newKeys[index] = key;
+		newValues[index] = value;
+		System.arraycopy(keys, index, newKeys, index + 1, keys.length - index);
+		System.arraycopy(values, index, newValues, index + 1, keys.length - index);
+		return new TagSet(newKeys, newValues);
+	}
+
+	/**
+	 * Merges the given tags into these ones, the given tags replacing the ones with the same key.
+	 * <br>
+	 * The result is interned. When the given tags are a {@link TagSet}, the result is also remembered by it,
+	 * so that merging the same two tag sets again costs nothing; other maps are copied and merged on every call.
+	 * @return the merged tag set, this instance if there is no tag to add
+	 */
+	public TagSet with(Map<String, String> tags) {
+		if (tags == null || tags.isEmpty()) {
+			return this;
+		}
+		if (tags instanceof TagSet) {
+			TagSet other = (TagSet) tags;
+			Merge merge = other.lastMerge;
+			if (merge != null && merge.base == this) {
+				return merge.result;
+			}
+			TagSet result = (keys.length == 0) ? other.intern() : merge(other.keys, other.values).intern();
+			other.lastMerge = new Merge(this, result);
+			return result;
+		}
+		TagSet added = copyOf(tags);
+		return (keys.length == 0) ? added.intern() : merge(added.keys, added.values).intern();
+	}
+
+	private TagSet merge(String[] otherKeys, String[] otherValues) {
+		String[] newKeys = new String[keys.length + otherKeys.length];
+		String[] newValues = new String[newKeys.length];
+		int i = 0, j = 0, size = 0;
+		while (i < keys.length || j < otherKeys.length) {
+			int cmp = (i == keys.length) ? 1 : (j == otherKeys.length) ? -1 : keys[i].compareTo(otherKeys[j]);
+			if (cmp < 0) {
+				newKeys[size] = keys[i];
+				newValues[size++] = values[i++];
+			} else {
+				if (cmp == 0) {
+					i++;
+				}
+				newKeys[size] = otherKeys[j];
+				newValues[size++] = otherValues[j++];
+			}
+		}
+		if (size < newKeys.length) {
+			newKeys = Arrays.copyOf(newKeys, size);
+			newValues = Arrays.copyOf(newValues, size);
+		}
+		return new TagSet(newKeys, newValues);
+	}
+
+	private static String requireTag(String key, String value) {
+		if (key == null || value == null) {
+			throw new NullPointerException("tag keys and values cannot be null");
+		}
+		return key;
+	}
+
+	/**
+	 * @param index the index of the tag, tags being sorted by key
+	 */
+	public String getKey(int index) {
+		return keys[index];
+	}
+
+	/**
+	 * @param index the index of the tag, tags being sorted by key
+	 */
+	public String getValue(int index) {
+		return values[index];
+	}
+
+	@Override
+	public int size() {
+		return keys.length;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return key instanceof String && Arrays.binarySearch(keys, key) >= 0;
+	}
+
+	@Override
+	public String get(Object key) {
+		int index = key instanceof String ? Arrays.binarySearch(keys, key) : -1;
+		return index < 0 ? null : values[index];
+	}
+
+	@Override
+	public Set<Map.Entry<String, String>> entrySet() {
+		return new AbstractSet<Map.Entry<String, String>>() {
+			@Override
+			public int size() {
+				return keys.length;
+			}
+
+			@Override
+			public Iterator<Map.Entry<String, String>> iterator() {
+				return new Iterator<Map.Entry<String, String>>() {
+					private int next;
+
+					@Override
+					public boolean hasNext() {
+						return next < keys.length;
+					}
+
+					@Override
+					public Map.Entry<String, String> next() {
+						if (!hasNext()) {
+							throw new NoSuchElementException();
+						}
+						int index = next++;
+						return new SimpleImmutableEntry<>(keys[index], values[index]);
+					}
+				};
+			}
+		};
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (o instanceof TagSet) {
+			TagSet other = (TagSet) o;
+			return hash == other.hash && Arrays.equals(keys, other.keys) && Arrays.equals(values, other.values);
+		}
+		return super.equals(o);
+	}
+
+	private static final class Merge {
+		private final TagSet base;
+		private final TagSet result;
+
+		Merge(TagSet base, TagSet result) {
+			this.base = base;
+			this.result = result;
+		}
+	}
+
+	/**
+	 * A weak reference to an interned tag set, or the strong one of a tag set being looked up, equal to the keys of
+	 * equal tag sets.
+	 */
+	private static final class InternKey extends WeakReference<TagSet> {
+		private final int hash;
+		private final TagSet lookedUp;
+
+		/**
+		 * @param queue the queue of collected tag sets, null to look the given tag set up
+		 */
+		InternKey(TagSet tags, ReferenceQueue<TagSet> queue) {
+			super(tags, queue);
+			this.hash = tags.hash;
+			this.lookedUp = (queue == null) ? tags : null;
+		}
+
+		private TagSet tags() {
+			return (lookedUp != null) ? lookedUp : get();
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof InternKey)) {
+				return false;
+			}
+			TagSet tags = tags();
+			return tags != null && tags.equals(((InternKey) o).tags());
+		}
+	}
+}
@@ -5,26 +5,81 @@ import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
 import java.util.Collection;
-import java.util.Iterator;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import metrics_influxdb.UdpInfluxdbProtocol;
-import metrics_influxdb.misc.Miscellaneous;
+import metrics_influxdb.misc.JfrEvents;
 import metrics_influxdb.serialization.line.Inliner;
+import metrics_influxdb.serialization.line.LineBuffer;
 
+/**
+ * Sends measures to the UDP listener of InfluxDB.
+ * <br>
+ * As many lines as fit in the configured packet size are packed in each datagram, and a connected channel is kept
+ * open between flushes. The server host name is resolved again periodically so that DNS changes are followed.
+ */
 public class UdpInlinerSender extends QueueableSender {
 	private final static Logger LOGGER = LoggerFactory.getLogger(UdpInlinerSender.class);
 	private static int MAX_MEASURES_IN_SINGLE_POST = 5000;
+	/** Fits in an ethernet frame once IP and UDP headers are added. */
+	public static final int DEFAULT_MAX_PACKET_SIZE = 1400;
+	public static final long DEFAULT_RESOLVE_INTERVAL_SECONDS = 60;
+
 	private final Inliner inliner;
-	private final InetSocketAddress serverAddress;
+	private final String host;
+	private final int port;
+	private final LineBuffer packet;
+	private final LineBuffer line;
+	private InetSocketAddress serverAddress;
+	private String endpoint;
+	private DatagramChannel channel;
+	private int maxPacketSize = DEFAULT_MAX_PACKET_SIZE;
+	private long resolveIntervalNanos = TimeUnit.SECONDS.toNanos(DEFAULT_RESOLVE_INTERVAL_SECONDS);
+	private long resolvedAt;
 
 	public UdpInlinerSender(UdpInfluxdbProtocol protocol) {
 		super(MAX_MEASURES_IN_SINGLE_POST);
 		inliner = new Inliner(TimeUnit.NANOSECONDS);
-		serverAddress = new InetSocketAddress(protocol.host, protocol.port);
+		host = protocol.host;
+		port = protocol.port;
+		serverAddress = new InetSocketAddress(host, port);
+		endpoint = "udp://" + serverAddress.getHostString() + ":" + port;
+		resolvedAt = System.nanoTime();
+		packet = new LineBuffer(DEFAULT_MAX_PACKET_SIZE + 256);
+		line = new LineBuffer(256);
+	}
+
+	/**
+	 * Sets the maximum payload of a datagram; lines are packed, separated by new lines, up to this size.
+	 * A line bigger than this size is sent alone.
+	 * @param maxPacketSize the size in bytes, 0 to send each measure in its own datagram
+	 */
+	public void setMaxPacketSize(int maxPacketSize) {
+		if (maxPacketSize < 0) {
+			throw new IllegalArgumentException("given packet size cannot be negative");
+		}
+		this.maxPacketSize = maxPacketSize;
+	}
+
+	public int getMaxPacketSize() {
+		return maxPacketSize;
+	}
+
+	/**
+	 * Sets how often the server host name is resolved again.
+	 */
+	public void setResolveInterval(long duration, TimeUnit unit) {
+		this.resolveIntervalNanos = unit.toNanos(duration);
+	}
+
+	/**
+	 * @return the {@link Inliner} used to serialize the measures
+	 */
+	public Inliner getInliner() {
+		return inliner;
 	}
 
 	@Override
@@ -33,37 +88,136 @@ public class UdpInlinerSender extends QueueableSender {
 			return true;
 		}
 
-		DatagramChannel channel = null;
+		DatagramChannel ch;
 		try {
-			channel = DatagramChannel.open();
+			ch = channel();
 		} catch (IOException e) {
 			LOGGER.error("failed open udp channel", e);
+			closeChannel();
 			return false;
 		}
-		Iterator<Measure> measuresIterator = measures.iterator();
+
 		int errorCounter = 0;
 		int successCounter = 0;
-		while(measuresIterator.hasNext()) {
-			String measuresAsString = inliner.inline(measuresIterator.next());
-			try {
-				if (LOGGER.isDebugEnabled()) {
-					LOGGER.debug("Measure being sent:\n{}", measuresAsString);
-				}
+		int packets = 0;
+		int packetLines = 0;
+		ReportProfiler profiler = ReportProfiler.active();
+		Object serialization = JfrEvents.beginSerialization();
+		packet.reset();
+		for (Measure m : measures) {
+			line.reset();
+			if (profiler == null) {
+				inliner.inline(m, line);
+			} else {
+				long start = System.nanoTime();
+				inliner.inline(m, line);
+				profiler.add(ReportProfiler.Phase.SERIALIZE, System.nanoTime() - start);
+			}
 
-				ByteBuffer buffer = ByteBuffer.wrap(measuresAsString.getBytes(Miscellaneous.UTF8));
-				channel.send(buffer, serverAddress);
+			if (packet.length() > 0 && packet.length() + 1 + line.length() > maxPacketSize) {
+				// the line does not fit in the current packet
+				JfrEvents.commitSerialization(serialization, packetLines, packet.length());
+				packets++;
+				if (send(ch, packet, packetLines)) {
+					successCounter++;
+				} else {
+					errorCounter++;
+				}
+				packet.reset();
+				packetLines = 0;
+				serialization = JfrEvents.beginSerialization();
+			}
+			if (packet.length() > 0) {
+				packet.append('\n');
+			}
+			packet.append(line.array(), 0, line.length());
+			packetLines++;
+		}
+		if (packet.length() > 0) {
+			JfrEvents.commitSerialization(serialization, packetLines, packet.length());
+			packets++;
+			if (send(ch, packet, packetLines)) {
 				successCounter++;
-			} catch (Throwable e) {
+			} else {
 				errorCounter++;
 			}
 		}
-		LOGGER.debug("{} Measures sent to UDP[{}:{}]; successes: {}, failures: {}",
-				measures.size(), serverAddress.getHostString(), serverAddress.getPort(), successCounter, errorCounter);
-		try {
-			channel.close();
-		} catch (IOException e) {
-			LOGGER.error("failed close udp channel", e);
+		LOGGER.debug("{} Measures sent to UDP[{}:{}] in {} packets; successes: {}, failures: {}",
+				measures.size(), serverAddress.getHostString(), serverAddress.getPort(), packets, successCounter, errorCounter);
+		if (successCounter == 0) {
+			// reopen the channel on next flush
+			closeChannel();
 		}
 		return successCounter > 0;
 	}
+
+	private boolean send(DatagramChannel ch, LineBuffer payload, int lines) {
+		SenderMetrics metrics = getMetrics();
+		Object event = JfrEvents.beginTransmit();
+		try {
+			if (LOGGER.isDebugEnabled()) {
+				LOGGER.debug("Measures being sent:\n{}", payload);
+			}
+			ch.write(ByteBuffer.wrap(payload.array(), 0, payload.length()));
+			JfrEvents.commitTransmit(event, endpoint, 0, payload.length());
+			if (metrics != null) {
+				metrics.onSent(lines, payload.length());
+			}
+			return true;
+		} catch (Throwable e) {
+			JfrEvents.commitTransmit(event, endpoint, -1, payload.length());
+			if (metrics != null) {
+				metrics.onFailure("io");
+			}
+			LOGGER.debug("failed to send udp packet to {}:{}", serverAddress.getHostString(), serverAddress.getPort(), e);
+			return false;
+		}
+	}
+
+	private DatagramChannel channel() throws IOException {
+		long now = System.nanoTime();
+		if (now - resolvedAt >= resolveIntervalNanos || serverAddress.isUnresolved()) {
+			resolvedAt = now;
+			InetSocketAddress resolved = new InetSocketAddress(host, port);
+			if (resolved.isUnresolved()) {
+				LOGGER.warn("failed to resolve {}, keep on sending to {}", host, serverAddress);
+			} else if (!resolved.equals(serverAddress)) {
+				LOGGER.info("{} now resolves to {}", host, resolved.getAddress());
+				serverAddress = resolved;
+				endpoint = "udp://" + serverAddress.getHostString() + ":" + port;
+				closeChannel();
+			}
+		}
+		if (channel == null) {
+			if (serverAddress.isUnresolved()) {
+				throw new IOException("cannot resolve " + host);
+			}
+			DatagramChannel ch = DatagramChannel.open();
+			try {
+				ch.connect(serverAddress);
+			} catch (IOException e) {
+				ch.close();
+				throw e;
+			}
+			channel = ch;
+		}
+		return channel;
+	}
+
+	private void closeChannel() {
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				LOGGER.error("failed close udp channel", e);
+			}
+			channel = null;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		super.close();
+		closeChannel();
+	}
 }
@@ -0,0 +1,80 @@
+package metrics_influxdb.misc;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Computes the size in bytes of the batches sent to a server, so that each request takes about a target latency.
+ * <br>
+ * The size grows by a fixed step after each full batch answered within the target latency, and is halved when the
+ * latency exceeds the target. When the server refuses a batch as too large, the size of that batch becomes a ceiling
+ * the size never reaches again.
+ */
+public class AdaptiveBatchSize {
+	public static final int DEFAULT_MAX_BYTES = 1024 * 1024;
+	public static final long DEFAULT_TARGET_LATENCY_MILLIS = 1000;
+	private static final int MIN_BYTES = 16 * 1024;
+	private static final int STEPS = 16;
+
+	private final int minBytes;
+	private final int increment;
+	private final long targetLatencyNanos;
+	private int maxBytes;
+	private int current;
+
+	public AdaptiveBatchSize() {
+		this(DEFAULT_MAX_BYTES, DEFAULT_TARGET_LATENCY_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @param maxBytes the maximum size of a batch
+	 * @param targetLatency the expected duration of a request
+	 * @param unit the unit of the target latency
+	 */
+	public AdaptiveBatchSize(int maxBytes, long targetLatency, TimeUnit unit) {
+		if (maxBytes <= 0) {
+			throw new IllegalArgumentException("given maximum size must be positive");
+		}
+		if (targetLatency <= 0) {
+			throw new IllegalArgumentException("given target latency must be positive");
+		}
+		this.maxBytes = maxBytes;
+		this.minBytes = Math.min(MIN_BYTES, maxBytes);
+		this.increment = Math.max(minBytes, maxBytes / STEPS);
+		this.targetLatencyNanos = unit.toNanos(targetLatency);
+		this.current = maxBytes;
+	}
+
+	/**
+	 * @return the size in bytes a batch should not exceed
+	 */
+	public int get() {
+		return current;
+	}
+
+	public int getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Adapts the size to the duration of a successful request.
+	 * @param bytes the size of the batch sent
+	 * @param latencyNanos the duration of the request
+	 */
+	public void onSent(int bytes, long latencyNanos) {
+		if (latencyNanos > targetLatencyNanos) {
+			current = Math.max(minBytes, current / 2);
+		} else if (bytes >= current / 2) {
+			// only batches limited by the size tell that a bigger one would be welcome
+			current = (int) Math.min(maxBytes, (long) current + increment);
+		}
+	}
+
+	/**
+	 * Lowers the size below the one of a batch the server refused as too large.
+	 * @param bytes the size of the refused batch
+	 */
+	public void onTooLarge(int bytes) {
+		maxBytes = Math.max(minBytes, Math.min(maxBytes, bytes - 1));
+		current = Math.max(minBytes, Math.min(current, bytes / 2));
+	}
+}
@@ -0,0 +1,136 @@
+package metrics_influxdb.misc;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Clock;
+
+/**
+ * Decides whether a remote endpoint should be called, depending on the outcome of the previous calls.
+ * <br>
+ * The breaker is {@link State#CLOSED} while calls succeed. After a number of consecutive failures it is
+ * {@link State#OPEN} for a delay during which no call is allowed; the delay doubles each time the breaker opens again,
+ * up to a maximum, and is randomized so that many clients do not retry at the same time. Once the delay is elapsed
+ * the breaker is {@link State#HALF_OPEN}: a single probe call is allowed, closing the breaker if it succeeds or opening
+ * it again if it fails. The endpoint can ask for a minimum delay, as with the {@code Retry-After} HTTP header.
+ */
+public class CircuitBreaker {
+	public static final int DEFAULT_FAILURE_THRESHOLD = 3;
+	public static final long DEFAULT_INITIAL_DELAY_SECONDS = 1;
+	public static final long DEFAULT_MAX_DELAY_SECONDS = 120;
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final int failureThreshold;
+	private final long initialDelayNanos;
+	private final long maxDelayNanos;
+	private final Clock clock;
+	private State state = State.CLOSED;
+	private int consecutiveFailures;
+	private int openings;
+	private long openUntil;
+	private long rejected;
+
+	public CircuitBreaker() {
+		this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_INITIAL_DELAY_SECONDS, DEFAULT_MAX_DELAY_SECONDS, TimeUnit.SECONDS, Clock.defaultClock());
+	}
+
+	/**
+	 * @param failureThreshold the number of consecutive failures opening the breaker
+	 * @param initialDelay the delay the breaker stays open the first time
+	 * @param maxDelay the maximum delay the breaker stays open
+	 * @param unit the unit of the delays
+	 * @param clock the clock giving the time, through its tick
+	 */
+	public CircuitBreaker(int failureThreshold, long initialDelay, long maxDelay, TimeUnit unit, Clock clock) {
+		if (failureThreshold <= 0) {
+			throw new IllegalArgumentException("given failure threshold must be positive");
+		}
+		if (initialDelay <= 0 || maxDelay < initialDelay) {
+			throw new IllegalArgumentException("invalid delays: " + initialDelay + ", " + maxDelay);
+		}
+		this.failureThreshold = failureThreshold;
+		this.initialDelayNanos = unit.toNanos(initialDelay);
+		this.maxDelayNanos = unit.toNanos(maxDelay);
+		this.clock = clock;
+	}
+
+	/**
+	 * @return true if the endpoint can be called, in which case the outcome must be reported through
+	 *   {@link #onSuccess()} or {@link #onFailure()}
+	 */
+	public synchronized boolean allowRequest() {
+		switch (state) {
+		case CLOSED:
+			return true;
+		case OPEN:
+			if (clock.getTick() - openUntil >= 0) {
+				state = State.HALF_OPEN;
+				return true;
+			}
+			rejected++;
+			return false;
+		default:
+			// a probe is in progress
+			rejected++;
+			return false;
+		}
+	}
+
+	public synchronized void onSuccess() {
+		state = State.CLOSED;
+		consecutiveFailures = 0;
+		openings = 0;
+	}
+
+	public void onFailure() {
+		onFailure(0, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Reports a failed call.
+	 * @param retryAfter the minimum delay before the next call requested by the endpoint, which can exceed the maximum
+	 *   delay, 0 if none
+	 * @param unit the unit of the delay
+	 */
+	public synchronized void onFailure(long retryAfter, TimeUnit unit) {
+		consecutiveFailures++;
+		long requested = unit.toNanos(retryAfter);
+		if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold || requested > 0) {
+			long delay = Math.max(nextDelay(), requested);
+			openUntil = clock.getTick() + delay;
+			state = State.OPEN;
+		}
+	}
+
+	private long nextDelay() {
+		long delay = initialDelayNanos;
+		for (int i = 0; i < openings && delay < maxDelayNanos; i++) {
+			delay = delay > maxDelayNanos / 2 ? maxDelayNanos : delay * 2;
+		}
+		openings++;
+		// between half and the whole delay
+		long half = delay / 2;
+		return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	/**
+	 * @return the number of calls not allowed since the breaker was created
+	 */
+	public synchronized long getRejectedCount() {
+		return rejected;
+	}
+
+	/**
+	 * @return the delay, in nanoseconds, before a call is allowed again; 0 if calls are allowed
+	 */
+	public synchronized long getRemainingDelay() {
+		return state == State.OPEN ? Math.max(0, openUntil - clock.getTick()) : 0;
+	}
+}
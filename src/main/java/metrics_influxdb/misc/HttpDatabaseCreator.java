@@ -23,7 +23,7 @@ public final class HttpDatabaseCreator {
 
         try {
             if (protocol.secured) {
-                toJoin = new URL(protocol.scheme, protocol.host, protocol.port, "/query&u="
+                toJoin = new URL(protocol.scheme, protocol.host, protocol.port, "/query?u="
                         + Miscellaneous.urlEncode(protocol.user) + "&p=" + Miscellaneous.urlEncode(protocol.password));
             } else {
                 toJoin = new URL(protocol.scheme, protocol.host, protocol.port, "/query");
@@ -46,6 +46,12 @@ public final class HttpDatabaseCreator {
             wr.write(("q=CREATE DATABASE " + database).getBytes());
             wr.flush();
             wr.close();
+
+            // the request is only sent when the response is read
+            int responseCode = con.getResponseCode();
+            if (responseCode / 100 != 2) {
+                LOGGER.warn("Tried to create database {}, but got HTTP CODE {}", database, responseCode);
+            }
         } catch (IOException e) {
             LOGGER.warn("Tried to create database, but failed.", e);
         }
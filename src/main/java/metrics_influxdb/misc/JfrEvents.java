@@ -0,0 +1,60 @@
+package metrics_influxdb.misc;
+
+/**
+ * Emits the Java Flight Recorder events of the library: report ticks, serializations, transmissions and queue
+ * evictions.
+ * <br>
+ * This implementation, loaded by Java 8, does nothing. Java 11 and later load the one of the multi-release JAR, which
+ * emits {@code jdk.jfr} events enabled and disabled through the usual JFR settings, under the
+ * {@code metrics_influxdb} category; a disabled event costs a check and no allocation.
+ * <br>
+ * Events are begun by a {@code begin} method, whose result, null when the event is disabled, is given back to the
+ * matching {@code commit} method along with the event fields.
+ */
+public final class JfrEvents {
+	private JfrEvents() {
+	}
+
+	public static Object beginTick() {
+		return null;
+	}
+
+	/**
+	 * @param event the result of {@link #beginTick()}
+	 */
+	public static void commitTick(Object event, int gauges, int counters, int histograms, int meters, int timers) {
+	}
+
+	public static Object beginSerialization() {
+		return null;
+	}
+
+	/**
+	 * @param event the result of {@link #beginSerialization()}
+	 * @param lines the number of lines serialized
+	 * @param bytes the size of the lines
+	 */
+	public static void commitSerialization(Object event, int lines, long bytes) {
+	}
+
+	public static Object beginTransmit() {
+		return null;
+	}
+
+	/**
+	 * @param event the result of {@link #beginTransmit()}
+	 * @param endpoint the server, as {@code protocol://host:port}
+	 * @param status the HTTP status code, 0 for a datagram, -1 if the transmission failed without status
+	 * @param bytes the size of the payload, before compression
+	 */
+	public static void commitTransmit(Object event, String endpoint, int status, long bytes) {
+	}
+
+	/**
+	 * Records that measures were dropped to make room for newer ones.
+	 * @param queue the kind of queue
+	 * @param dropped the number of measures dropped
+	 */
+	public static void eviction(String queue, long dropped) {
+	}
+}
@@ -0,0 +1,337 @@
+package metrics_influxdb.misc;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A size capped FIFO of byte records persisted in memory-mapped segment files.
+ * <br>
+ * Records are appended to the last segment, a new segment being created when it is full; as the segment is mapped,
+ * appending is a copy into memory and the operating system writes the pages to disk. Records are read back in order
+ * with {@link #peek()} and acknowledged with {@link #commit()}, which records the read position in a checkpoint file
+ * so that a restarted process resumes after the last acknowledged record. Fully read segments are deleted.
+ * <br>
+ * When the cap would be exceeded, the oldest segment is deleted and its unread records are counted as dropped.
+ * <br>
+ * A record is written before its length prefix, a zero length marking the end of the written records of a segment,
+ * so that a record being appended while the process dies is ignored on restart. Its bytes are then cleared, for the
+ * records appended in its place not to be followed by stale bytes read as a length.
+ */
+public class MappedSpool implements Closeable {
+	private final static Logger LOGGER = LoggerFactory.getLogger(MappedSpool.class);
+	public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+	private static final String SEGMENT_SUFFIX = ".spool";
+	private static final String CHECKPOINT_FILE = "checkpoint";
+	private static final int LENGTH_SIZE = 4;
+	private static final int CHECKPOINT_SIZE = 12;
+
+	private final File directory;
+	private final int segmentSize;
+	private final long maxSize;
+	private final TreeMap<Long, Segment> segments = new TreeMap<>();
+	private final MappedByteBuffer checkpoint;
+	private Segment writeSegment;
+	private Segment readSegment;
+	private int readPosition;
+	private int peekedLength = -1;
+	private long nextSequence;
+	private long mappedSize;
+	private long droppedRecords;
+
+	public MappedSpool(File directory, long maxSize) throws IOException {
+		this(directory, (int) Math.min(DEFAULT_SEGMENT_SIZE, maxSize), maxSize);
+	}
+
+	/**
+	 * Opens the spool stored in the given directory, creating it if needed.
+	 * @param directory the directory holding the segment files and the checkpoint
+	 * @param segmentSize the size of a segment file, records bigger than that get a segment of their own
+	 * @param maxSize the maximum size of all the segment files
+	 * @throws IOException if the directory cannot be created or the existing files cannot be mapped
+	 */
+	public MappedSpool(File directory, int segmentSize, long maxSize) throws IOException {
+		if (segmentSize <= LENGTH_SIZE || maxSize < segmentSize) {
+			throw new IllegalArgumentException("invalid segment size " + segmentSize + " or maximum size " + maxSize);
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("cannot create spool directory " + directory);
+		}
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.maxSize = maxSize;
+		this.checkpoint = map(new File(directory, CHECKPOINT_FILE), CHECKPOINT_SIZE);
+		recover();
+	}
+
+	private void recover() throws IOException {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				String name = file.getName();
+				if (!name.endsWith(SEGMENT_SUFFIX)) {
+					continue;
+				}
+				long sequence;
+				try {
+					sequence = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+				} catch (NumberFormatException e) {
+					continue;
+				}
+				Segment segment = new Segment(sequence, file, map(file, (int) file.length()));
+				segment.writePosition = segment.endOfRecords();
+				segments.put(sequence, segment);
+				mappedSize += segment.capacity();
+			}
+		}
+
+		long checkpointSequence = checkpoint.getLong(0);
+		int checkpointPosition = checkpoint.getInt(8);
+		nextSequence = checkpointSequence + 1;
+		if (!segments.isEmpty()) {
+			nextSequence = Math.max(nextSequence, segments.lastKey() + 1);
+			writeSegment = segments.lastEntry().getValue();
+			// bytes of a record whose appending was interrupted
+			writeSegment.clearFrom(writeSegment.writePosition);
+			Segment checkpointed = segments.get(checkpointSequence);
+			if (checkpointed != null && checkpointPosition <= checkpointed.writePosition) {
+				readSegment = checkpointed;
+				readPosition = checkpointPosition;
+			} else {
+				Map.Entry<Long, Segment> next = segments.higherEntry(checkpointSequence);
+				readSegment = next == null ? writeSegment : next.getValue();
+				readPosition = next == null ? writeSegment.writePosition : 0;
+			}
+			// segments read before the checkpoint
+			while (segments.firstKey() < readSegment.sequence) {
+				delete(segments.pollFirstEntry().getValue());
+			}
+			LOGGER.info("spool {} reopened with {} bytes to replay", directory, getPendingSize());
+		}
+	}
+
+	/**
+	 * Appends the remaining bytes of the given buffer as a record.
+	 * @throws IOException if a new segment file cannot be created
+	 */
+	public synchronized void append(ByteBuffer record) throws IOException {
+		int length = record.remaining();
+		if (length == 0) {
+			return;
+		}
+		if (writeSegment == null || writeSegment.writePosition + LENGTH_SIZE + length > writeSegment.capacity()) {
+			roll(LENGTH_SIZE + length);
+		}
+		ByteBuffer target = writeSegment.buffer.duplicate();
+		((Buffer) target).position(writeSegment.writePosition + LENGTH_SIZE);
+		target.put(record);
+		// publishes the record
+		writeSegment.buffer.putInt(writeSegment.writePosition, length);
+		writeSegment.writePosition += LENGTH_SIZE + length;
+	}
+
+	private void roll(int minSize) throws IOException {
+		int size = Math.max(segmentSize, minSize);
+		while (!segments.isEmpty() && mappedSize + size > maxSize) {
+			Segment oldest = segments.pollFirstEntry().getValue();
+			int dropped = oldest.countRecords(oldest == readSegment ? readPosition : 0);
+			droppedRecords += dropped;
+			LOGGER.warn("spool {} is full, {} oldest records dropped", directory, dropped);
+			JfrEvents.eviction("spool", dropped);
+			if (oldest == writeSegment) {
+				writeSegment = null;
+			}
+			if (oldest == readSegment) {
+				readSegment = null;
+			}
+			delete(oldest);
+		}
+
+		long sequence = nextSequence++;
+		File file = new File(directory, sequence + SEGMENT_SUFFIX);
+		Segment segment = new Segment(sequence, file, map(file, size));
+		segments.put(sequence, segment);
+		mappedSize += size;
+		writeSegment = segment;
+		if (readSegment == null) {
+			Map.Entry<Long, Segment> first = segments.firstEntry();
+			readSegment = first.getValue();
+			readPosition = 0;
+			peekedLength = -1;
+			saveCheckpoint();
+		}
+	}
+
+	/**
+	 * @return the oldest record not acknowledged yet, as a read-only buffer only valid until the next call to this
+	 *   spool, or null if there is none
+	 */
+	public synchronized ByteBuffer peek() {
+		while (readSegment != null) {
+			int length = readSegment.recordLength(readPosition);
+			if (length > 0) {
+				peekedLength = length;
+				ByteBuffer record = readSegment.buffer.asReadOnlyBuffer();
+				((Buffer) record).position(readPosition + LENGTH_SIZE);
+				((Buffer) record).limit(readPosition + LENGTH_SIZE + length);
+				return record.slice();
+			}
+			if (readSegment == writeSegment) {
+				break;
+			}
+			// this segment has been fully read
+			Segment read = readSegment;
+			readSegment = segments.higherEntry(read.sequence).getValue();
+			readPosition = 0;
+			segments.remove(read.sequence);
+			delete(read);
+			saveCheckpoint();
+		}
+		peekedLength = -1;
+		return null;
+	}
+
+	/**
+	 * Acknowledges the record returned by the last call to {@link #peek()}, so that it is not read again, even after
+	 * a restart.
+	 */
+	public synchronized void commit() {
+		if (peekedLength < 0) {
+			throw new IllegalStateException("no record to commit");
+		}
+		readPosition += LENGTH_SIZE + peekedLength;
+		peekedLength = -1;
+		saveCheckpoint();
+	}
+
+	public synchronized boolean isEmpty() {
+		return peek() == null;
+	}
+
+	/**
+	 * @return the size in bytes of the records not acknowledged yet, including their length prefixes
+	 */
+	public synchronized long getPendingSize() {
+		long size = 0;
+		if (readSegment != null) {
+			for (Segment segment : segments.tailMap(readSegment.sequence).values()) {
+				size += segment.writePosition;
+			}
+			size -= readPosition;
+		}
+		return size;
+	}
+
+	/**
+	 * @return the number of records dropped because the spool was full
+	 */
+	public synchronized long getDroppedCount() {
+		return droppedRecords;
+	}
+
+	/**
+	 * Forces the segments and the checkpoint to be written to disk; the mapped files are unmapped once garbage
+	 * collected.
+	 */
+	@Override
+	public synchronized void close() {
+		for (Segment segment : segments.values()) {
+			segment.buffer.force();
+		}
+		checkpoint.force();
+	}
+
+	private void saveCheckpoint() {
+		checkpoint.putLong(0, readSegment == null ? nextSequence - 1 : readSegment.sequence);
+		checkpoint.putInt(8, readPosition);
+	}
+
+	private void delete(Segment segment) {
+		mappedSize -= segment.capacity();
+		if (!segment.file.delete()) {
+			LOGGER.warn("cannot delete spool segment {}", segment.file);
+		}
+	}
+
+	private static MappedByteBuffer map(File file, int size) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			if (raf.length() < size) {
+				raf.setLength(size);
+			}
+			// the mapping stays valid once the channel is closed
+			return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+	}
+
+	private static class Segment {
+		final long sequence;
+		final File file;
+		final MappedByteBuffer buffer;
+		int writePosition;
+
+		Segment(long sequence, File file, MappedByteBuffer buffer) {
+			this.sequence = sequence;
+			this.file = file;
+			this.buffer = buffer;
+		}
+
+		int capacity() {
+			return buffer.capacity();
+		}
+
+		/**
+		 * @return the position following the last record written
+		 */
+		int endOfRecords() {
+			int position = 0;
+			int length;
+			while ((length = recordLength(position)) > 0) {
+				position += LENGTH_SIZE + length;
+			}
+			return position;
+		}
+
+		/**
+		 * Zeroes the bytes from the given position to the end of the segment, only writing the non-zero ones so that
+		 * the pages never written are left untouched.
+		 */
+		void clearFrom(int position) {
+			for (int i = position; i < capacity(); i++) {
+				if (buffer.get(i) != 0) {
+					buffer.put(i, (byte) 0);
+				}
+			}
+		}
+
+		/**
+		 * @return the number of records from the given position to the last one written
+		 */
+		int countRecords(int position) {
+			int records = 0;
+			int length;
+			while ((length = recordLength(position)) > 0) {
+				position += LENGTH_SIZE + length;
+				records++;
+			}
+			return records;
+		}
+
+		int recordLength(int position) {
+			if (position + LENGTH_SIZE > capacity()) {
+				return 0;
+			}
+			int length = buffer.getInt(position);
+			return (length > 0 && position + LENGTH_SIZE + length <= capacity()) ? length : 0;
+		}
+	}
+}
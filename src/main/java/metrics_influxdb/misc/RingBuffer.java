@@ -0,0 +1,183 @@
+package metrics_influxdb.misc;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, lock-free, array-backed queue whose slots are all allocated at construction.
+ * <br>
+ * Each slot carries a sequence number telling producers and consumers whether it is free or filled for a given lap
+ * around the array; producers and consumers claim slots by a compare-and-set on the tail and head counters. Elements are
+ * not wrapped into nodes, adding an element does not allocate.
+ * <br>
+ * {@link #add(Object)} implements a drop-oldest policy: when the buffer is full the oldest element is removed to
+ * make room, and counted as dropped. Any number of threads can add and poll concurrently.
+ */
+public class RingBuffer<T> {
+	private final int capacity;
+	private final Object[] elements;
+	private final AtomicLongArray sequences;
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong tail = new AtomicLong();
+	private final LongAdder dropped = new LongAdder();
+
+	public RingBuffer(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("given capacity must be positive");
+		}
+		this.capacity = capacity;
+		this.elements = new Object[capacity];
+		this.sequences = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			sequences.set(i, i);
+		}
+	}
+
+	/**
+	 * Adds the given element if there is room for it.
+	 * @return false if the buffer is full
+	 */
+	public boolean offer(T e) {
+		if (e == null) {
+			throw new NullPointerException("null elements are not supported");
+		}
+		while (true) {
+			long position = tail.get();
+			int index = (int) (position % capacity);
+			long sequence = sequences.get(index);
+			if (sequence == position) {
+				if (tail.compareAndSet(position, position + 1)) {
+					elements[index] = e;
+					// publishes the element to consumers
+					sequences.set(index, position + 1);
+					return true;
+				}
+			} else if (sequence < position) {
+				// the slot still holds the element of the previous lap
+				return false;
+			}
+			// another producer claimed this position, retry with the new tail
+		}
+	}
+
+	/**
+	 * Adds the given element, dropping the oldest ones as long as the buffer is full.
+	 * @return the number of elements dropped
+	 */
+	public int add(T e) {
+		int count = 0;
+		while (!offer(e)) {
+			if (poll() != null) {
+				dropped.increment();
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return the oldest element, removed from the buffer, or null if it is empty
+	 */
+	@SuppressWarnings("unchecked")
+	public T poll() {
+		while (true) {
+			long position = head.get();
+			int index = (int) (position % capacity);
+			long sequence = sequences.get(index);
+			if (sequence == position + 1) {
+				if (head.compareAndSet(position, position + 1)) {
+					T e = (T) elements[index];
+					elements[index] = null;
+					// frees the slot for the next lap
+					sequences.set(index, position + capacity);
+					return e;
+				}
+			} else if (sequence <= position) {
+				// nothing published at this position yet
+				return null;
+			}
+			// another consumer took this position, retry with the new head
+		}
+	}
+
+	/**
+	 * @return the oldest element without removing it, or null if it is empty; as the element can be removed
+	 *   concurrently, the result is only indicative
+	 */
+	@SuppressWarnings("unchecked")
+	public T peek() {
+		while (true) {
+			long position = head.get();
+			int index = (int) (position % capacity);
+			// reading the sequence first makes the element published with it visible
+			if (sequences.get(index) != position + 1) {
+				if (head.get() == position) {
+					return null;
+				}
+				continue;
+			}
+			T e = (T) elements[index];
+			// the element is only valid if it was not polled, nor replaced, while being read
+			if (e != null && sequences.get(index) == position + 1 && head.get() == position) {
+				return e;
+			}
+		}
+	}
+
+	/**
+	 * Removes up to {@code maxElements} of the oldest elements and adds them, in order, to the given collection.
+	 * @return the number of elements transferred
+	 */
+	public int drainTo(Collection<? super T> c, int maxElements) {
+		int drained = 0;
+		T e;
+		while (drained < maxElements && (e = poll()) != null) {
+			c.add(e);
+			drained++;
+		}
+		return drained;
+	}
+
+	public int drainTo(Collection<? super T> c) {
+		return drainTo(c, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @return the number of elements held, exact only when no other thread modifies the buffer
+	 */
+	public int size() {
+		while (true) {
+			long h = head.get();
+			long t = tail.get();
+			if (h == head.get()) {
+				return (int) Math.max(0, Math.min(capacity, t - h));
+			}
+		}
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return the number of elements dropped by {@link #add(Object)} to make room for newer ones
+	 */
+	public long getDroppedCount() {
+		return dropped.sum();
+	}
+
+	/**
+	 * Removes all the elements.
+	 */
+	public void clear() {
+		while (poll() != null) {
+			// drain
+		}
+	}
+}
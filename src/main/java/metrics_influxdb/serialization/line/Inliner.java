@@ -1,63 +1,187 @@
 package metrics_influxdb.serialization.line;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import metrics_influxdb.measurements.Measure;
-import metrics_influxdb.misc.Miscellaneous;
+import metrics_influxdb.measurements.TagSet;
 
+/**
+ * Serializes {@link Measure}s into InfluxDB line protocol.
+ * <br>
+ * Besides the historical {@link String} based methods, measures can be encoded straight into a {@link LineBuffer}
+ * or streamed into an {@link OutputStream}.
+ * <br>
+ * Serialized series keys are kept in a {@link SeriesKeyCache}, and the streaming methods reuse an internal buffer:
+ * an {@link Inliner} must not be shared between threads.
+ */
 public class Inliner {
 		private static char[] ESCAPE_CHARS = {' ', ',', '='};
+		private static final int STREAMING_CHUNK_SIZE = 8192;
+		public static final int DEFAULT_SERIES_KEY_CACHE_SIZE = 10000;
 
 		private TimeUnit precision;
+		private final LineBuffer streamingBuffer = new LineBuffer(STREAMING_CHUNK_SIZE + 1024);
+		private SeriesKeyCache seriesKeys;
 
 		public Inliner(TimeUnit precision) {
+			this(precision, DEFAULT_SERIES_KEY_CACHE_SIZE);
+		}
+
+		/**
+		 * @param precision the precision of the written timestamps
+		 * @param seriesKeyCacheSize the maximum number of serialized series keys to keep, 0 disables the cache
+		 */
+		public Inliner(TimeUnit precision, int seriesKeyCacheSize) {
 			this.precision = precision;
+			this.seriesKeys = new SeriesKeyCache(seriesKeyCacheSize);
 		}
 
-		public String inline(Measure m) {
-		String key = buildMeasureKey(m.getName(), m.getTags());
-		String values = buildMeasureFields(m.getValues());
-		String timestamp = "" + precision.convert(m.getTimestamp(), TimeUnit.MILLISECONDS);
+		/**
+		 * @return the cache of serialized series keys, giving access to its hit and miss counters
+		 */
+		public SeriesKeyCache getSeriesKeyCache() {
+			return seriesKeys;
+		}
 
-		return key + " " + values +  " " + timestamp;
+		/**
+		 * Replaces the cache of serialized series keys by an empty one of the given size.
+		 * @param seriesKeyCacheSize the maximum number of serialized series keys to keep, 0 disables the cache
+		 */
+		public void setSeriesKeyCacheSize(int seriesKeyCacheSize) {
+			this.seriesKeys = new SeriesKeyCache(seriesKeyCacheSize);
+		}
+
+		public String inline(Measure m) {
+		LineBuffer buffer = new LineBuffer(128);
+		inline(m, buffer);
+		return buffer.toString();
 	}
 
 	public String inline(Iterable<Measure> measures) {
-		StringBuilder sb = new StringBuilder();
-		String join = "";
-		String cr = "\n";
+		LineBuffer buffer = new LineBuffer();
+		inline(measures, buffer);
+		return buffer.toString();
+	}
+
+	/**
+	 * Appends the given measure as a single line, without trailing new line, to the given buffer.
+	 * @param m the measure to serialize
+	 * @param out the buffer receiving the UTF-8 encoded line
+	 */
+	public void inline(Measure m, LineBuffer out) {
+		buildMeasureKey(m.getName(), m.getTags(), out);
+		out.append(' ');
+		buildMeasureFields(m, out);
+		out.append(' ').append(precision.convert(m.getTimestamp(), TimeUnit.MILLISECONDS));
+	}
+
+	/**
+	 * Appends the given measures, separated by new lines, to the given buffer.
+	 * @param measures the measures to serialize
+	 * @param out the buffer receiving the UTF-8 encoded lines
+	 */
+	public void inline(Iterable<Measure> measures, LineBuffer out) {
+		boolean first = true;
 		for (Measure m : measures) {
-			sb.append(join).append(inline(m));
-			join = cr;
+			if (!first) {
+				out.append('\n');
+			}
+			inline(m, out);
+			first = false;
 		}
-		return sb.toString();
 	}
 
-	private String buildMeasureFields(Map<String, String> values) {
-		Map<String, String> sortedValues = new InfluxDBSortedMap();
-		sortedValues.putAll(values);
+	/**
+	 * Streams the given measures, separated by new lines, to the given stream.
+	 * Lines are encoded into a reused buffer which is written to the stream each time it holds about 8KB,
+	 * so the whole batch is never held in memory.
+	 * @param measures the measures to serialize
+	 * @param out the stream receiving the UTF-8 encoded lines
+	 * @return the number of bytes written to the stream
+	 * @throws IOException if the stream cannot be written
+	 */
+	public long inline(Iterable<Measure> measures, OutputStream out) throws IOException {
+		LineBuffer buffer = streamingBuffer;
+		long written = 0;
+		boolean first = true;
 
-		StringBuilder fields = new StringBuilder();
-		String join = "";
+		buffer.reset();
+		try {
+			for (Measure m : measures) {
+				if (!first) {
+					buffer.append('\n');
+				}
+				inline(m, buffer);
+				first = false;
 
-		for (Map.Entry<String, String> v: sortedValues.entrySet()) {
-			fields.append(join).append(Miscellaneous.escape(v.getKey(), ESCAPE_CHARS)).append("=").append(v.getValue());		// values are already escaped
-			join = ",";
+				if (buffer.length() >= STREAMING_CHUNK_SIZE) {
+					buffer.writeTo(out);
+					written += buffer.length();
+					buffer.reset();
+				}
+			}
+			buffer.writeTo(out);
+			written += buffer.length();
+		} finally {
+			buffer.reset();
 		}
-		return fields.toString();
+		return written;
 	}
 
-	private String buildMeasureKey(String name, Map<String, String> tags) {
-		StringBuilder key = new StringBuilder(Miscellaneous.escape(name, ESCAPE_CHARS));
-		Map<String, String> sortedTags = new InfluxDBSortedMap();
-		sortedTags.putAll(tags);
+	private void buildMeasureFields(Measure m, LineBuffer out) {
+		// fields are kept sorted by the measure itself
+		for (int i = 0, n = m.getFieldCount(); i < n; i++) {
+			if (i > 0) {
+				out.append(',');
+			}
+			out.appendEscaped(m.getFieldKey(i), ESCAPE_CHARS).append('=');
+			switch (m.getFieldType(i)) {
+			case LONG:
+				out.append(m.getLongField(i)).append('i');
+				break;
+			case DOUBLE:
+				out.append(m.getDoubleField(i));
+				break;
+			case BOOLEAN:
+				out.append(m.getBooleanField(i) ? "true" : "false");
+				break;
+			case STRING:
+				out.append('"').appendEscaped(m.getStringField(i), '"').append('"');
+				break;
+			default:
+				out.append(m.getStringField(i));		// raw values are already escaped
+			}
+		}
+	}
 
-		for (Map.Entry<String, String> e: sortedTags.entrySet()) {
-			key.append(',').append(Miscellaneous.escape(e.getKey(), ESCAPE_CHARS)).append("=").append(Miscellaneous.escape(e.getValue(), ESCAPE_CHARS));
+	private void buildMeasureKey(String name, Map<String, String> tags, LineBuffer out) {
+		byte[] cached = seriesKeys.get(name, tags);
+		if (cached != null) {
+			out.append(cached);
+			return;
 		}
 
-		return key.toString();
+		int start = out.length();
+		out.appendEscaped(name, ESCAPE_CHARS);
+		if (tags instanceof TagSet) {
+			// already sorted
+			TagSet tagSet = (TagSet) tags;
+			for (int i = 0, n = tagSet.size(); i < n; i++) {
+				out.append(',').appendEscaped(tagSet.getKey(i), ESCAPE_CHARS).append('=').appendEscaped(tagSet.getValue(i), ESCAPE_CHARS);
+			}
+		} else {
+			Map<String, String> sortedTags = new InfluxDBSortedMap();
+			sortedTags.putAll(tags);
+
+			for (Map.Entry<String, String> e: sortedTags.entrySet()) {
+				out.append(',').appendEscaped(e.getKey(), ESCAPE_CHARS).append('=').appendEscaped(e.getValue(), ESCAPE_CHARS);
+			}
+		}
+		seriesKeys.put(name, tags, Arrays.copyOfRange(out.array(), start, out.length()));
 	}
 
 }
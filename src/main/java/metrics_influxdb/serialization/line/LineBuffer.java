@@ -0,0 +1,243 @@
+package metrics_influxdb.serialization.line;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import metrics_influxdb.misc.Miscellaneous;
+
+/**
+ * A growable byte array receiving UTF-8 encoded line protocol.
+ * <br>
+ * It plays the role of a {@link StringBuilder} for the {@link Inliner} but encodes characters directly as UTF-8 bytes,
+ * so that the serialized measures can be written to a socket or an {@link OutputStream} without an intermediate
+ * {@link String} and its {@code getBytes()} copy. A {@link LineBuffer} is meant to be reused through {@link #reset()};
+ * it keeps its capacity between uses.
+ * <br>
+ * This class is not thread-safe.
+ */
+public class LineBuffer {
+	private static final int DEFAULT_CAPACITY = 1024;
+	private static final byte[] LONG_MIN_VALUE = Long.toString(Long.MIN_VALUE).getBytes(Miscellaneous.UTF8);
+	private static final long NEGATIVE_ZERO_BITS = Double.doubleToRawLongBits(-0.0d);
+
+	private byte[] bytes;
+	private int length;
+
+	public LineBuffer() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public LineBuffer(int initialCapacity) {
+		bytes = new byte[Math.max(16, initialCapacity)];
+	}
+
+	/**
+	 * @return the number of bytes held
+	 */
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * Truncates the buffer to the given length, for example to roll back a partially written line.
+	 * @param newLength the new length, must be lower or equal to the current one
+	 */
+	public void setLength(int newLength) {
+		if (newLength < 0 || newLength > length) {
+			throw new IndexOutOfBoundsException("invalid length " + newLength + ", current length is " + length);
+		}
+		length = newLength;
+	}
+
+	/**
+	 * Removes the given number of bytes from the beginning of the buffer, for example once they have been sent.
+	 * @param count the number of bytes to remove, lower or equal to the current length
+	 */
+	public void removeLeading(int count) {
+		if (count < 0 || count > length) {
+			throw new IndexOutOfBoundsException("invalid count " + count + ", current length is " + length);
+		}
+		System.arraycopy(bytes, count, bytes, 0, length - count);
+		length -= count;
+	}
+
+	/**
+	 * Empties the buffer, the allocated capacity is kept for later use.
+	 */
+	public void reset() {
+		length = 0;
+	}
+
+	/**
+	 * Gives access to the backing array, only the first {@link #length()} bytes are meaningful.
+	 * The returned array is replaced when the buffer grows.
+	 */
+	public byte[] array() {
+		return bytes;
+	}
+
+	public LineBuffer append(byte b) {
+		ensureCapacity(length + 1);
+		bytes[length++] = b;
+		return this;
+	}
+
+	public LineBuffer append(byte[] b, int offset, int len) {
+		ensureCapacity(length + len);
+		System.arraycopy(b, offset, bytes, length, len);
+		length += len;
+		return this;
+	}
+
+	public LineBuffer append(byte[] b) {
+		return append(b, 0, b.length);
+	}
+
+	public LineBuffer append(char c) {
+		if (c < 0x80) {
+			return append((byte) c);
+		}
+		ensureCapacity(length + 3);
+		encode(c);
+		return this;
+	}
+
+	public LineBuffer append(String s) {
+		return encode(s, null);
+	}
+
+	/**
+	 * Appends the given string, prefixing with a backslash each character found in {@code toEscape}.
+	 * This produces the same result as {@link Miscellaneous#escape(String, char...)} without creating intermediate strings.
+	 */
+	public LineBuffer appendEscaped(String s, char... toEscape) {
+		return encode(s, toEscape);
+	}
+
+	private LineBuffer encode(String s, char[] toEscape) {
+		int len = s.length();
+		// worst case: every char escaped or 3 bytes long
+		ensureCapacity(length + 3 * len);
+		byte[] b = bytes;
+		int pos = length;
+		for (int i = 0; i < len; i++) {
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				if (toEscape != null && mustEscape(c, toEscape)) {
+					b[pos++] = '\\';
+				}
+				b[pos++] = (byte) c;
+			} else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, s.charAt(++i));
+				b[pos++] = (byte) (0xF0 | (cp >> 18));
+				b[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+				b[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+				b[pos++] = (byte) (0x80 | (cp & 0x3F));
+			} else {
+				length = pos;
+				encode(c);
+				pos = length;
+			}
+		}
+		length = pos;
+		return this;
+	}
+
+	private static boolean mustEscape(char c, char[] toEscape) {
+		for (char e : toEscape) {
+			if (c == e) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void encode(char c) {
+		if (c < 0x80) {
+			bytes[length++] = (byte) c;
+		} else if (c < 0x800) {
+			bytes[length++] = (byte) (0xC0 | (c >> 6));
+			bytes[length++] = (byte) (0x80 | (c & 0x3F));
+		} else if (Character.isSurrogate(c)) {
+			// unpaired surrogate, replaced the same way String.getBytes(UTF-8) does
+			bytes[length++] = '?';
+		} else {
+			bytes[length++] = (byte) (0xE0 | (c >> 12));
+			bytes[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+			bytes[length++] = (byte) (0x80 | (c & 0x3F));
+		}
+	}
+
+	/**
+	 * Appends the decimal representation of the given value, as {@link Long#toString(long)} would.
+	 */
+	public LineBuffer append(long value) {
+		if (value == Long.MIN_VALUE) {
+			return append(LONG_MIN_VALUE);
+		}
+		ensureCapacity(length + 20);
+		if (value < 0) {
+			bytes[length++] = '-';
+			value = -value;
+		}
+		int end = length + digits(value);
+		int pos = end;
+		do {
+			bytes[--pos] = (byte) ('0' + (value % 10));
+			value /= 10;
+		} while (value != 0);
+		length = end;
+		return this;
+	}
+
+	private static int digits(long positive) {
+		long p = 10;
+		for (int i = 1; i < 19; i++) {
+			if (positive < p) {
+				return i;
+			}
+			p = 10 * p;
+		}
+		return 19;
+	}
+
+	/**
+	 * Appends the representation of the given value, as {@link Double#toString(double)} would.
+	 * Integral values, the most common ones for metrics, are written without creating a {@link String}.
+	 */
+	public LineBuffer append(double value) {
+		long asLong = (long) value;
+		if (asLong == value && Math.abs(asLong) < 10_000_000L && Double.doubleToRawLongBits(value) != NEGATIVE_ZERO_BITS) {
+			// Double.toString switches to computerized scientific notation from 10^7
+			return append(asLong).append('.').append('0');
+		}
+		return append(Double.toString(value));
+	}
+
+	/**
+	 * Writes the held bytes to the given stream.
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		out.write(bytes, 0, length);
+	}
+
+	/**
+	 * Wraps the held bytes without copying them; the returned buffer is only valid until the next modification.
+	 */
+	public ByteBuffer asByteBuffer() {
+		return ByteBuffer.wrap(bytes, 0, length);
+	}
+
+	private void ensureCapacity(int minCapacity) {
+		if (minCapacity > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(minCapacity, bytes.length << 1));
+		}
+	}
+
+	@Override
+	public String toString() {
+		return new String(bytes, 0, length, Miscellaneous.UTF8);
+	}
+}
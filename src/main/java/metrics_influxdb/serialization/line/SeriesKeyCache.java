@@ -0,0 +1,128 @@
+package metrics_influxdb.serialization.line;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import metrics_influxdb.measurements.TagSet;
+
+/**
+ * A bounded cache of serialized series keys, ie the escaped {@code name,tag1=v1,tag2=v2} prefix of a line,
+ * indexed by measurement name and tags.
+ * <br>
+ * For a stable registry, the series keys are the same from one report to the other; caching them avoids sorting
+ * and escaping the tags of every measure on every report.
+ * <br>
+ * When the cache is full, new series keys are not admitted anymore. If too many of them get rejected, the working
+ * set has changed or is bigger than the cache: the cache is then cleared so that it can fill again.
+ * <br>
+ * This class is not thread-safe, except for reading its statistics.
+ */
+public class SeriesKeyCache {
+	private final int capacity;
+	private final Map<Key, byte[]> entries;
+	private final Key probe = new Key();
+	private int rejected;
+	private volatile long hits;
+	private volatile long misses;
+
+	/**
+	 * @param capacity the maximum number of series keys held, 0 disables the cache
+	 */
+	public SeriesKeyCache(int capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("given capacity cannot be negative");
+		}
+		this.capacity = capacity;
+		this.entries = new HashMap<>();
+	}
+
+	/**
+	 * @return the serialized series key for the given name and tags, or null if it is not known
+	 */
+	public byte[] get(String name, Map<String, String> tags) {
+		byte[] serialized = capacity == 0 ? null : entries.get(probe.set(name, tags));
+		probe.set(null, null);
+		if (serialized == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return serialized;
+	}
+
+	/**
+	 * Registers the serialized series key of the given name and tags.
+	 * The tags are copied, unless immutable, so that later modifications of the given map do not alter the cache.
+	 */
+	public void put(String name, Map<String, String> tags, byte[] serialized) {
+		if (capacity == 0) {
+			return;
+		}
+		if (entries.size() >= capacity) {
+			if (++rejected <= capacity / 2) {
+				return;
+			}
+			entries.clear();
+			rejected = 0;
+		}
+		Map<String, String> copy = (tags instanceof TagSet) ? tags : new HashMap<>(tags);
+		entries.put(new Key().set(name, copy), serialized);
+	}
+
+	public void clear() {
+		entries.clear();
+		rejected = 0;
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return the number of lookups that found a cached series key
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of lookups that did not find a cached series key
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	private static final class Key {
+		private String name;
+		private Map<String, String> tags;
+		private int hash;
+
+		Key set(String name, Map<String, String> tags) {
+			this.name = name;
+			this.tags = tags;
+			this.hash = (name == null) ? 0 : 31 * name.hashCode() + tags.hashCode();
+			return this;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return hash == other.hash && name.equals(other.name) && tags.equals(other.tags);
+		}
+	}
+}
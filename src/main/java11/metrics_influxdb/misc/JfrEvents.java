@@ -0,0 +1,151 @@
+package metrics_influxdb.misc;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Emits the Java Flight Recorder events of the library: report ticks, serializations, transmissions and queue
+ * evictions.
+ * <br>
+ * This is the implementation of the multi-release JAR loaded by Java 11 and later. Each event is only allocated when
+ * it is enabled in the JFR settings.
+ */
+public final class JfrEvents {
+	private static final TickEvent TICK = new TickEvent();
+	private static final SerializationEvent SERIALIZATION = new SerializationEvent();
+	private static final TransmitEvent TRANSMIT = new TransmitEvent();
+	private static final EvictionEvent EVICTION = new EvictionEvent();
+
+	private JfrEvents() {
+	}
+
+	public static Object beginTick() {
+		if (!TICK.isEnabled()) {
+			return null;
+		}
+		TickEvent event = new TickEvent();
+		event.begin();
+		return event;
+	}
+
+	public static void commitTick(Object event, int gauges, int counters, int histograms, int meters, int timers) {
+		if (event == null) {
+			return;
+		}
+		TickEvent e = (TickEvent) event;
+		e.gauges = gauges;
+		e.counters = counters;
+		e.histograms = histograms;
+		e.meters = meters;
+		e.timers = timers;
+		e.commit();
+	}
+
+	public static Object beginSerialization() {
+		if (!SERIALIZATION.isEnabled()) {
+			return null;
+		}
+		SerializationEvent event = new SerializationEvent();
+		event.begin();
+		return event;
+	}
+
+	public static void commitSerialization(Object event, int lines, long bytes) {
+		if (event == null) {
+			return;
+		}
+		SerializationEvent e = (SerializationEvent) event;
+		e.lines = lines;
+		e.bytes = bytes;
+		e.commit();
+	}
+
+	public static Object beginTransmit() {
+		if (!TRANSMIT.isEnabled()) {
+			return null;
+		}
+		TransmitEvent event = new TransmitEvent();
+		event.begin();
+		return event;
+	}
+
+	public static void commitTransmit(Object event, String endpoint, int status, long bytes) {
+		if (event == null) {
+			return;
+		}
+		TransmitEvent e = (TransmitEvent) event;
+		e.endpoint = endpoint;
+		e.status = status;
+		e.bytes = bytes;
+		e.commit();
+	}
+
+	public static void eviction(String queue, long dropped) {
+		if (!EVICTION.isEnabled()) {
+			return;
+		}
+		EvictionEvent e = new EvictionEvent();
+		e.queue = queue;
+		e.dropped = dropped;
+		e.commit();
+	}
+
+	@Name("metrics_influxdb.ReportTick")
+	@Label("Report Tick")
+	@Category("Metrics InfluxDB")
+	@Description("Report of the metrics of a registry")
+	static class TickEvent extends Event {
+		@Label("Gauges")
+		int gauges;
+		@Label("Counters")
+		int counters;
+		@Label("Histograms")
+		int histograms;
+		@Label("Meters")
+		int meters;
+		@Label("Timers")
+		int timers;
+	}
+
+	@Name("metrics_influxdb.Serialization")
+	@Label("Serialization")
+	@Category("Metrics InfluxDB")
+	@Description("Serialization of measures to the line protocol")
+	static class SerializationEvent extends Event {
+		@Label("Lines")
+		int lines;
+		@Label("Bytes")
+		@DataAmount
+		long bytes;
+	}
+
+	@Name("metrics_influxdb.Transmit")
+	@Label("Transmit")
+	@Category("Metrics InfluxDB")
+	@Description("Transmission of measures to InfluxDB, over HTTP or UDP")
+	static class TransmitEvent extends Event {
+		@Label("Endpoint")
+		String endpoint;
+		@Label("Status")
+		@Description("HTTP status code, 0 for a datagram, -1 for a failure without status")
+		int status;
+		@Label("Bytes")
+		@DataAmount
+		long bytes;
+	}
+
+	@Name("metrics_influxdb.Eviction")
+	@Label("Eviction")
+	@Category("Metrics InfluxDB")
+	@Description("Measures dropped to make room for newer ones")
+	static class EvictionEvent extends Event {
+		@Label("Queue")
+		String queue;
+		@Label("Dropped")
+		long dropped;
+	}
+}
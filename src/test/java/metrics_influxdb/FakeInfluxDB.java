@@ -0,0 +1,461 @@
+package metrics_influxdb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process stand-in for InfluxDB, to test the senders without a real server nor network access.
+ * <br>
+ * It serves {@code /write}, {@code /query} (only {@code CREATE DATABASE}) and {@code /ping} over HTTP on an ephemeral
+ * port, and receives datagrams on an ephemeral UDP port. Written lines are checked against the line protocol,
+ * counted, and kept unless {@link #setRecordLines(boolean)} is turned off; gzip bodies are decoded.
+ * <br>
+ * Faults are injected deterministically: each write request consumes the next queued fault, if any, such as an error
+ * code, a partial write or a connection reset, and datagrams are lost at a given rate drawn from a seeded random.
+ */
+public class FakeInfluxDB implements Closeable {
+	private final HttpServer http;
+	private final ExecutorService httpExecutor;
+	private final DatagramSocket udp;
+	private final Thread udpReceiver;
+	private final List<String> lines = Collections.synchronizedList(new ArrayList<String>());
+	private final Set<String> databases = Collections.synchronizedSet(new LinkedHashSet<String>());
+	private final Deque<Fault> faults = new ArrayDeque<>();
+	private final AtomicLong lineCount = new AtomicLong();
+	private final AtomicLong byteCount = new AtomicLong();
+	private final AtomicLong requestCount = new AtomicLong();
+	private final AtomicLong packetCount = new AtomicLong();
+	private final AtomicLong lostPacketCount = new AtomicLong();
+	private volatile boolean recordLines = true;
+	private volatile long latencyMillis;
+	private volatile int maxBodySize = Integer.MAX_VALUE;
+	private double packetLossRate;
+	private Random packetLossRandom = new Random(0);
+
+	private static class Fault {
+		final int status;
+		final String retryAfter;
+		final int acceptedLines;
+		final boolean reset;
+
+		Fault(int status, String retryAfter, int acceptedLines, boolean reset) {
+			this.status = status;
+			this.retryAfter = retryAfter;
+			this.acceptedLines = acceptedLines;
+			this.reset = reset;
+		}
+	}
+
+	public FakeInfluxDB() throws IOException {
+		InetAddress loopback = InetAddress.getLoopbackAddress();
+		http = HttpServer.create(new InetSocketAddress(loopback, 0), 0);
+		http.createContext("/write", this::write);
+		http.createContext("/query", this::query);
+		http.createContext("/ping", this::ping);
+		httpExecutor = Executors.newCachedThreadPool();
+		http.setExecutor(httpExecutor);
+		http.start();
+
+		udp = new DatagramSocket(0, loopback);
+		udp.setReceiveBufferSize(1 << 22);
+		udpReceiver = new Thread(this::receive, "fake-influxdb-udp");
+		udpReceiver.setDaemon(true);
+		udpReceiver.start();
+	}
+
+	public String getHost() {
+		return http.getAddress().getAddress().getHostAddress();
+	}
+
+	public int getHttpPort() {
+		return http.getAddress().getPort();
+	}
+
+	public int getUdpPort() {
+		return udp.getLocalPort();
+	}
+
+	public HttpInfluxdbProtocol httpProtocol(String database) {
+		return new HttpInfluxdbProtocol(getHost(), getHttpPort(), database);
+	}
+
+	public UdpInfluxdbProtocol udpProtocol() {
+		return new UdpInfluxdbProtocol(getHost(), getUdpPort());
+	}
+
+	/**
+	 * Keeps the received lines, true by default; throughput tests only need them counted.
+	 */
+	public void setRecordLines(boolean recordLines) {
+		this.recordLines = recordLines;
+	}
+
+	/**
+	 * Delays every HTTP response by the given duration.
+	 */
+	public void setLatency(long latency, TimeUnit unit) {
+		this.latencyMillis = unit.toMillis(latency);
+	}
+
+	/**
+	 * Refuses the write requests whose decoded body is bigger than the given size with {@code 413}.
+	 */
+	public void setMaxBodySize(int maxBodySize) {
+		this.maxBodySize = maxBodySize;
+	}
+
+	/**
+	 * Loses the given ratio of the datagrams, drawn from a random with the given seed.
+	 */
+	public synchronized void setPacketLoss(double rate, long seed) {
+		this.packetLossRate = rate;
+		this.packetLossRandom = new Random(seed);
+	}
+
+	/**
+	 * Answers the next write requests with the given status, without keeping their lines.
+	 * @param retryAfter the value of the Retry-After header, null for none
+	 */
+	public synchronized void failNext(int times, int status, String retryAfter) {
+		for (int i = 0; i < times; i++) {
+			faults.add(new Fault(status, retryAfter, 0, false));
+		}
+	}
+
+	/**
+	 * Keeps the given number of lines of the next write request and refuses the others with {@code 400}, as InfluxDB
+	 * does for points outside of the retention policy.
+	 */
+	public synchronized void partialWriteNext(int acceptedLines) {
+		faults.add(new Fault(400, null, acceptedLines, false));
+	}
+
+	/**
+	 * Closes the connection of the next write requests without answering them, after reading their body.
+	 */
+	public synchronized void resetNext(int times) {
+		for (int i = 0; i < times; i++) {
+			faults.add(new Fault(0, null, 0, true));
+		}
+	}
+
+	private synchronized Fault nextFault() {
+		return faults.poll();
+	}
+
+	private synchronized boolean losePacket() {
+		return packetLossRate > 0 && packetLossRandom.nextDouble() < packetLossRate;
+	}
+
+	/**
+	 * @return a copy of the lines received, over HTTP and UDP
+	 */
+	public List<String> getLines() {
+		synchronized (lines) {
+			return new ArrayList<>(lines);
+		}
+	}
+
+	public long getLineCount() {
+		return lineCount.get();
+	}
+
+	/**
+	 * @return the number of bytes of the lines received, after gzip decoding
+	 */
+	public long getByteCount() {
+		return byteCount.get();
+	}
+
+	/**
+	 * @return the number of write requests, faulty ones included
+	 */
+	public long getRequestCount() {
+		return requestCount.get();
+	}
+
+	/**
+	 * @return the number of datagrams received, lost ones included
+	 */
+	public long getPacketCount() {
+		return packetCount.get();
+	}
+
+	public long getLostPacketCount() {
+		return lostPacketCount.get();
+	}
+
+	public Set<String> getDatabases() {
+		synchronized (databases) {
+			return new LinkedHashSet<>(databases);
+		}
+	}
+
+	/**
+	 * Waits until the given number of lines are received.
+	 * @return true if they were received within the given duration
+	 */
+	public boolean awaitLines(long count, long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (lineCount.get() < count) {
+			if (System.nanoTime() > deadline) {
+				return false;
+			}
+			Thread.sleep(5);
+		}
+		return true;
+	}
+
+	private void write(HttpExchange exchange) throws IOException {
+		try {
+			requestCount.incrementAndGet();
+			byte[] body = readBody(exchange);
+			sleepLatency();
+			if (!"POST".equals(exchange.getRequestMethod()) || parameter(exchange, "db") == null) {
+				respond(exchange, 400, "{\"error\":\"database is required\"}");
+				return;
+			}
+			Fault fault = nextFault();
+			if (fault != null && fault.reset) {
+				// no response at all
+				return;
+			}
+			if (fault != null && fault.acceptedLines == 0) {
+				if (fault.retryAfter != null) {
+					exchange.getResponseHeaders().add("Retry-After", fault.retryAfter);
+				}
+				respond(exchange, fault.status, "{\"error\":\"injected failure\"}");
+				return;
+			}
+			if (body.length > maxBodySize) {
+				respond(exchange, 413, "{\"error\":\"Request Entity Too Large\"}");
+				return;
+			}
+
+			String[] received = new String(body, StandardCharsets.UTF_8).split("\n");
+			for (String line : received) {
+				String error = validate(line);
+				if (error != null) {
+					respond(exchange, 400, "{\"error\":\"unable to parse '" + line + "': " + error + "\"}");
+					return;
+				}
+			}
+			if (fault != null) {
+				int kept = Math.min(fault.acceptedLines, received.length);
+				for (int i = 0; i < kept; i++) {
+					accept(received[i]);
+				}
+				respond(exchange, fault.status, "{\"error\":\"partial write: points beyond retention policy dropped=" + (received.length - kept) + "\"}");
+				return;
+			}
+			for (String line : received) {
+				accept(line);
+			}
+			respond(exchange, 204, null);
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void query(HttpExchange exchange) throws IOException {
+		try {
+			String q = parameter(exchange, "q");
+			if (q == null) {
+				q = parameters(new String(readBody(exchange), StandardCharsets.UTF_8), "q");
+			}
+			if (q == null) {
+				respond(exchange, 400, "{\"error\":\"missing required parameter \\\"q\\\"\"}");
+				return;
+			}
+			String prefix = "CREATE DATABASE ";
+			if (!q.trim().toUpperCase().startsWith(prefix)) {
+				respond(exchange, 400, "{\"error\":\"only CREATE DATABASE is supported\"}");
+				return;
+			}
+			databases.add(q.trim().substring(prefix.length()).trim().replace("\"", ""));
+			respond(exchange, 200, "{\"results\":[{\"statement_id\":0}]}");
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void ping(HttpExchange exchange) throws IOException {
+		try {
+			exchange.getResponseHeaders().add("X-Influxdb-Version", "1.8.10-fake");
+			respond(exchange, 204, null);
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void receive() {
+		byte[] buffer = new byte[65536];
+		DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+		while (!udp.isClosed()) {
+			try {
+				udp.receive(packet);
+			} catch (SocketException e) {
+				// closed
+				return;
+			} catch (IOException e) {
+				continue;
+			}
+			packetCount.incrementAndGet();
+			if (losePacket()) {
+				lostPacketCount.incrementAndGet();
+				continue;
+			}
+			for (String line : new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8).split("\n")) {
+				// InfluxDB silently drops invalid lines received over UDP
+				if (validate(line) == null) {
+					accept(line);
+				}
+			}
+		}
+	}
+
+	private void accept(String line) {
+		lineCount.incrementAndGet();
+		byteCount.addAndGet(line.getBytes(StandardCharsets.UTF_8).length);
+		if (recordLines) {
+			lines.add(line);
+		}
+	}
+
+	/**
+	 * Checks the structure of a line: a measurement with optional tags, at least one field and an optional timestamp,
+	 * separated by unescaped spaces.
+	 * @return the reason why the line is invalid, null if it is valid
+	 */
+	static String validate(String line) {
+		List<String> parts = new ArrayList<>(3);
+		boolean quoted = false;
+		int start = 0;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c == '\\') {
+				i++;
+			} else if (c == '"') {
+				quoted = !quoted;
+			} else if (c == ' ' && !quoted) {
+				parts.add(line.substring(start, i));
+				start = i + 1;
+			}
+		}
+		if (quoted) {
+			return "unbalanced quotes";
+		}
+		parts.add(line.substring(start));
+		if (parts.size() < 2 || parts.size() > 3) {
+			return "invalid field format";
+		}
+		if (parts.get(0).isEmpty() || parts.get(0).startsWith(",")) {
+			return "missing measurement";
+		}
+		if (parts.get(1).isEmpty() || !parts.get(1).contains("=")) {
+			return "missing fields";
+		}
+		if (parts.size() == 3) {
+			try {
+				Long.parseLong(parts.get(2));
+			} catch (NumberFormatException e) {
+				return "bad timestamp";
+			}
+		}
+		return null;
+	}
+
+	private void sleepLatency() {
+		long latency = latencyMillis;
+		if (latency > 0) {
+			try {
+				Thread.sleep(latency);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private static byte[] readBody(HttpExchange exchange) throws IOException {
+		InputStream in = exchange.getRequestBody();
+		if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+			in = new GZIPInputStream(in);
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) >= 0) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+
+	private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+		if (body == null) {
+			exchange.sendResponseHeaders(status, -1);
+			return;
+		}
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().add("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, bytes.length);
+		exchange.getResponseBody().write(bytes);
+	}
+
+	private static String parameter(HttpExchange exchange, String name) {
+		return parameters(exchange.getRequestURI().getRawQuery(), name);
+	}
+
+	private static String parameters(String query, String name) {
+		if (query == null) {
+			return null;
+		}
+		for (String pair : query.split("&")) {
+			int eq = pair.indexOf('=');
+			if (eq > 0 && pair.substring(0, eq).equals(name)) {
+				try {
+					return URLDecoder.decode(pair.substring(eq + 1), "UTF-8");
+				} catch (IOException e) {
+					return null;
+				}
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public void close() {
+		http.stop(0);
+		httpExecutor.shutdownNow();
+		udp.close();
+		try {
+			udpReceiver.join(TimeUnit.SECONDS.toMillis(1));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
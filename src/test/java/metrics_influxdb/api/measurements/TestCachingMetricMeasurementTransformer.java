@@ -0,0 +1,73 @@
+package metrics_influxdb.api.measurements;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.hamcrest.collection.IsMapContaining.hasEntry;
+
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+import metrics_influxdb.measurements.TagSet;
+
+public class TestCachingMetricMeasurementTransformer {
+	@Test
+	public void eachMetricNameIsTransformedOnce() {
+		final int[] calls = {0};
+		MetricMeasurementTransformer counting = new KeyValueMetricMeasurementTransformer() {
+			@Override
+			public MetricMeasurement transform(String metricName) {
+				calls[0]++;
+				return super.transform(metricName);
+			}
+		};
+		CachingMetricMeasurementTransformer caching = new CachingMetricMeasurementTransformer(counting);
+
+		MetricMeasurement first = caching.transform("server.actarus.cpu_load");
+		Map<String, String> tags = caching.tags("server.actarus.cpu_load");
+		String name = caching.measurementName("server.actarus.cpu_load");
+
+		assertThat(calls[0], is(1));
+		assertThat(name, is("cpu_load"));
+		assertThat(tags, hasEntry("server", "actarus"));
+		assertThat(caching.transform("server.actarus.cpu_load"), sameInstance(first));
+	}
+
+	@Test
+	public void aFullCacheIsClearedOnceTooManyNamesAreRejected() {
+		CachingMetricMeasurementTransformer caching = new CachingMetricMeasurementTransformer(MetricMeasurementTransformer.NOOP, 4);
+		for (int i = 0; i < 4; i++) {
+			caching.transform("m" + i);
+		}
+		assertThat(caching.size(), is(4));
+
+		caching.transform("m4");
+		caching.transform("m5");
+		assertThat(caching.size(), is(4));
+
+		caching.transform("m6");
+		assertThat(caching.size(), is(1));
+	}
+
+	@Test(expectedExceptions = UnsupportedOperationException.class)
+	public void cachedTagsCannotBeModified() {
+		CachingMetricMeasurementTransformer caching = new CachingMetricMeasurementTransformer(new KeyValueMetricMeasurementTransformer());
+		caching.tags("server.actarus.cpu_load").put("server", "venusia");
+	}
+
+	@Test
+	public void cachedTagsAreMergedWithBaseTagsOnce() {
+		CachingMetricMeasurementTransformer caching = new CachingMetricMeasurementTransformer(new KeyValueMetricMeasurementTransformer());
+		TagSet baseTags = TagSet.of("host", "web-1");
+
+		Map<String, String> tags = caching.tags("server.actarus.cpu_load");
+		TagSet merged = baseTags.with(tags);
+
+		assertThat(tags, instanceOf(TagSet.class));
+		assertThat(merged, hasEntry("host", "web-1"));
+		assertThat(merged, hasEntry("server", "actarus"));
+		assertThat(baseTags.with(caching.tags("server.actarus.cpu_load")), sameInstance(merged));
+	}
+}
@@ -156,4 +156,24 @@ public class TestKeyValueMetricMeasurementTransformer {
 		assertThat(measurementName, notNullValue());
 		assertThat(measurementName, is(baseMetricName));
 	}
+
+	@Test
+	public void splittingWithoutRegexMatchesStringSplit() {
+		String[] separators = {"\\.", "_", "\\|", "[._]"};
+		String[] names = {"", "a", "a.b", ".a.b", "a.b.", "a..b", "..", "a_b.c_d", "a|b|c"};
+		for (String separator : separators) {
+			Splitter splitter = new Splitter(separator);
+			for (String name : names) {
+				assertThat(separator + " " + name, splitter.split(name), is(name.split(separator)));
+			}
+		}
+	}
+
+	@Test
+	public void transformGivesBothNameAndTags() {
+		MetricMeasurement measurement = keyValueTransformer.transform("server.actarus.cores.cpu_load");
+
+		assertThat(measurement.getName(), is("cores.cpu_load"));
+		assertThat(measurement.getTags(), hasEntry("server", "actarus"));
+	}
 }
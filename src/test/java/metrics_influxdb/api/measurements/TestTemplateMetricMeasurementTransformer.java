@@ -0,0 +1,155 @@
+package metrics_influxdb.api.measurements;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.collection.IsEmptyCollection.empty;
+import static org.hamcrest.collection.IsMapContaining.hasEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+public class TestTemplateMetricMeasurementTransformer {
+	@Test
+	public void withoutTemplatesActsAsNOOP() {
+		TemplateMetricMeasurementTransformer transformer = new TemplateMetricMeasurementTransformer();
+
+		assertThat(transformer.measurementName("a.metric"), is("a.metric"));
+		assertThat(transformer.tags("a.metric").entrySet(), empty());
+	}
+
+	@Test
+	public void theDefaultTemplateAppliesToUnfilteredMetrics() {
+		TemplateMetricMeasurementTransformer transformer = new TemplateMetricMeasurementTransformer(
+				"prod.* .host.measurement*",
+				"env.service.measurement region=eu");
+
+		MetricMeasurement prod = transformer.transform("prod.web-1.cpu.load");
+		assertThat(prod.getName(), is("cpu.load"));
+		assertThat(prod.getTags().size(), is(1));
+		assertThat(prod.getTags(), hasEntry("host", "web-1"));
+
+		MetricMeasurement staging = transformer.transform("staging.checkout.requests.extra");
+		assertThat(staging.getName(), is("requests"));
+		assertThat(staging.getTags(), hasEntry("env", "staging"));
+		assertThat(staging.getTags(), hasEntry("service", "checkout"));
+		assertThat(staging.getTags(), hasEntry("region", "eu"));
+	}
+
+	@Test
+	public void theMostSpecificFilterWins() {
+		TemplateMetricMeasurementTransformer transformer = new TemplateMetricMeasurementTransformer(
+				"*.*.cpu .host.measurement.core",
+				"web.* role.host.measurement*",
+				"web.*.cpu role.host.measurement.cpu");
+
+		assertThat(transformer.tags("web.w1.cpu.3"), hasEntry("cpu", "3"));
+		assertThat(transformer.measurementName("web.w1.cpu.3"), is("cpu"));
+		assertThat(transformer.tags("web.w1.mem.free"), hasEntry("role", "web"));
+		assertThat(transformer.measurementName("web.w1.mem.free"), is("mem.free"));
+		assertThat(transformer.tags("db.d1.cpu.2"), hasEntry("core", "2"));
+		assertThat(transformer.measurementName("db.other.metric"), is("db.other.metric"));
+	}
+
+	@Test
+	public void aMoreSpecificPrefixWinsOverLaterSegments() {
+		TemplateMetricMeasurementTransformer transformer = new TemplateMetricMeasurementTransformer(
+				"a.*.c measurement t=wildcard-value",
+				"*.b.d measurement t=wildcard-first",
+				"a measurement t=prefix",
+				"a.b measurement t=value");
+
+		assertThat(transformer.tags("a.x.d"), hasEntry("t", "prefix"));
+		assertThat(transformer.tags("a.x.c"), hasEntry("t", "wildcard-value"));
+		assertThat(transformer.tags("a.b.c"), hasEntry("t", "value"));
+		assertThat(transformer.tags("z.b.d"), hasEntry("t", "wildcard-first"));
+		assertThat(transformer.tags("z.b.c").entrySet(), empty());
+	}
+
+	@Test
+	public void theMatchedTemplateIsTheMostSpecificMatchingFilter() {
+		String[] values = {"a", "b", "*"};
+		Random random = new Random(42);
+		for (int round = 0; round < 200; round++) {
+			List<String> filters = new ArrayList<>();
+			List<String> templates = new ArrayList<>();
+			for (int i = 0; i < 12; i++) {
+				StringBuilder filter = new StringBuilder();
+				for (int depth = random.nextInt(4); depth >= 0; depth--) {
+					filter.append(filter.length() == 0 ? "" : ".").append(values[random.nextInt(values.length)]);
+				}
+				if (!filters.contains(filter.toString())) {
+					filters.add(filter.toString());
+					templates.add(filter + " measurement t=" + filter);
+				}
+			}
+			TemplateMetricMeasurementTransformer transformer = new TemplateMetricMeasurementTransformer(templates.toArray(new String[0]));
+
+			for (int i = 0; i < 20; i++) {
+				StringBuilder name = new StringBuilder();
+				for (int depth = random.nextInt(5); depth >= 0; depth--) {
+					name.append(name.length() == 0 ? "" : ".").append(values[random.nextInt(2)]);
+				}
+				String expected = mostSpecific(filters, name.toString().split("\\."));
+				Map<String, String> tags = transformer.tags(name.toString());
+				assertThat(templates + " " + name, tags.get("t"), is(expected));
+			}
+		}
+	}
+
+	/**
+	 * @return the filter matching the given segments whose first differing segment is a value rather than a
+	 * wildcard, or which is longer, null if none matches
+	 */
+	private static String mostSpecific(List<String> filters, String[] segments) {
+		String best = null;
+		for (String filter : filters) {
+			String[] parts = filter.split("\\.");
+			boolean matches = parts.length <= segments.length;
+			for (int i = 0; matches && i < parts.length; i++) {
+				matches = parts[i].equals("*") || parts[i].equals(segments[i]);
+			}
+			if (matches && (best == null || moreSpecific(parts, best.split("\\.")))) {
+				best = filter;
+			}
+		}
+		return best;
+	}
+
+	private static boolean moreSpecific(String[] filter, String[] other) {
+		for (int i = 0; i < Math.min(filter.length, other.length); i++) {
+			if (!filter[i].equals(other[i])) {
+				return other[i].equals("*");
+			}
+		}
+		return filter.length > other.length;
+	}
+
+	@Test
+	public void repeatedSegmentsAreJoined() {
+		TemplateMetricMeasurementTransformer transformer = new TemplateMetricMeasurementTransformer(
+				Collections.singletonMap("dc", "paris"),
+				"region.region.measurement.measurement dc=lyon",
+				"app.* .measurement");
+
+		Map<String, String> tags = transformer.tags("eu.west.http.requests");
+		assertThat(transformer.measurementName("eu.west.http.requests"), is("http.requests"));
+		assertThat(tags, hasEntry("region", "eu.west"));
+		assertThat(tags, hasEntry("dc", "lyon"));
+		assertThat(transformer.tags("app.gc"), hasEntry("dc", "paris"));
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void duplicateFiltersAreRejected() {
+		new TemplateMetricMeasurementTransformer("a.* measurement", "a.* .measurement");
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void measurementWildcardMustEndThePattern() {
+		new TemplateMetricMeasurementTransformer("measurement*.host");
+	}
+}
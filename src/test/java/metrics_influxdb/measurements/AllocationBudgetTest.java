@@ -0,0 +1,192 @@
+package metrics_influxdb.measurements;
+
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.SkipException;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import metrics_influxdb.api.measurements.CachingMetricMeasurementTransformer;
+import metrics_influxdb.api.measurements.CategoriesMetricMeasurementTransformer;
+import metrics_influxdb.api.measurements.MetricMeasurementTransformer;
+import metrics_influxdb.serialization.line.Inliner;
+import metrics_influxdb.serialization.line.LineBuffer;
+
+/**
+ * Guards the bytes allocated by the reporting path, measured per thread once the code is warmed up.
+ * <br>
+ * Each budget is in bytes per measure or per metric, and can be overridden with the system property
+ * {@code allocation.budget.<name>}; a workload over its budget fails the build.
+ */
+public class AllocationBudgetTest {
+	private static final int WARMUP_ROUNDS = 20;
+	private static final int ROUNDS = 5;
+
+	private com.sun.management.ThreadMXBean threads;
+
+	@BeforeClass
+	public void checkSupport() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+			throw new SkipException("per thread allocation is not measurable on this JVM");
+		}
+		threads = (com.sun.management.ThreadMXBean) bean;
+		if (!threads.isThreadAllocatedMemorySupported()) {
+			throw new SkipException("per thread allocation is not measurable on this JVM");
+		}
+		threads.setThreadAllocatedMemoryEnabled(true);
+	}
+
+	@Test
+	public void inlining_a_cached_series_stays_within_budget() {
+		final Inliner inliner = new Inliner(TimeUnit.MILLISECONDS);
+		final LineBuffer buffer = new LineBuffer();
+		final Measure measure = new Measure("cpu_load")
+				.addTag(TagSet.of(tags()))
+				.addValue("count", 1024)
+				.addValue("mean", 12.71)
+				.addValue("max", 812.5)
+				.addValue("running", true)
+				.timestamp(1500000000000l);
+		final int measures = 1000;
+
+		long bytes = allocatedBytes(new Runnable() {
+			@Override
+			public void run() {
+				for (int i = 0; i < measures; i++) {
+					buffer.reset();
+					inliner.inline(measure, buffer);
+				}
+			}
+		});
+
+		assertWithinBudget("inline", bytes / measures, 128);
+	}
+
+	@Test
+	public void reporting_counters_and_gauges_stays_within_budget() {
+		MetricRegistry registry = new MetricRegistry();
+		for (int i = 0; i < 500; i++) {
+			registry.counter("service.requests-" + i).inc(i);
+			final long value = i;
+			registry.register("service.pool-" + i, (Gauge<Long>) () -> value);
+		}
+
+		assertReportWithinBudget("report.simple", registry, 400);
+	}
+
+	@Test
+	public void reporting_timers_stays_within_budget() {
+		MetricRegistry registry = new MetricRegistry();
+		for (int i = 0; i < 200; i++) {
+			Timer timer = registry.timer("service.latency-" + i);
+			for (int j = 0; j < 100; j++) {
+				timer.update(j, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		assertReportWithinBudget("report.timer", registry, 6500);
+	}
+
+	@Test
+	public void reporting_through_a_cached_transformer_stays_within_budget() {
+		MetricRegistry registry = new MetricRegistry();
+		for (int i = 0; i < 500; i++) {
+			registry.counter("checkout.eu-west-1.requests-" + i).inc(i);
+			final long value = i;
+			registry.register("checkout.eu-west-1.pool-" + i, (Gauge<Long>) () -> value);
+		}
+		// as configured by the reporter builder for any transformer but NOOP
+		MetricMeasurementTransformer transformer = new CachingMetricMeasurementTransformer(
+				new CategoriesMetricMeasurementTransformer("service", "region"));
+		Map<String, String> baseTags = new HashMap<>();
+		baseTags.put("host", "web-1");
+		baseTags.put("env", "prod");
+
+		assertReportWithinBudget("report.transformed", registry, baseTags, transformer, 400);
+	}
+
+	private void assertReportWithinBudget(String name, MetricRegistry registry, long budget) {
+		assertReportWithinBudget(name, registry, Collections.singletonMap("host", "web-1"), MetricMeasurementTransformer.NOOP, budget);
+	}
+
+	private void assertReportWithinBudget(String name, MetricRegistry registry, Map<String, String> baseTags, MetricMeasurementTransformer transformer, long budget) {
+		final MeasurementReporter reporter = new MeasurementReporter(new SerializingSender(), registry, MetricFilter.ALL, TimeUnit.SECONDS,
+				TimeUnit.MILLISECONDS, Clock.defaultClock(), baseTags, transformer);
+		try {
+			long bytes = allocatedBytes(new Runnable() {
+				@Override
+				public void run() {
+					reporter.report();
+				}
+			});
+			assertWithinBudget(name, bytes / registry.getMetrics().size(), budget);
+		} finally {
+			reporter.close();
+		}
+	}
+
+	/**
+	 * @return the fewest bytes allocated by the current thread in one round of the given workload, once warmed up
+	 */
+	private long allocatedBytes(Runnable workload) {
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			workload.run();
+		}
+		long id = Thread.currentThread().getId();
+		long fewest = Long.MAX_VALUE;
+		for (int i = 0; i < ROUNDS; i++) {
+			long before = threads.getThreadAllocatedBytes(id);
+			workload.run();
+			fewest = Math.min(fewest, threads.getThreadAllocatedBytes(id) - before);
+		}
+		return fewest;
+	}
+
+	private static void assertWithinBudget(String name, long bytes, long defaultBudget) {
+		long budget = Long.getLong("allocation.budget." + name, defaultBudget);
+		assertThat(name + " allocated bytes", bytes, lessThanOrEqualTo(budget));
+	}
+
+	private static Map<String, String> tags() {
+		Map<String, String> tags = new HashMap<>();
+		tags.put("host", "web-042");
+		tags.put("region", "eu-west-1");
+		tags.put("service", "checkout");
+		return tags;
+	}
+
+	/**
+	 * Serializes the measures into a reused buffer, without sending them.
+	 */
+	private static class SerializingSender extends QueueableSender {
+		private final Inliner inliner = new Inliner(TimeUnit.MILLISECONDS);
+		private final LineBuffer buffer = new LineBuffer();
+
+		SerializingSender() {
+			super(1000);
+		}
+
+		@Override
+		protected boolean doSend(Collection<Measure> measures) {
+			buffer.reset();
+			inliner.inline(measures, buffer);
+			return true;
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package metrics_influxdb.measurements;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+public class AsyncSenderTest {
+	@Test
+	public void measures_are_transmitted_by_the_io_thread() throws Exception {
+		final String[] transmitter = new String[1];
+		ListInlinerSender delegate = new ListInlinerSender(100) {
+			@Override
+			protected boolean doSend(Collection<Measure> measuresToSend) {
+				transmitter[0] = Thread.currentThread().getName();
+				return super.doSend(measuresToSend);
+			}
+		};
+		AsyncSender sender = new AsyncSender(delegate);
+
+		sender.send(new Measure("cpu", 1));
+		sender.send(new Measure("cpu", 2));
+		sender.flushAsync().get(5, TimeUnit.SECONDS);
+
+		assertThat(delegate.getFrames().size(), is(1));
+		assertThat(delegate.getFrames().get(0).split("\n").length, is(2));
+		assertThat(transmitter[0].startsWith("influxdb-sender-"), is(true));
+		sender.close();
+	}
+
+	@Test
+	public void flush_does_not_wait_for_a_blocked_transmission_and_merges_overruns() throws Exception {
+		final CountDownLatch transmitting = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		ListInlinerSender delegate = new ListInlinerSender(100) {
+			@Override
+			protected boolean doSend(Collection<Measure> measuresToSend) {
+				transmitting.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return super.doSend(measuresToSend);
+			}
+		};
+		AsyncSender sender = new AsyncSender(delegate);
+
+		sender.send(new Measure("cpu", 1));
+		CompletableFuture<Void> first = sender.flushAsync();
+		assertThat(transmitting.await(5, TimeUnit.SECONDS), is(true));
+
+		// two ticks while the I/O thread is blocked
+		sender.send(new Measure("cpu", 2));
+		CompletableFuture<Void> second = sender.flushAsync();
+		sender.send(new Measure("cpu", 3));
+		CompletableFuture<Void> third = sender.flushAsync();
+
+		assertThat(first.isDone(), is(false));
+		assertThat(third, is(second));
+		assertThat(sender.getOverrunCount(), is(1l));
+		assertThat(sender.getPendingCount(), is(2));
+
+		release.countDown();
+		third.get(5, TimeUnit.SECONDS);
+		assertThat(delegate.getFrames().size(), is(2));
+		assertThat(delegate.getFrames().get(1).split("\n").length, is(2));
+		sender.close();
+	}
+
+	@Test
+	public void oldest_pending_measures_are_dropped_when_bound_is_exceeded() throws IOException, InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch transmitting = new CountDownLatch(1);
+		ListInlinerSender delegate = new ListInlinerSender(100) {
+			@Override
+			protected boolean doSend(Collection<Measure> measuresToSend) {
+				transmitting.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return super.doSend(measuresToSend);
+			}
+		};
+		AsyncSender sender = new AsyncSender(delegate, 3);
+
+		sender.send(new Measure("blocked", 0));
+		sender.flush();
+		assertThat(transmitting.await(5, TimeUnit.SECONDS), is(true));
+		for (int i = 0; i < 5; i++) {
+			sender.send(new Measure("cpu", i));
+		}
+		sender.flush();
+
+		assertThat(sender.getPendingCount(), is(3));
+		assertThat(sender.getDroppedCount(), is(2l));
+		release.countDown();
+		sender.close();
+	}
+
+	@Test
+	public void flush_future_fails_when_the_delegate_keeps_the_measures() throws Exception {
+		ListInlinerSender delegate = new ListInlinerSender(100) {
+			@Override
+			protected boolean doSend(Collection<Measure> measuresToSend) {
+				return false;
+			}
+		};
+		AsyncSender sender = new AsyncSender(delegate);
+
+		sender.send(new Measure("cpu", 1));
+		CompletableFuture<Void> future = sender.flushAsync();
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			fail("the measures were not transmitted");
+		} catch (ExecutionException e) {
+			assertThat(e.getCause() instanceof IOException, is(true));
+		}
+		assertThat(delegate.getPendingCount(), is(1));
+		sender.close();
+	}
+}
@@ -0,0 +1,52 @@
+package metrics_influxdb.measurements;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+public class ChangeDetectorTest {
+	@Test
+	public void only_new_and_changed_values_are_to_be_sent() {
+		ChangeDetector changes = new ChangeDetector(0, TimeUnit.MINUTES);
+
+		assertThat(changes.changed("requests", 1, 0), is(true));
+		assertThat(changes.changed("requests", 1, 1000), is(false));
+		assertThat(changes.changed("errors", 1, 1000), is(true));
+		assertThat(changes.changed("requests", 2, 2000), is(true));
+		assertThat(changes.changed("requests", 2, Long.MAX_VALUE), is(false));
+	}
+
+	@Test
+	public void unchanged_values_are_sent_again_after_the_heartbeat() {
+		ChangeDetector changes = new ChangeDetector(1, TimeUnit.SECONDS);
+
+		assertThat(changes.changed("requests", 1, 0), is(true));
+		assertThat(changes.changed("requests", 1, 999), is(false));
+		assertThat(changes.changed("requests", 1, 1000), is(true));
+		assertThat(changes.changed("requests", 1, 1999), is(false));
+	}
+
+	@Test
+	public void many_metrics_are_tracked_and_removed_ones_forgotten() {
+		ChangeDetector changes = new ChangeDetector();
+
+		changes.startTick();
+		for (int i = 0; i < 100000; i++) {
+			assertThat(changes.changed("service.requests-" + i, i, 0), is(true));
+		}
+		changes.endTick();
+		assertThat(changes.size(), is(100000));
+
+		changes.startTick();
+		for (int i = 0; i < 1000; i++) {
+			assertThat(changes.changed("service.requests-" + i, i, 1000), is(false));
+		}
+		changes.endTick();
+		assertThat(changes.size(), is(1000));
+		assertThat(changes.changed("service.requests-999", 999, 2000), is(false));
+		assertThat(changes.changed("service.requests-1000", 1000, 2000), is(true));
+	}
+}
@@ -0,0 +1,103 @@
+package metrics_influxdb.measurements;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+public class ConcurrentSenderTest {
+	@Test
+	public void measures_of_concurrent_threads_are_all_transmitted_by_the_flusher() throws Exception {
+		final int threads = 8;
+		final int measuresPerThread = 20000;
+		final Set<String> transmitters = new HashSet<>();
+		final List<Measure> received = new ArrayList<>();
+		QueueableSender delegate = new QueueableSender(1000) {
+			@Override
+			protected boolean doSend(Collection<Measure> measuresToSend) {
+				transmitters.add(Thread.currentThread().getName());
+				received.addAll(measuresToSend);
+				return true;
+			}
+		};
+		final ConcurrentSender sender = new ConcurrentSender(delegate, 4, 1 << 20, 1, TimeUnit.HOURS);
+
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> producers = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			final int thread = t;
+			Thread producer = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int i = 0; i < measuresPerThread; i++) {
+						sender.send(new Measure("request").addTag("thread", Integer.toString(thread)).addValue("i", i));
+					}
+				}
+			});
+			producer.start();
+			producers.add(producer);
+		}
+		start.countDown();
+		for (Thread producer : producers) {
+			producer.join();
+		}
+		sender.close();
+
+		assertThat(received.size(), is(threads * measuresPerThread));
+		assertThat(sender.getTransmittedCount(), is((long) threads * measuresPerThread));
+		assertThat(sender.getDroppedCount(), is(0l));
+		assertThat(transmitters.size(), is(1));
+		assertThat(transmitters.iterator().next().startsWith("influxdb-flusher-"), is(true));
+	}
+
+	@Test
+	public void flush_wakes_the_flusher_up() throws Exception {
+		final CountDownLatch sent = new CountDownLatch(1);
+		ListInlinerSender delegate = new ListInlinerSender(100) {
+			@Override
+			protected boolean doSend(Collection<Measure> measuresToSend) {
+				boolean result = super.doSend(measuresToSend);
+				if (!measuresToSend.isEmpty()) {
+					sent.countDown();
+				}
+				return result;
+			}
+		};
+		ConcurrentSender sender = new ConcurrentSender(delegate, 2, 16, 1, TimeUnit.HOURS);
+
+		sender.send(new Measure("cpu", 1));
+		sender.flush();
+
+		assertThat(sent.await(5, TimeUnit.SECONDS), is(true));
+		assertThat(sender.getPendingCount(), is(0));
+		sender.close();
+	}
+
+	@Test
+	public void oldest_measures_are_dropped_when_a_stripe_is_full() throws Exception {
+		ListInlinerSender delegate = new ListInlinerSender(100);
+		ConcurrentSender sender = new ConcurrentSender(delegate, 1, 4, 1, TimeUnit.HOURS);
+
+		for (int i = 0; i < 10; i++) {
+			sender.send(new Measure("cpu", i));
+		}
+
+		assertThat(sender.getPendingCount(), is(4));
+		assertThat(sender.getDroppedCount(), is(6l));
+		sender.close();
+		assertThat(delegate.getFrames().get(0).split("\n").length, is(4));
+	}
+}
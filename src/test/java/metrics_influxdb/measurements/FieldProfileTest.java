@@ -0,0 +1,110 @@
+package metrics_influxdb.measurements;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.testng.Assert.fail;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.UniformReservoir;
+
+import metrics_influxdb.SortedMaps;
+import metrics_influxdb.api.measurements.MetricMeasurementTransformer;
+import metrics_influxdb.measurements.FieldProfile.Field;
+import metrics_influxdb.measurements.FieldProfiles.MetricType;
+
+public class FieldProfileTest {
+	@Test
+	public void percentilesAreNamedAfterTheirQuantile() {
+		FieldProfile profile = new FieldProfile().addPercentile(0.5).addPercentile(0.999).addPercentile(0.9999);
+
+		assertThat(profile.getName(0), is("50-percentile"));
+		assertThat(profile.getName(1), is("999-percentile"));
+		assertThat(profile.getName(2), is("9999-percentile"));
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void fieldNamesMustBeUnique() {
+		new FieldProfile().add(Field.MEAN).addPercentile(0.5, "mean");
+	}
+
+	@Test
+	public void patternsOverrideTheProfileOfTheirType() {
+		FieldProfile slow = new FieldProfile().add(Field.MAX);
+		FieldProfiles profiles = new FieldProfiles().set(MetricType.TIMER, "db\\..*", slow);
+
+		assertThat(profiles.get(MetricType.TIMER, "db.query"), sameInstance(slow));
+		assertThat(profiles.get(MetricType.TIMER, "http.db.query").size(), is(FieldProfile.defaultTimer().size()));
+		assertThat(profiles.get(MetricType.HISTOGRAM, "db.query").size(), is(FieldProfile.defaultHistogram().size()));
+	}
+
+	@Test
+	public void onlyTheSelectedFieldsAreEmitted() {
+		ListInlinerSender sender = new ListInlinerSender(100);
+		MeasurementReporter reporter = new MeasurementReporter(sender, new MetricRegistry(), null, TimeUnit.SECONDS, TimeUnit.MILLISECONDS,
+				Clock.defaultClock(), Collections.<String, String>emptyMap(), MetricMeasurementTransformer.NOOP);
+		reporter.setFieldProfiles(new FieldProfiles()
+				.set(MetricType.TIMER, new FieldProfile().add(Field.RUN_COUNT, "n").add(Field.MEAN).addPercentile(0.9999, "p9999"))
+				.set(MetricType.METER, "requests", new FieldProfile().add(Field.ONE_MINUTE, "m1"))
+				.set(MetricType.HISTOGRAM, new FieldProfile().add(Field.RUN_COUNT)));
+		final int[] snapshots = {0};
+		Histogram histogram = new Histogram(new UniformReservoir()) {
+			@Override
+			public Snapshot getSnapshot() {
+				snapshots[0]++;
+				return super.getSnapshot();
+			}
+		};
+		Timer timer = new Timer();
+		timer.update(2, TimeUnit.MILLISECONDS);
+		Meter requests = new Meter();
+		requests.mark();
+		histogram.update(3);
+
+		reporter.report(SortedMaps.empty(), SortedMaps.empty(), SortedMaps.singleton("h", histogram), SortedMaps.singleton("requests", requests), SortedMaps.singleton("t", timer));
+
+		String[] lines = sender.getFrames().get(0).split("\n");
+		assertThat(lines[0], containsString("h run-count=1i "));
+		assertThat(snapshots[0], is(0));
+		assertThat(lines[1], containsString("requests m1="));
+		assertThat(lines[1], not(containsString("count")));
+		assertThat(lines[2], containsString("t mean=2.0,n=1i,p9999=2.0 "));
+	}
+
+	@Test
+	public void profilesWithoutApplicableFieldsAreRejected() {
+		FieldProfiles profiles = new FieldProfiles();
+		for (MetricType type : MetricType.values()) {
+			try {
+				profiles.set(type, new FieldProfile());
+				fail("an empty profile was accepted for " + type);
+			} catch (IllegalArgumentException expected) {
+			}
+		}
+		try {
+			profiles.set(MetricType.METER, new FieldProfile().add(Field.MEAN).withBuckets(new HistogramBuckets(1)));
+			fail("a meter profile without meter fields was accepted");
+		} catch (IllegalArgumentException expected) {
+		}
+		try {
+			profiles.set(MetricType.HISTOGRAM, "h.*", new FieldProfile().add(Field.ONE_MINUTE));
+			fail("a histogram profile with only rates was accepted");
+		} catch (IllegalArgumentException expected) {
+		}
+
+		profiles.set(MetricType.METER, new FieldProfile().add(Field.MEAN).add(Field.COUNT));
+		profiles.set(MetricType.HISTOGRAM, new FieldProfile().withBuckets(new HistogramBuckets(1)));
+	}
+}
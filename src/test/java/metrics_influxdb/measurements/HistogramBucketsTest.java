@@ -0,0 +1,95 @@
+package metrics_influxdb.measurements;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.UniformReservoir;
+
+import metrics_influxdb.SortedMaps;
+import metrics_influxdb.api.measurements.MetricMeasurementTransformer;
+import metrics_influxdb.measurements.FieldProfile.Field;
+import metrics_influxdb.measurements.FieldProfiles.MetricType;
+
+public class HistogramBucketsTest {
+	@Test
+	public void logLinearBucketsSpanEachDecade() {
+		HistogramBuckets buckets = HistogramBuckets.logLinear(5, 300, 9);
+
+		assertThat(buckets.size(), is(5 + 9 + 3));
+		assertThat(buckets.getName(0), is("le-5"));
+		assertThat(buckets.getName(5), is("le-10"));
+		assertThat(buckets.getName(buckets.size() - 1), is("le-300"));
+	}
+
+	@Test
+	public void boundsAreSortedAndNamedWithoutTrailingZeros() {
+		HistogramBuckets buckets = new HistogramBuckets(2.50, 0.7, 10);
+
+		assertThat(buckets.getName(0), is("le-0.7"));
+		assertThat(buckets.getName(1), is("le-2.5"));
+		assertThat(buckets.getName(2), is("le-10"));
+	}
+
+	@Test
+	public void countsAreCumulative() {
+		Measure measure = new Measure("h");
+		new HistogramBuckets(1, 5, 10).addCounts(measure, new long[] {0, 1, 1, 3, 7, 12}, 1);
+
+		assertThat(measure.getValues().get("le-1"), is("3i"));
+		assertThat(measure.getValues().get("le-5"), is("4i"));
+		assertThat(measure.getValues().get("le-10"), is("5i"));
+		assertThat(measure.getValues().get(HistogramBuckets.INFINITY_FIELD), is("6i"));
+	}
+
+	@Test
+	public void bucketsSharedBetweenUnitsCountEachInItsOwn() {
+		HistogramBuckets buckets = new HistogramBuckets(1, 5);
+		for (int i = 0; i < 2; i++) {
+			Measure histogram = new Measure("h");
+			buckets.addCounts(histogram, new long[] {1, 4, 900}, 1);
+			Measure timer = new Measure("t");
+			buckets.addCounts(timer, new long[] {1, 4, 900}, 1000);
+
+			assertThat(histogram.getValues().get("le-1"), is("1i"));
+			assertThat(histogram.getValues().get("le-5"), is("2i"));
+			assertThat(timer.getValues().get("le-1"), is("3i"));
+			assertThat(timer.getValues().get("le-5"), is("3i"));
+		}
+	}
+
+	@Test
+	public void timersAreCountedInTheDurationUnit() {
+		ListInlinerSender sender = new ListInlinerSender(100);
+		MeasurementReporter reporter = new MeasurementReporter(sender, new MetricRegistry(), null, TimeUnit.SECONDS, TimeUnit.MILLISECONDS,
+				Clock.defaultClock(), Collections.<String, String>emptyMap(), MetricMeasurementTransformer.NOOP);
+		HistogramBuckets buckets = new HistogramBuckets(0.7, 2);
+		reporter.setFieldProfiles(new FieldProfiles()
+				.set(MetricType.TIMER, new FieldProfile().add(Field.RUN_COUNT).withBuckets(buckets))
+				.set(MetricType.HISTOGRAM, new FieldProfile().withBuckets(buckets)));
+		Timer timer = new Timer();
+		timer.update(700, TimeUnit.MICROSECONDS);
+		timer.update(701, TimeUnit.MICROSECONDS);
+		timer.update(2, TimeUnit.MILLISECONDS);
+		Histogram histogram = new Histogram(new UniformReservoir());
+		histogram.update(1);
+		histogram.update(3);
+
+		reporter.report(SortedMaps.empty(), SortedMaps.empty(), SortedMaps.singleton("h", histogram), SortedMaps.empty(), SortedMaps.singleton("t", timer));
+
+		String[] lines = sender.getFrames().get(0).split("\n");
+		assertThat(lines[0], containsString("h le-0.7=0i,le-2=1i,le-inf=2i "));
+		assertThat(lines[1], containsString("t le-0.7=1i,le-2=3i,le-inf=3i,run-count=3i "));
+		assertThat(lines[1], not(containsString("mean")));
+	}
+}
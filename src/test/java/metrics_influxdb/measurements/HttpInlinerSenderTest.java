@@ -0,0 +1,333 @@
+package metrics_influxdb.measurements;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+import org.testng.annotations.Test;
+
+import com.codahale.metrics.MetricRegistry;
+import com.sun.net.httpserver.HttpServer;
+
+import metrics_influxdb.FakeInfluxDB;
+import metrics_influxdb.HttpInfluxdbProtocol;
+import metrics_influxdb.misc.AdaptiveBatchSize;
+import metrics_influxdb.misc.CircuitBreaker;
+import metrics_influxdb.misc.MappedSpool;
+import metrics_influxdb.misc.Miscellaneous;
+
+public class HttpInlinerSenderTest {
+	@Test
+	public void retry_after_is_parsed_as_seconds_or_date() {
+		assertThat(HttpInlinerSender.parseRetryAfter(null), is(0l));
+		assertThat(HttpInlinerSender.parseRetryAfter(" 120 "), is(120000l));
+		assertThat(HttpInlinerSender.parseRetryAfter("Wed, 21 Oct 2015 07:28:00 GMT"), is(0l));
+		assertThat(HttpInlinerSender.parseRetryAfter("soon"), is(0l));
+	}
+
+	@Test
+	public void unavailable_server_is_not_called_again_before_retry_after() throws Exception {
+		final AtomicInteger requests = new AtomicInteger();
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/write", exchange -> {
+			requests.incrementAndGet();
+			exchange.getResponseHeaders().add("Retry-After", "3600");
+			exchange.sendResponseHeaders(503, -1);
+			exchange.close();
+		});
+		server.start();
+		try {
+			HttpInlinerSender sender = new HttpInlinerSender(new HttpInfluxdbProtocol("127.0.0.1", server.getAddress().getPort(), "db"));
+			CircuitBreaker breaker = sender.getCircuitBreaker();
+
+			sender.send(new Measure("cpu", 1));
+			sender.flush();
+			sender.send(new Measure("cpu", 2));
+			sender.flush();
+
+			assertThat(requests.get(), is(1));
+			assertThat(breaker.getState(), is(CircuitBreaker.State.OPEN));
+			assertThat(breaker.getRemainingDelay() > TimeUnit.MINUTES.toNanos(59), is(true));
+			assertThat(sender.getPendingCount(), is(2));
+			sender.close();
+		} finally {
+			server.stop(0);
+		}
+	}
+
+	@Test
+	public void measures_are_split_in_requests_of_bounded_size() throws Exception {
+		final List<String> bodies = new ArrayList<>();
+		HttpServer server = server(bodies, Integer.MAX_VALUE);
+		try {
+			HttpInlinerSender sender = new HttpInlinerSender(new HttpInfluxdbProtocol("127.0.0.1", server.getAddress().getPort(), "db"));
+			sender.setAdaptiveBatchSize(new AdaptiveBatchSize(1000, 1, TimeUnit.MINUTES));
+
+			for (int i = 0; i < 100; i++) {
+				sender.send(new Measure("cpu", i).timestamp(1000l));
+			}
+			sender.flush();
+
+			assertThat(bodies.size() > 1, is(true));
+			for (String body : bodies) {
+				assertThat(body.length() <= 1000, is(true));
+			}
+			assertThat(distinctLines(bodies).size(), is(100));
+			assertThat(sender.getPendingCount(), is(0));
+			sender.close();
+		} finally {
+			server.stop(0);
+		}
+	}
+
+	@Test
+	public void too_large_requests_are_split_and_sent_again() throws Exception {
+		final List<String> bodies = new ArrayList<>();
+		HttpServer server = server(bodies, 1500);
+		try {
+			HttpInlinerSender sender = new HttpInlinerSender(new HttpInfluxdbProtocol("127.0.0.1", server.getAddress().getPort(), "db"));
+
+			for (int i = 0; i < 100; i++) {
+				sender.send(new Measure("cpu", i).timestamp(1000l));
+			}
+			sender.flush();
+
+			List<String> lines = new ArrayList<>();
+			for (String body : bodies) {
+				for (String line : body.split("\n")) {
+					lines.add(line);
+				}
+			}
+			assertThat(lines.size(), is(100));
+			assertThat(distinctLines(bodies).size(), is(100));
+			assertThat(sender.getAdaptiveBatchSize().getMaxBytes() < AdaptiveBatchSize.DEFAULT_MAX_BYTES, is(true));
+			sender.close();
+		} finally {
+			server.stop(0);
+		}
+	}
+
+	@Test
+	public void measures_sent_before_a_split_request_fails_are_not_sent_again() throws Exception {
+		final List<String> bodies = new ArrayList<>();
+		final AtomicInteger requests = new AtomicInteger();
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/write", exchange -> {
+			String body = Miscellaneous.readFrom(exchange.getRequestBody());
+			int request = requests.incrementAndGet();
+			if (request == 1) {
+				exchange.sendResponseHeaders(413, -1);
+			} else if (request == 3) {
+				exchange.sendResponseHeaders(500, -1);
+			} else {
+				synchronized (bodies) {
+					bodies.add(body);
+				}
+				exchange.sendResponseHeaders(204, -1);
+			}
+			exchange.close();
+		});
+		server.start();
+		try {
+			HttpInlinerSender sender = new HttpInlinerSender(new HttpInfluxdbProtocol("127.0.0.1", server.getAddress().getPort(), "db"));
+			sender.setCircuitBreaker(null);
+
+			for (int i = 0; i < 4; i++) {
+				sender.send(new Measure("cpu", i).timestamp(1000l));
+			}
+			// too large, first half sent, second half failed
+			sender.flush();
+			assertThat(sender.getPendingCount(), is(2));
+			sender.flush();
+
+			List<String> lines = new ArrayList<>();
+			for (String body : bodies) {
+				lines.addAll(Arrays.asList(body.split("\n")));
+			}
+			assertThat(lines.size(), is(4));
+			assertThat(distinctLines(bodies).size(), is(4));
+			assertThat(sender.getPendingCount(), is(0));
+			sender.close();
+		} finally {
+			server.stop(0);
+		}
+	}
+
+	@Test
+	public void sender_metrics_count_sent_lines_failures_and_pending_measures() throws Exception {
+		final List<String> bodies = new ArrayList<>();
+		HttpServer server = server(bodies, 100);
+		try {
+			MetricRegistry registry = new MetricRegistry();
+			HttpInlinerSender sender = new HttpInlinerSender(new HttpInfluxdbProtocol("127.0.0.1", server.getAddress().getPort(), "db"));
+			sender.setCircuitBreaker(null);
+			sender.registerMetrics(registry, "influxdb.sender");
+
+			sender.send(new Measure("cpu", 1).timestamp(1000l));
+			sender.send(new Measure("cpu", 2).timestamp(1000l));
+			sender.flush();
+			// refused as too large, without line boundary
+			sender.send(new Measure("cpu").addValue("text", "0123456789012345678901234567890123456789012345678901234567890123456789012345678901234567890123456789").timestamp(1000l));
+			sender.flush();
+
+			assertThat(registry.counter("influxdb.sender.lines").getCount(), is(2l));
+			assertThat(registry.counter("influxdb.sender.bytes").getCount(), is((long) bodies.get(0).length()));
+			assertThat(registry.timer("influxdb.sender.latency").getCount(), is(1l));
+			assertThat(registry.counter("influxdb.sender.failures.413").getCount(), is(1l));
+			assertThat(registry.getGauges().get("influxdb.sender.pending").getValue(), is((Object) 0));
+			assertThat(registry.getGauges().get("influxdb.sender.oldest-pending-age").getValue(), is((Object) 0l));
+			sender.close();
+		} finally {
+			server.stop(0);
+		}
+	}
+
+	@Test
+	public void gzip_bodies_are_received_decoded() throws Exception {
+		try (FakeInfluxDB influxdb = new FakeInfluxDB()) {
+			HttpInlinerSender sender = new HttpInlinerSender(influxdb.httpProtocol("db"));
+			sender.setGzipCompression(Deflater.BEST_SPEED, 0);
+
+			for (int i = 0; i < 100; i++) {
+				sender.send(new Measure("cpu", i).addTag("host", "web-" + i).timestamp(1000l));
+			}
+			sender.flush();
+
+			assertThat(influxdb.getLineCount(), is(100l));
+			assertThat(influxdb.getLines().get(0), is("cpu,host=web-0 value=0i 1000"));
+			sender.close();
+		}
+	}
+
+	@Test
+	public void measures_are_sent_again_after_a_connection_reset() throws Exception {
+		try (FakeInfluxDB influxdb = new FakeInfluxDB()) {
+			HttpInlinerSender sender = new HttpInlinerSender(influxdb.httpProtocol("db"));
+			sender.setCircuitBreaker(null);
+			influxdb.resetNext(1);
+
+			sender.send(new Measure("cpu", 1).timestamp(1000l));
+			sender.flush();
+			assertThat(influxdb.getLineCount(), is(0l));
+			assertThat(sender.getPendingCount(), is(1));
+
+			sender.flush();
+			assertThat(influxdb.getLines(), is(Collections.singletonList("cpu value=1i 1000")));
+			assertThat(sender.getPendingCount(), is(0));
+			sender.close();
+		}
+	}
+
+	@Test
+	public void partially_written_batches_are_not_sent_again() throws Exception {
+		try (FakeInfluxDB influxdb = new FakeInfluxDB()) {
+			HttpInlinerSender sender = new HttpInlinerSender(influxdb.httpProtocol("db"));
+			influxdb.partialWriteNext(3);
+
+			for (int i = 0; i < 10; i++) {
+				sender.send(new Measure("cpu", i).timestamp(1000l));
+			}
+			sender.flush();
+			sender.flush();
+
+			assertThat(influxdb.getRequestCount(), is(1l));
+			assertThat(influxdb.getLineCount(), is(3l));
+			assertThat(sender.getPendingCount(), is(0));
+			assertThat(sender.getCircuitBreaker().getState(), is(CircuitBreaker.State.CLOSED));
+			sender.close();
+		}
+	}
+
+	@Test
+	public void spooled_measures_are_replayed_in_order_after_an_outage() throws Exception {
+		File directory = Files.createTempDirectory("spool").toFile();
+		directory.deleteOnExit();
+		try (FakeInfluxDB influxdb = new FakeInfluxDB()) {
+			HttpInlinerSender sender = new HttpInlinerSender(influxdb.httpProtocol("db"));
+			sender.setCircuitBreaker(null);
+			sender.setSpool(new MappedSpool(directory, 1 << 20));
+			influxdb.failNext(2, 503, null);
+
+			sender.send(new Measure("cpu", 1).timestamp(1000l));
+			sender.flush();
+			sender.send(new Measure("cpu", 2).timestamp(2000l));
+			sender.flush();
+			assertThat(influxdb.getLineCount(), is(0l));
+			assertThat(sender.getPendingCount(), is(0));
+
+			sender.send(new Measure("cpu", 3).timestamp(3000l));
+			sender.flush();
+
+			List<String> expected = new ArrayList<>();
+			expected.add("cpu value=1i 1000");
+			expected.add("cpu value=2i 2000");
+			expected.add("cpu value=3i 3000");
+			assertThat(influxdb.getLines(), is(expected));
+			assertThat(sender.getSpool().isEmpty(), is(true));
+			sender.close();
+		}
+	}
+
+	@Test
+	public void many_measures_are_all_received_in_bounded_batches() throws Exception {
+		try (FakeInfluxDB influxdb = new FakeInfluxDB()) {
+			influxdb.setRecordLines(false);
+			influxdb.setLatency(2, TimeUnit.MILLISECONDS);
+			HttpInlinerSender sender = new HttpInlinerSender(influxdb.httpProtocol("db"), 50000);
+			sender.setAdaptiveBatchSize(new AdaptiveBatchSize(64 * 1024, 1, TimeUnit.MINUTES));
+
+			for (int i = 0; i < 50000; i++) {
+				sender.send(new Measure("requests").addTag("host", "web-" + (i % 20)).addValue("count", i).timestamp(1000l + i));
+			}
+			sender.flush();
+
+			assertThat(influxdb.getLineCount(), is(50000l));
+			assertThat(influxdb.getByteCount() / influxdb.getRequestCount() <= 64 * 1024, is(true));
+			sender.close();
+		}
+	}
+
+	/**
+	 * @return a server recording the bodies it accepts, refusing those bigger than the given size
+	 */
+	private static HttpServer server(final List<String> accepted, final int maxBodySize) throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/write", exchange -> {
+			String body = Miscellaneous.readFrom(exchange.getRequestBody());
+			if (body.length() > maxBodySize) {
+				exchange.sendResponseHeaders(413, -1);
+			} else {
+				synchronized (accepted) {
+					accepted.add(body);
+				}
+				exchange.sendResponseHeaders(204, -1);
+			}
+			exchange.close();
+		});
+		server.start();
+		return server;
+	}
+
+	private static Set<String> distinctLines(List<String> bodies) {
+		Set<String> lines = new HashSet<>();
+		for (String body : bodies) {
+			for (String line : body.split("\n")) {
+				lines.add(line);
+			}
+		}
+		return lines;
+	}
+}
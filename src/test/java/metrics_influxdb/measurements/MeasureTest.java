@@ -1,7 +1,13 @@
 package metrics_influxdb.measurements;
 
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
 import static org.testng.Assert.assertTrue;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
 import org.testng.annotations.Test;
 
 public class MeasureTest {
@@ -35,4 +41,46 @@ public class MeasureTest {
 				assertTrue(m.getValues().size() == 2);
 
 		}
+
+		@Test
+		public void valuesViewFormatsTypedFields() {
+				Measure m = new Measure("name")
+						.addValue("long", 12l)
+						.addValue("double", 1.5d)
+						.addValue("boolean", true)
+						.addValue("string", "say \"hi\"");
+
+				Map<String, String> expected = new HashMap<>();
+				expected.put("long", "12i");
+				expected.put("double", "1.5");
+				expected.put("boolean", "true");
+				expected.put("string", "\"say \\\"hi\\\"\"");
+				assertThat(m.getValues(), is(expected));
+				assertThat(m.getValues().get("long"), is("12i"));
+		}
+
+		@Test
+		public void fieldsAreSortedAndReplacedByKey() {
+				Measure m = new Measure("name");
+				m.addValue("c", 1).addValue("a", 2).addValue("b", 3).addValue("e", 4).addValue("d", 5).addValue("a", 6.0d);
+
+				assertThat(m.getFieldCount(), is(5));
+				assertThat(Arrays.asList(m.getFieldKey(0), m.getFieldKey(1), m.getFieldKey(2), m.getFieldKey(3), m.getFieldKey(4)), is(Arrays.asList("a", "b", "c", "d", "e")));
+				assertThat(m.getFieldType(0), is(Measure.FieldType.DOUBLE));
+				assertThat(m.getDoubleField(0), is(6.0d));
+				assertThat(m.getLongField(4), is(4l));
+		}
+
+		@Test
+		public void rawValuesAreKeptAsGiven() {
+				Map<String, String> values = new HashMap<>();
+				values.put("value", "42i");
+				Measure m = new Measure("name", null, values, 0l);
+
+				assertThat(m.getFieldType(0), is(Measure.FieldType.RAW));
+				assertThat(m.getValues().get("value"), is("42i"));
+
+				m.setValues(null);
+				assertThat(m.getFieldCount(), is(0));
+		}
 }
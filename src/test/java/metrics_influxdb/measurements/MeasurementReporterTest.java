@@ -8,12 +8,14 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import java.util.Collections;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import static metrics_influxdb.SortedMaps.singleton;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.startsWith;
 
 public class MeasurementReporterTest {
@@ -150,4 +152,111 @@ public class MeasurementReporterTest {
 		assertThat(sender.getFrames().get(0), containsString("999-percentile="));
 		assertThat(sender.getFrames().get(0), containsString("run-count="));
 	}
+	@SuppressWarnings("rawtypes")
+	@Test
+	public void idleMetricsAreSkippedUntilTheHeartbeat() {
+		final long[] now = {1000l};
+		Clock clock = new Clock() {
+			@Override
+			public long getTick() {
+				return TimeUnit.MILLISECONDS.toNanos(now[0]);
+			}
+
+			@Override
+			public long getTime() {
+				return now[0];
+			}
+		};
+		reporter = new MeasurementReporter(sender, registry, null, TimeUnit.SECONDS, TimeUnit.MILLISECONDS, clock, Collections.<String, String>emptyMap(), MetricMeasurementTransformer.NOOP);
+		reporter.setChangeDetector(new ChangeDetector(1, TimeUnit.MINUTES));
+		final int[] snapshots = {0};
+		Timer timer = new Timer() {
+			@Override
+			public Snapshot getSnapshot() {
+				snapshots[0]++;
+				return super.getSnapshot();
+			}
+		};
+		timer.update(1, TimeUnit.MILLISECONDS);
+		Counter counter = registry.counter("c");
+		counter.inc();
+		Gauge<Integer> gauge = new Gauge<Integer>() {
+			@Override
+			public Integer getValue() {
+				return 42;
+			}
+		};
+
+		reporter.report(singleton("g", (Gauge) gauge), singleton("c", counter), SortedMaps.<String, Histogram>empty(), SortedMaps.<String, Meter>empty(), singleton("t", timer));
+		assertThat(sentLines(), is(3));
+
+		now[0] += 10000;
+		counter.inc();
+		reporter.report(singleton("g", (Gauge) gauge), singleton("c", counter), SortedMaps.<String, Histogram>empty(), SortedMaps.<String, Meter>empty(), singleton("t", timer));
+		assertThat(sentLines(), is(4));
+		assertThat(snapshots[0], is(1));
+
+		now[0] += TimeUnit.MINUTES.toMillis(1);
+		reporter.report(singleton("g", (Gauge) gauge), singleton("c", counter), SortedMaps.<String, Histogram>empty(), SortedMaps.<String, Meter>empty(), singleton("t", timer));
+		assertThat(sentLines(), is(7));
+		assertThat(snapshots[0], is(2));
+	}
+
+	@Test
+	public void indexedReportingFollowsTheRegistry() {
+		final int[] filtered = {0};
+		final int[] transformed = {0};
+		MetricFilter filter = new MetricFilter() {
+			@Override
+			public boolean matches(String name, Metric metric) {
+				filtered[0]++;
+				return !name.startsWith("hidden");
+			}
+		};
+		MetricMeasurementTransformer transformer = new MetricMeasurementTransformer() {
+			@Override
+			public Map<String, String> tags(String metricName) {
+				return Collections.singletonMap("host", "web-1");
+			}
+
+			@Override
+			public String measurementName(String metricName) {
+				transformed[0]++;
+				return metricName.toUpperCase();
+			}
+		};
+		registry.counter("c1").inc();
+		reporter = new MeasurementReporter(sender, registry, filter, TimeUnit.SECONDS, TimeUnit.MILLISECONDS, Clock.defaultClock(), Collections.<String, String>emptyMap(), transformer);
+		reporter.setIndexed(true);
+		registry.counter("c2").inc();
+		registry.counter("hidden").inc();
+		registry.timer("t").update(1, TimeUnit.MILLISECONDS);
+
+		reporter.report();
+		reporter.report();
+		assertThat(sentLines(), is(6));
+		assertThat(sender.getFrames().get(0), containsString("C1,host=web-1 count=1i"));
+		assertThat(filtered[0], is(4));
+		assertThat(transformed[0], is(3));
+
+		registry.remove("c1");
+		sender.getFrames().clear();
+		reporter.report();
+		assertThat(sentLines(), is(2));
+		assertThat(sender.getFrames().get(0), not(containsString("C1")));
+
+		reporter.close();
+		registry.counter("c3");
+		assertThat(filtered[0], is(4));
+	}
+
+	private int sentLines() {
+		int lines = 0;
+		for (String frame : sender.getFrames()) {
+			if (!frame.isEmpty()) {
+				lines += frame.split("\n").length;
+			}
+		}
+		return lines;
+	}
 }
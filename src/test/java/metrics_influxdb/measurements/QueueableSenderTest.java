@@ -0,0 +1,46 @@
+package metrics_influxdb.measurements;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+public class QueueableSenderTest {
+	@Test
+	public void queue_size_bounds_the_kept_batch_and_the_queued_measures() {
+		final List<String> sent = new ArrayList<>();
+		final boolean[] failing = {true};
+		QueueableSender sender = new QueueableSender(3) {
+			@Override
+			protected boolean doSend(Collection<Measure> measuresToSend) {
+				if (failing[0]) {
+					return false;
+				}
+				for (Measure m : measuresToSend) {
+					sent.add(m.getName());
+				}
+				return true;
+			}
+		};
+
+		sender.send(new Measure("m1", 1));
+		sender.send(new Measure("m2", 2));
+		sender.flush();
+		assertThat(sender.getPendingCount(), is(2));
+
+		sender.send(new Measure("m3", 3));
+		sender.send(new Measure("m4", 4));
+		sender.send(new Measure("m5", 5));
+		assertThat(sender.getPendingCount(), is(3));
+		assertThat(sender.getDroppedCount(), is(2l));
+
+		failing[0] = false;
+		sender.flush();
+		assertThat(sent.toString(), is("[m3, m4, m5]"));
+		assertThat(sender.getPendingCount(), is(0));
+	}
+}
@@ -0,0 +1,68 @@
+package metrics_influxdb.measurements;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+
+import metrics_influxdb.api.measurements.MetricMeasurementTransformer;
+import metrics_influxdb.measurements.ReportProfiler.Phase;
+import metrics_influxdb.measurements.ReportProfiler.TickProfile;
+
+public class ReportProfilerTest {
+	@Test
+	public void tick_is_broken_down_by_phase_and_slowest_metrics() {
+		MetricRegistry registry = new MetricRegistry();
+		registry.register("slow", new Gauge<Long>() {
+			@Override
+			public Long getValue() {
+				try {
+					Thread.sleep(20);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return 1l;
+			}
+		});
+		registry.counter("c1").inc();
+		registry.counter("c2").inc();
+		registry.timer("t").update(1, TimeUnit.MILLISECONDS);
+		ListInlinerSender sender = new ListInlinerSender(100);
+		MeasurementReporter reporter = new MeasurementReporter(sender, registry, MetricFilter.ALL, TimeUnit.SECONDS, TimeUnit.MILLISECONDS,
+				Clock.defaultClock(), Collections.<String, String>emptyMap(), MetricMeasurementTransformer.NOOP);
+		ReportProfiler profiler = new ReportProfiler(2, 1, TimeUnit.HOURS);
+		reporter.setProfiler(profiler);
+
+		reporter.report();
+
+		TickProfile tick = profiler.getLastTick();
+		assertThat(tick.getMetricCount(), is(4));
+		assertThat(tick.getDuration(Phase.SNAPSHOT), greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(20)));
+		assertThat(tick.getDuration(), greaterThanOrEqualTo(tick.getDuration(Phase.SNAPSHOT)));
+		assertThat(tick.getSlowestMetrics().size(), is(2));
+		assertThat(tick.getSlowestMetrics().get(0).getName(), is("slow"));
+		assertThat(profiler.getTickDurations().getCount(), is(1l));
+		assertThat(profiler.getPhaseDurations(Phase.BUILD).getCount(), is(1l));
+		assertThat(sender.getFrames().size(), is(1));
+	}
+
+	@Test
+	public void profiling_is_disabled_by_default() {
+		MeasurementReporter reporter = new MeasurementReporter(new ListInlinerSender(100), new MetricRegistry(), MetricFilter.ALL, TimeUnit.SECONDS,
+				TimeUnit.MILLISECONDS, Clock.defaultClock(), Collections.<String, String>emptyMap(), MetricMeasurementTransformer.NOOP);
+
+		reporter.report();
+
+		assertThat(reporter.getProfiler() == null, is(true));
+		assertThat(ReportProfiler.active() == null, is(true));
+	}
+}
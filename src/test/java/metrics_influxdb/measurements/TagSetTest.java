@@ -0,0 +1,104 @@
+package metrics_influxdb.measurements;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.testng.annotations.Test;
+
+public class TagSetTest {
+	@Test
+	public void tags_are_sorted_by_key() {
+		Map<String, String> tags = new HashMap<>();
+		tags.put("type", "prod");
+		tags.put("server", "actarus");
+		tags.put("dc", "west");
+
+		TagSet tagSet = TagSet.of(tags);
+
+		assertThat(Arrays.asList(tagSet.getKey(0), tagSet.getKey(1), tagSet.getKey(2)), is(Arrays.asList("dc", "server", "type")));
+		assertThat(tagSet.get("server"), is("actarus"));
+	}
+
+	@Test
+	public void tag_sets_behave_as_maps() {
+		Map<String, String> tags = new HashMap<>();
+		tags.put("server", "actarus");
+		tags.put("type", "prod");
+
+		TagSet tagSet = TagSet.of(tags);
+
+		assertThat(tagSet.equals(tags), is(true));
+		assertThat(tags.equals(tagSet), is(true));
+		assertThat(tagSet.hashCode(), is(tags.hashCode()));
+	}
+
+	@Test
+	public void identical_tag_sets_are_interned() {
+		TagSet first = TagSet.of("server", "actarus");
+		TagSet second = TagSet.of(new HashMap<>(first));
+
+		assertThat(second, sameInstance(first));
+	}
+
+	@Test
+	public void merged_tags_override_base_tags() {
+		TagSet base = TagSet.of("server", "actarus").with("type", "prod");
+		Map<String, String> added = new HashMap<>();
+		added.put("type", "dev");
+		added.put("app", "metrics");
+
+		TagSet merged = base.with(added);
+
+		assertThat(merged.size(), is(3));
+		assertThat(merged.getKey(0), is("app"));
+		assertThat(merged.get("type"), is("dev"));
+		assertThat(merged.get("server"), is("actarus"));
+	}
+
+	@Test
+	public void merging_tag_sets_is_remembered() {
+		TagSet base = TagSet.of("server", "actarus");
+		TagSet added = TagSet.of("type", "prod");
+
+		TagSet merged = base.with(added);
+
+		assertThat(base.with(added), sameInstance(merged));
+		assertThat(base.with(TagSet.empty()), sameInstance(base));
+	}
+
+	@Test
+	public void tag_sets_interned_concurrently_are_shared() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<TagSet>> results = new ArrayList<>();
+			for (int i = 0; i < 64; i++) {
+				results.add(executor.submit(new Callable<TagSet>() {
+					@Override
+					public TagSet call() {
+						Map<String, String> tags = new HashMap<>();
+						tags.put("server", "concurrent");
+						tags.put("type", "prod");
+						return TagSet.of(tags);
+					}
+				}));
+			}
+			TagSet first = results.get(0).get();
+			for (Future<TagSet> result : results) {
+				assertThat(result.get(), sameInstance(first));
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package metrics_influxdb.measurements;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import metrics_influxdb.FakeInfluxDB;
+import metrics_influxdb.UdpInfluxdbProtocol;
+import metrics_influxdb.misc.Miscellaneous;
+
+public class UdpInlinerSenderTest {
+	private DatagramSocket server;
+	private UdpInlinerSender sender;
+
+	@BeforeMethod
+	public void init() throws IOException {
+		server = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+		server.setSoTimeout(500);
+		server.setReceiveBufferSize(1 << 20);
+		sender = new UdpInlinerSender(new UdpInfluxdbProtocol(InetAddress.getLoopbackAddress().getHostAddress(), server.getLocalPort()));
+	}
+
+	@AfterMethod
+	public void close() throws IOException {
+		sender.close();
+		server.close();
+	}
+
+	@Test
+	public void lines_are_packed_up_to_the_packet_size() throws IOException {
+		sender.setMaxPacketSize(1400);
+
+		sendMeasures(100);
+		List<String> packets = receive();
+
+		assertThat(packets.size() < 100, is(true));
+		int lines = 0;
+		for (String p : packets) {
+			assertThat(p.getBytes(Miscellaneous.UTF8).length, lessThanOrEqualTo(1400));
+			lines += p.split("\n").length;
+		}
+		assertThat(lines, is(100));
+	}
+
+	@Test
+	public void each_measure_is_sent_alone_without_packing() throws IOException {
+		sender.setMaxPacketSize(0);
+
+		sendMeasures(10);
+		List<String> packets = receive();
+
+		assertThat(packets.size(), is(10));
+		assertThat(packets.get(0).contains("\n"), is(false));
+	}
+
+	@Test
+	public void channel_is_reused_between_flushes() throws IOException {
+		sendMeasures(5);
+		sendMeasures(5);
+		List<String> packets = receive();
+
+		assertThat(packets.size(), is(2));
+	}
+
+	@Test
+	public void lost_packets_only_lose_their_own_lines() throws Exception {
+		try (FakeInfluxDB influxdb = new FakeInfluxDB()) {
+			influxdb.setPacketLoss(0.2, 42);
+			UdpInlinerSender lossy = new UdpInlinerSender(influxdb.udpProtocol());
+			lossy.setMaxPacketSize(0);
+
+			for (int i = 0; i < 200; i++) {
+				lossy.send(new Measure("cpu_load").addValue("value", i));
+			}
+			lossy.flush();
+			influxdb.awaitLines(200 - influxdb.getLostPacketCount(), 2, TimeUnit.SECONDS);
+
+			assertThat(influxdb.getPacketCount(), is(200l));
+			assertThat(influxdb.getLostPacketCount() > 0, is(true));
+			assertThat(influxdb.getLineCount(), is(200 - influxdb.getLostPacketCount()));
+			lossy.close();
+		}
+	}
+
+	private void sendMeasures(int count) {
+		for (int i = 0; i < count; i++) {
+			sender.send(new Measure("cpu_load").addTag("server", "server-" + i).addValue("value", i * 0.5d));
+		}
+		sender.flush();
+	}
+
+	private List<String> receive() throws IOException {
+		List<String> packets = new ArrayList<>();
+		byte[] buffer = new byte[65536];
+		try {
+			while (true) {
+				DatagramPacket p = new DatagramPacket(buffer, buffer.length);
+				server.receive(p);
+				packets.add(new String(p.getData(), 0, p.getLength(), Miscellaneous.UTF8));
+			}
+		} catch (SocketTimeoutException e) {
+			// all sent packets received
+		}
+		return packets;
+	}
+}
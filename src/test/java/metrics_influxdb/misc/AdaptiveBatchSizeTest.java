@@ -0,0 +1,51 @@
+package metrics_influxdb.misc;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+public class AdaptiveBatchSizeTest {
+	private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+	private static final long SLOW = TimeUnit.SECONDS.toNanos(2);
+
+	@Test
+	public void size_is_halved_when_requests_are_slow_and_grows_back_when_fast() {
+		AdaptiveBatchSize size = new AdaptiveBatchSize(1024 * 1024, 1, TimeUnit.SECONDS);
+		assertThat(size.get(), is(1024 * 1024));
+
+		size.onSent(size.get(), SLOW);
+		assertThat(size.get(), is(512 * 1024));
+		size.onSent(size.get(), SLOW);
+		assertThat(size.get(), is(256 * 1024));
+
+		size.onSent(size.get(), FAST);
+		assertThat(size.get(), is(320 * 1024));
+	}
+
+	@Test
+	public void small_batches_do_not_grow_the_size() {
+		AdaptiveBatchSize size = new AdaptiveBatchSize(1024 * 1024, 1, TimeUnit.SECONDS);
+		size.onSent(size.get(), SLOW);
+
+		size.onSent(1000, FAST);
+
+		assertThat(size.get(), is(512 * 1024));
+	}
+
+	@Test
+	public void size_never_exceeds_a_size_refused_by_the_server() {
+		AdaptiveBatchSize size = new AdaptiveBatchSize(1024 * 1024, 1, TimeUnit.SECONDS);
+
+		size.onTooLarge(300 * 1024);
+		assertThat(size.get(), is(150 * 1024));
+		for (int i = 0; i < 10; i++) {
+			size.onSent(size.get(), FAST);
+		}
+
+		assertThat(size.get(), is(300 * 1024 - 1));
+		assertThat(size.getMaxBytes(), is(300 * 1024 - 1));
+	}
+}
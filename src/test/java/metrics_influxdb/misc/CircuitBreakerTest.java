@@ -0,0 +1,93 @@
+package metrics_influxdb.misc;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+import com.codahale.metrics.Clock;
+
+public class CircuitBreakerTest {
+	private static class ManualClock extends Clock {
+		long tick;
+
+		@Override
+		public long getTick() {
+			return tick;
+		}
+
+		void advance(long duration, TimeUnit unit) {
+			tick += unit.toNanos(duration);
+		}
+	}
+
+	@Test
+	public void breaker_opens_after_consecutive_failures() {
+		ManualClock clock = new ManualClock();
+		CircuitBreaker breaker = new CircuitBreaker(2, 10, 100, TimeUnit.SECONDS, clock);
+
+		assertThat(breaker.allowRequest(), is(true));
+		breaker.onFailure();
+		assertThat(breaker.getState(), is(CircuitBreaker.State.CLOSED));
+		assertThat(breaker.allowRequest(), is(true));
+		breaker.onFailure();
+
+		assertThat(breaker.getState(), is(CircuitBreaker.State.OPEN));
+		assertThat(breaker.allowRequest(), is(false));
+		assertThat(breaker.getRemainingDelay(), is(allOf(
+				greaterThanOrEqualTo(TimeUnit.SECONDS.toNanos(5)), lessThanOrEqualTo(TimeUnit.SECONDS.toNanos(10)))));
+		assertThat(breaker.getRejectedCount(), is(1l));
+	}
+
+	@Test
+	public void a_single_probe_is_allowed_once_the_delay_is_elapsed() {
+		ManualClock clock = new ManualClock();
+		CircuitBreaker breaker = new CircuitBreaker(1, 10, 100, TimeUnit.SECONDS, clock);
+		breaker.onFailure();
+
+		clock.advance(10, TimeUnit.SECONDS);
+		assertThat(breaker.allowRequest(), is(true));
+		assertThat(breaker.getState(), is(CircuitBreaker.State.HALF_OPEN));
+		assertThat(breaker.allowRequest(), is(false));
+
+		breaker.onSuccess();
+		assertThat(breaker.getState(), is(CircuitBreaker.State.CLOSED));
+		assertThat(breaker.allowRequest(), is(true));
+	}
+
+	@Test
+	public void delay_grows_exponentially_up_to_the_maximum() {
+		ManualClock clock = new ManualClock();
+		CircuitBreaker breaker = new CircuitBreaker(1, 10, 35, TimeUnit.SECONDS, clock);
+		long[] maxDelays = {10, 20, 35, 35};
+
+		for (long maxDelay : maxDelays) {
+			breaker.onFailure();
+			assertThat(breaker.getRemainingDelay(), is(allOf(
+					greaterThanOrEqualTo(TimeUnit.SECONDS.toNanos(maxDelay) / 2), lessThanOrEqualTo(TimeUnit.SECONDS.toNanos(maxDelay)))));
+			// failed probe
+			clock.advance(maxDelay, TimeUnit.SECONDS);
+			assertThat(breaker.allowRequest(), is(true));
+		}
+	}
+
+	@Test
+	public void requested_retry_delay_opens_the_breaker_at_once() {
+		ManualClock clock = new ManualClock();
+		CircuitBreaker breaker = new CircuitBreaker(3, 1, 100, TimeUnit.SECONDS, clock);
+
+		breaker.onFailure(30, TimeUnit.SECONDS);
+
+		assertThat(breaker.getState(), is(CircuitBreaker.State.OPEN));
+		assertThat(breaker.getRemainingDelay(), is(TimeUnit.SECONDS.toNanos(30)));
+		clock.advance(29, TimeUnit.SECONDS);
+		assertThat(breaker.allowRequest(), is(false));
+		clock.advance(1, TimeUnit.SECONDS);
+		assertThat(breaker.allowRequest(), is(true));
+	}
+}
@@ -0,0 +1,19 @@
+package metrics_influxdb.misc;
+
+import static org.hamcrest.CoreMatchers.hasItem;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.testng.annotations.Test;
+
+import metrics_influxdb.FakeInfluxDB;
+
+public class HttpDatabaseCreatorTest {
+	@Test
+	public void database_is_created() throws Exception {
+		try (FakeInfluxDB influxdb = new FakeInfluxDB()) {
+			HttpDatabaseCreator.run(influxdb.httpProtocol("metrics"));
+
+			assertThat(influxdb.getDatabases(), hasItem("metrics"));
+		}
+	}
+}
@@ -0,0 +1,136 @@
+package metrics_influxdb.misc;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class MappedSpoolTest {
+	private File directory;
+
+	@BeforeMethod
+	public void createDirectory() throws IOException {
+		directory = Files.createTempDirectory("spool").toFile();
+		directory.deleteOnExit();
+	}
+
+	@Test
+	public void records_are_read_in_order_across_segments() throws IOException {
+		MappedSpool spool = new MappedSpool(directory, 64, 1024);
+
+		for (int i = 0; i < 10; i++) {
+			spool.append(record("cpu value=" + i));
+		}
+
+		for (int i = 0; i < 10; i++) {
+			assertThat(read(spool.peek()), is("cpu value=" + i));
+			// peeking again returns the same record until it is committed
+			assertThat(read(spool.peek()), is("cpu value=" + i));
+			spool.commit();
+		}
+		assertThat(spool.peek(), nullValue());
+		assertThat(spool.isEmpty(), is(true));
+		assertThat(spool.getPendingSize(), is(0l));
+		assertThat(segmentFiles(), is(1));
+		spool.close();
+	}
+
+	@Test
+	public void reopened_spool_resumes_after_the_last_committed_record() throws IOException {
+		MappedSpool spool = new MappedSpool(directory, 64, 1024);
+		for (int i = 0; i < 6; i++) {
+			spool.append(record("cpu value=" + i));
+		}
+		for (int i = 0; i < 4; i++) {
+			spool.peek();
+			spool.commit();
+		}
+		spool.close();
+
+		MappedSpool reopened = new MappedSpool(directory, 64, 1024);
+		assertThat(read(reopened.peek()), is("cpu value=4"));
+		reopened.commit();
+		reopened.append(record("cpu value=6"));
+		assertThat(read(reopened.peek()), is("cpu value=5"));
+		reopened.commit();
+		assertThat(read(reopened.peek()), is("cpu value=6"));
+		reopened.commit();
+		assertThat(reopened.peek(), nullValue());
+		reopened.close();
+	}
+
+	@Test
+	public void bytes_of_an_interrupted_record_are_not_read_after_a_shorter_one() throws IOException {
+		MappedSpool spool = new MappedSpool(directory, 64, 1024);
+		spool.append(record("a"));
+		spool.close();
+		// an unpublished record, whose bytes look like a record once followed by one of 2 bytes
+		try (RandomAccessFile segment = new RandomAccessFile(directory.listFiles((dir, name) -> name.endsWith(".spool"))[0], "rw")) {
+			segment.seek(4 + 1 + 4 + 2);
+			segment.writeInt(3);
+			segment.write("xyz".getBytes(StandardCharsets.UTF_8));
+		}
+
+		MappedSpool reopened = new MappedSpool(directory, 64, 1024);
+		reopened.append(record("bb"));
+		reopened.close();
+
+		MappedSpool recovered = new MappedSpool(directory, 64, 1024);
+		assertThat(read(recovered.peek()), is("a"));
+		recovered.commit();
+		assertThat(read(recovered.peek()), is("bb"));
+		recovered.commit();
+		assertThat(recovered.peek(), nullValue());
+		recovered.close();
+	}
+
+	@Test
+	public void oldest_segments_are_dropped_when_full() throws IOException {
+		// 3 records of 20 bytes per segment, 2 segments at most
+		MappedSpool spool = new MappedSpool(directory, 60, 120);
+
+		for (int i = 0; i < 9; i++) {
+			spool.append(record("cpu value=" + i + "xxxxx"));
+		}
+
+		assertThat(spool.getDroppedCount(), is(3l));
+		assertThat(read(spool.peek()), is("cpu value=3xxxxx"));
+		assertThat(segmentFiles(), is(2));
+		spool.close();
+	}
+
+	@Test
+	public void records_bigger_than_a_segment_get_their_own_segment() throws IOException {
+		MappedSpool spool = new MappedSpool(directory, 16, 1024);
+		String big = "cpu value=1,load=2,memory=3";
+
+		spool.append(record("a"));
+		spool.append(record(big));
+
+		assertThat(read(spool.peek()), is("a"));
+		spool.commit();
+		assertThat(read(spool.peek()), is(big));
+		spool.close();
+	}
+
+	private int segmentFiles() {
+		return directory.list((dir, name) -> name.endsWith(".spool")).length;
+	}
+
+	private static ByteBuffer record(String s) {
+		return ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String read(ByteBuffer b) {
+		return StandardCharsets.UTF_8.decode(b).toString();
+	}
+}
@@ -0,0 +1,188 @@
+package metrics_influxdb.misc;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.testng.annotations.Test;
+
+public class RingBufferTest {
+	private static final int PRODUCERS = 4;
+	private static final int ELEMENTS_PER_PRODUCER = 200000;
+
+	@Test
+	public void elements_are_polled_in_order() {
+		RingBuffer<Integer> buffer = new RingBuffer<>(3);
+
+		assertThat(buffer.offer(1), is(true));
+		assertThat(buffer.offer(2), is(true));
+		assertThat(buffer.offer(3), is(true));
+		assertThat(buffer.offer(4), is(false));
+
+		assertThat(buffer.peek(), is(1));
+		assertThat(buffer.poll(), is(1));
+		assertThat(buffer.offer(4), is(true));
+		assertThat(buffer.size(), is(3));
+
+		List<Integer> drained = new ArrayList<>();
+		assertThat(buffer.drainTo(drained), is(3));
+		assertThat(drained, is(Arrays.asList(2, 3, 4)));
+		assertThat(buffer.poll(), nullValue());
+		assertThat(buffer.isEmpty(), is(true));
+	}
+
+	@Test
+	public void oldest_elements_are_dropped_when_full() {
+		RingBuffer<Integer> buffer = new RingBuffer<>(3);
+
+		for (int i = 1; i <= 3; i++) {
+			assertThat(buffer.add(i), is(0));
+		}
+		assertThat(buffer.add(4), is(1));
+		assertThat(buffer.add(5), is(1));
+
+		assertThat(buffer.getDroppedCount(), is(2l));
+		List<Integer> drained = new ArrayList<>();
+		buffer.drainTo(drained, 2);
+		assertThat(drained, is(Arrays.asList(3, 4)));
+		assertThat(buffer.size(), is(1));
+	}
+
+	@Test
+	public void concurrent_producers_lose_nothing_when_consumer_keeps_up() throws Exception {
+		final RingBuffer<Long> buffer = new RingBuffer<>(1024);
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> producers = new ArrayList<>();
+		for (int p = 0; p < PRODUCERS; p++) {
+			final long base = (long) p * ELEMENTS_PER_PRODUCER;
+			producers.add(startThread(new Runnable() {
+				@Override
+				public void run() {
+					await(start);
+					for (int i = 0; i < ELEMENTS_PER_PRODUCER; i++) {
+						while (!buffer.offer(base + i)) {
+							Thread.yield();
+						}
+					}
+				}
+			}));
+		}
+
+		boolean[] seen = new boolean[PRODUCERS * ELEMENTS_PER_PRODUCER];
+		long[] lastPerProducer = new long[PRODUCERS];
+		Arrays.fill(lastPerProducer, -1);
+		List<Long> drained = new ArrayList<>();
+		int received = 0;
+		start.countDown();
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+		while (received < seen.length && System.nanoTime() < deadline) {
+			drained.clear();
+			buffer.drainTo(drained, 256);
+			for (Long e : drained) {
+				int value = e.intValue();
+				assertThat("duplicate " + value, seen[value], is(false));
+				seen[value] = true;
+				int producer = value / ELEMENTS_PER_PRODUCER;
+				// elements of a given producer come out in order
+				assertThat(value > lastPerProducer[producer], is(true));
+				lastPerProducer[producer] = value;
+				received++;
+			}
+		}
+		for (Thread t : producers) {
+			t.join();
+		}
+
+		assertThat(received, is(seen.length));
+		assertThat(buffer.getDroppedCount(), is(0l));
+	}
+
+	@Test
+	public void produced_elements_are_either_consumed_or_dropped() throws Exception {
+		final RingBuffer<Long> buffer = new RingBuffer<>(64);
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicBoolean producing = new AtomicBoolean(true);
+		List<Thread> producers = new ArrayList<>();
+		for (int p = 0; p < PRODUCERS; p++) {
+			final long base = (long) p * ELEMENTS_PER_PRODUCER;
+			producers.add(startThread(new Runnable() {
+				@Override
+				public void run() {
+					await(start);
+					for (int i = 0; i < ELEMENTS_PER_PRODUCER; i++) {
+						buffer.add(base + i);
+					}
+				}
+			}));
+		}
+
+		final long[] consumed = new long[1];
+		Thread consumer = startThread(new Runnable() {
+			@Override
+			public void run() {
+				await(start);
+				List<Long> drained = new ArrayList<>();
+				while (producing.get() || !buffer.isEmpty()) {
+					drained.clear();
+					consumed[0] += buffer.drainTo(drained, 16);
+				}
+			}
+		});
+		start.countDown();
+		for (Thread t : producers) {
+			t.join();
+		}
+		producing.set(false);
+		consumer.join();
+
+		assertThat(consumed[0] + buffer.getDroppedCount(), is((long) PRODUCERS * ELEMENTS_PER_PRODUCER));
+		assertThat(buffer.size(), is(0));
+	}
+
+	@Test
+	public void peek_never_returns_an_element_older_than_a_previous_one() throws Exception {
+		final RingBuffer<Long> buffer = new RingBuffer<>(8);
+		final AtomicBoolean producing = new AtomicBoolean(true);
+		Thread producer = startThread(new Runnable() {
+			@Override
+			public void run() {
+				for (long i = 1; i <= ELEMENTS_PER_PRODUCER; i++) {
+					buffer.add(i);
+				}
+				producing.set(false);
+			}
+		});
+
+		long last = 0;
+		while (producing.get()) {
+			Long peeked = buffer.peek();
+			if (peeked != null) {
+				assertThat(peeked >= last, is(true));
+				last = peeked;
+			}
+		}
+		producer.join();
+	}
+
+	private static Thread startThread(Runnable r) {
+		Thread t = new Thread(r);
+		t.setDaemon(true);
+		t.start();
+		return t;
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
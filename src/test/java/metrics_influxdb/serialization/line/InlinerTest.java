@@ -1,10 +1,15 @@
 package metrics_influxdb.serialization.line;
 
 import metrics_influxdb.measurements.Measure;
+import metrics_influxdb.misc.Miscellaneous;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
@@ -272,4 +277,65 @@ public class InlinerTest {
 		assertThat(lines[1], is(inliner.inline(m)));
 		assertThat(lines[2], is(inliner.inline(m)));
 	}
+
+	@Test
+	public void streamed_measurements_are_identical_to_inlined_ones() throws IOException {
+		List<Measure> measures = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			measures.add(new Measure("load é" + i).addTag("server", "srv " + (i % 7)).addValue("value", i * 1.5d).addValue("count", i));
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		long written = inliner.inline(measures, out);
+
+		assertThat(written, is(Long.valueOf(out.size())));
+		assertThat(new String(out.toByteArray(), Miscellaneous.UTF8), is(inliner.inline(measures)));
+	}
+
+	@Test
+	public void measurements_can_be_appended_to_a_reused_buffer() {
+		Measure m = new Measure("load", 10);
+		LineBuffer buffer = new LineBuffer(16);
+
+		inliner.inline(Arrays.asList(m, m), buffer);
+		buffer.reset();
+		inliner.inline(m, buffer);
+
+		assertThat(buffer.toString(), is(inliner.inline(m)));
+	}
+
+	@Test
+	public void series_keys_are_reused_until_tags_change() {
+		inliner = new Inliner(TimeUnit.MILLISECONDS);
+		Map<String, String> tags = new HashMap<>();
+		tags.put("server", "127.0.0.1");
+		Measure m = new Measure("cpu", tags, 0l, 1000l);
+		SeriesKeyCache cache = inliner.getSeriesKeyCache();
+
+		String first = inliner.inline(m);
+		String second = inliner.inline(m);
+
+		assertThat(second, is(first));
+		assertThat(cache.getMisses(), is(1l));
+		assertThat(cache.getHits(), is(1l));
+
+		m.addTag("type", "prod");
+		String third = inliner.inline(m);
+
+		assertThat(third, startsWith("cpu,server=127.0.0.1,type=prod "));
+		assertThat(cache.getMisses(), is(2l));
+		assertThat(cache.size(), is(2));
+	}
+
+	@Test
+	public void series_key_cache_stays_bounded() {
+		inliner = new Inliner(TimeUnit.MILLISECONDS, 10);
+
+		for (int i = 0; i < 100; i++) {
+			String output = inliner.inline(new Measure("cpu" + i, 0l, 1000l));
+			assertThat(output, startsWith("cpu" + i + " "));
+		}
+
+		assertThat(inliner.getSeriesKeyCache().size() <= 10, is(true));
+	}
 }
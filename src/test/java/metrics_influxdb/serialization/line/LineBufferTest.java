@@ -0,0 +1,67 @@
+package metrics_influxdb.serialization.line;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.Arrays;
+
+import org.testng.annotations.Test;
+
+import metrics_influxdb.misc.Miscellaneous;
+
+public class LineBufferTest {
+	@Test
+	public void strings_are_utf8_encoded() {
+		String s = "ascii é € 😀 \uD800 end";
+		LineBuffer buffer = new LineBuffer(16);
+
+		buffer.append(s);
+
+		byte[] actual = Arrays.copyOf(buffer.array(), buffer.length());
+		assertThat(Arrays.equals(actual, s.getBytes(Miscellaneous.UTF8)), is(true));
+	}
+
+	@Test
+	public void escaping_matches_miscellaneous_escape() {
+		String s = "cpu load,server=host 1";
+		LineBuffer buffer = new LineBuffer();
+
+		buffer.appendEscaped(s, ' ', ',', '=');
+
+		assertThat(buffer.toString(), is(Miscellaneous.escape(s, ' ', ',', '=')));
+	}
+
+	@Test
+	public void longs_are_written_as_decimal() {
+		long[] values = {0, 1, -1, 9, 10, 99, 100, 123456789, Long.MAX_VALUE, Long.MIN_VALUE, -987654321098765L};
+
+		for (long v : values) {
+			LineBuffer buffer = new LineBuffer();
+			buffer.append(v);
+			assertThat(buffer.toString(), is(Long.toString(v)));
+		}
+	}
+
+	@Test
+	public void doubles_are_written_as_double_to_string() {
+		double[] values = {0.0d, -0.0d, 1.0d, -3.0d, 50.03d, 9_999_999d, 10_000_000d, 1e-5, 123456.789d, Double.MAX_VALUE, Double.MIN_VALUE};
+
+		for (double v : values) {
+			LineBuffer buffer = new LineBuffer();
+			buffer.append(v);
+			assertThat(buffer.toString(), is(Double.toString(v)));
+		}
+	}
+
+	@Test
+	public void length_can_be_rolled_back() {
+		LineBuffer buffer = new LineBuffer();
+		buffer.append("first");
+		int mark = buffer.length();
+		buffer.append(",second");
+
+		buffer.setLength(mark);
+
+		assertThat(buffer.toString(), is("first"));
+	}
+}